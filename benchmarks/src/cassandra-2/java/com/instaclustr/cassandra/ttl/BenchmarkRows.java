@@ -0,0 +1,183 @@
+package com.instaclustr.cassandra.ttl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.config.KSMetaData;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.cql3.ColumnIdentifier;
+import org.apache.cassandra.db.ArrayBackedSortedColumns;
+import org.apache.cassandra.db.BufferCell;
+import org.apache.cassandra.db.BufferExpiringCell;
+import org.apache.cassandra.db.Cell;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.composites.CellName;
+import org.apache.cassandra.db.composites.Composite;
+import org.apache.cassandra.db.composites.Composites;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.db.marshal.MapType;
+import org.apache.cassandra.db.marshal.SetType;
+import org.apache.cassandra.db.marshal.TupleType;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.db.marshal.UserType;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.locator.SimpleStrategy;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+
+/**
+ * Tables and serialized rows of {@link RowShape shapes} for Cassandra 2.
+ *
+ * User types are always frozen in Cassandra 2, so a UDT is a single cell.
+ */
+final class BenchmarkRows {
+
+    static final int TTL = 86400;
+
+    private BenchmarkRows() {
+    }
+
+    static CFMetaData metadata(final RowShape shape) {
+        switch (shape) {
+            case NARROW:
+                return compile("CREATE TABLE %s.%s (id int PRIMARY KEY, value text)", shape);
+            case WIDE:
+                final StringBuilder columns = new StringBuilder();
+
+                for (int i = 0; i < RowShape.WIDE_COLUMNS; i++) {
+                    columns.append(String.format(", c%02d text", i));
+                }
+
+                return compile("CREATE TABLE %s.%s (id int PRIMARY KEY" + columns + ")", shape);
+            case COLLECTION:
+                return compile("CREATE TABLE %s.%s (id int PRIMARY KEY, tags set<text>, attributes map<text, text>)", shape);
+            case UDT:
+                registerAddressType();
+                return compile("CREATE TABLE %s.%s (id int PRIMARY KEY, address frozen<address>)", shape);
+            default:
+                throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+    }
+
+    /**
+     * Serializes a row the way it is laid out in a data file, including the end of row marker.
+     *
+     * @param ttl whether all cells of the row are expiring
+     */
+    static byte[] serializedRow(final CFMetaData metadata, final boolean ttl) throws IOException {
+        final long timestamp = FBUtilities.timestampMicros();
+
+        final ColumnFamily columnFamily = ArrayBackedSortedColumns.factory.create(metadata);
+
+        columnFamily.addColumn(cell(metadata.comparator.rowMarker(Composites.EMPTY), ByteBufferUtil.EMPTY_BYTE_BUFFER, timestamp, ttl));
+
+        for (final ColumnDefinition column : metadata.regularColumns()) {
+            if (column.type instanceof SetType) {
+                for (int i = 0; i < RowShape.COLLECTION_ELEMENTS; i++) {
+                    columnFamily.addColumn(cell(metadata.comparator.create(Composites.EMPTY, column, text("tag", i)), ByteBufferUtil.EMPTY_BYTE_BUFFER, timestamp, ttl));
+                }
+            } else if (column.type instanceof MapType) {
+                for (int i = 0; i < RowShape.COLLECTION_ELEMENTS; i++) {
+                    columnFamily.addColumn(cell(metadata.comparator.create(Composites.EMPTY, column, text("key", i)), text("value", i), timestamp, ttl));
+                }
+            } else if (column.type instanceof UserType) {
+                final UserType type = (UserType) column.type;
+                final ByteBuffer[] fields = new ByteBuffer[type.size()];
+
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = value(type.fieldType(i), i);
+                }
+
+                columnFamily.addColumn(cell(metadata.comparator.create(Composites.EMPTY, column), TupleType.buildValue(fields), timestamp, ttl));
+            } else {
+                columnFamily.addColumn(cell(metadata.comparator.create(Composites.EMPTY, column), value(column.type, 0), timestamp, ttl));
+            }
+        }
+
+        return serialize(metadata, columnFamily);
+    }
+
+    /**
+     * Table of partitions with many rows of a single text column, their cells are read one after another.
+     */
+    static CFMetaData clusteredMetadata() {
+        return CFMetaData.compile(String.format("CREATE TABLE %s.clustered (id int, ck int, value text, PRIMARY KEY (id, ck))", RowShape.KEYSPACE),
+                                  RowShape.KEYSPACE);
+    }
+
+    /**
+     * Serializes a partition of a {@link #clusteredMetadata() clustered table} the way it is laid out in a data file,
+     * including the end of partition marker.
+     *
+     * @param ttl whether all cells of the partition are expiring
+     */
+    static byte[] serializedPartition(final CFMetaData metadata, final int rows, final boolean ttl) throws IOException {
+        final long timestamp = FBUtilities.timestampMicros();
+
+        final ColumnFamily columnFamily = ArrayBackedSortedColumns.factory.create(metadata);
+        final ColumnDefinition value = metadata.getColumnDefinition(new ColumnIdentifier("value", false));
+
+        for (int row = 0; row < rows; row++) {
+            final Composite clustering = metadata.comparator.make(row);
+
+            columnFamily.addColumn(cell(metadata.comparator.rowMarker(clustering), ByteBufferUtil.EMPTY_BYTE_BUFFER, timestamp, ttl));
+            columnFamily.addColumn(cell(metadata.comparator.create(clustering, value), text("value", row), timestamp, ttl));
+        }
+
+        return serialize(metadata, columnFamily);
+    }
+
+    private static byte[] serialize(final CFMetaData metadata, final ColumnFamily columnFamily) throws IOException {
+        try (final DataOutputBuffer out = new DataOutputBuffer()) {
+            for (final Cell cell : columnFamily) {
+                metadata.comparator.onDiskAtomSerializer().serializeForSSTable(cell, out);
+            }
+
+            // end of row, an empty cell name
+            out.writeShort(0);
+
+            return Arrays.copyOf(out.getData(), out.getLength());
+        }
+    }
+
+    private static CFMetaData compile(final String cql, final RowShape shape) {
+        return CFMetaData.compile(String.format(cql, RowShape.KEYSPACE, shape.table()), RowShape.KEYSPACE);
+    }
+
+    private static void registerAddressType() {
+        if (Schema.instance.getKSMetaData(RowShape.KEYSPACE) != null) {
+            return;
+        }
+
+        final KSMetaData keyspace = KSMetaData.newKeyspace(RowShape.KEYSPACE,
+                                                           SimpleStrategy.class,
+                                                           ImmutableMap.of("replication_factor", "1"),
+                                                           true,
+                                                           Collections.<CFMetaData>emptyList());
+
+        keyspace.userTypes.addType(new UserType(RowShape.KEYSPACE,
+                                                ByteBufferUtil.bytes("address"),
+                                                Arrays.asList(ByteBufferUtil.bytes("street"), ByteBufferUtil.bytes("city"), ByteBufferUtil.bytes("zip")),
+                                                Arrays.<AbstractType<?>>asList(UTF8Type.instance, UTF8Type.instance, Int32Type.instance)));
+
+        Schema.instance.setKeyspaceDefinition(keyspace);
+    }
+
+    private static Cell cell(final CellName name, final ByteBuffer value, final long timestamp, final boolean ttl) {
+        return ttl ? new BufferExpiringCell(name, value, timestamp, TTL) : new BufferCell(name, value, timestamp);
+    }
+
+    private static ByteBuffer value(final AbstractType<?> type, final int i) {
+        return type instanceof Int32Type ? ByteBufferUtil.bytes(i) : text("value", i);
+    }
+
+    private static ByteBuffer text(final String prefix, final int i) {
+        return ByteBufferUtil.bytes(String.format("%s-%02d-%s", prefix, i, "xxxxxxxxxxxxxxxxxxxxxxxx"));
+    }
+}
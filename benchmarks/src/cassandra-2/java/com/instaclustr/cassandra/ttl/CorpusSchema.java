@@ -0,0 +1,43 @@
+package com.instaclustr.cassandra.ttl;
+
+import java.util.Collections;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.KSMetaData;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.locator.SimpleStrategy;
+
+/**
+ * Table of a {@link CorpusSpec corpus} for Cassandra 2.
+ */
+final class CorpusSchema {
+
+    private CorpusSchema() {
+    }
+
+    static String createTable(final CorpusSpec spec) {
+        return String.format("CREATE TABLE %s.%s (pk bigint, ck int, v text, PRIMARY KEY (pk, ck)) WITH compression = {'sstable_compression': '%s'}",
+                             RowShape.KEYSPACE,
+                             CorpusSpec.TABLE,
+                             spec.compressed() ? spec.compression : "");
+    }
+
+    /**
+     * Cassandra 2 remover skips SSTables of keyspaces it does not know, the table is registered in the schema
+     * unless the corpus was just written by this JVM, which registers it too.
+     */
+    static void register(final CorpusSpec spec) {
+        if (Schema.instance.getKSMetaData(RowShape.KEYSPACE) != null) {
+            return;
+        }
+
+        final CFMetaData table = CFMetaData.compile(createTable(spec), RowShape.KEYSPACE);
+
+        Schema.instance.load(KSMetaData.newKeyspace(RowShape.KEYSPACE,
+                                                    SimpleStrategy.class,
+                                                    ImmutableMap.of("replication_factor", "1"),
+                                                    true,
+                                                    Collections.singletonList(table)));
+    }
+}
@@ -0,0 +1,82 @@
+package com.instaclustr.cassandra.ttl;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Config;
+import org.apache.cassandra.db.ArrayBackedSortedColumns;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.ColumnSerializer;
+import org.apache.cassandra.io.sstable.format.big.BigFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput and allocation of reading a single row from its on-disk form without TTL and adding
+ * its cells to a column family, the hot path of Cassandra 2 remover.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class NoTTLAtomBenchmark {
+
+    @Param({"NARROW", "WIDE", "COLLECTION", "UDT"})
+    public RowShape shape;
+
+    @Param({"true", "false"})
+    public boolean ttl;
+
+    private CFMetaData metadata;
+
+    private ByteArrayInputStream bytes;
+
+    private DataInputStream in;
+
+    private ColumnFamily columnFamily;
+
+    private NoTTLSerializer serializer;
+
+    private Cassandra2TTLRemover remover;
+
+    private RemovalMetrics metrics;
+
+    @Setup
+    public void setup() throws Exception {
+        Config.setClientMode(true);
+
+        metadata = BenchmarkRows.metadata(shape);
+        bytes = new ByteArrayInputStream(BenchmarkRows.serializedRow(metadata, ttl));
+        in = new DataInputStream(bytes);
+        columnFamily = ArrayBackedSortedColumns.factory.create(metadata);
+        serializer = new NoTTLSerializer(metadata.comparator);
+        remover = new Cassandra2TTLRemover();
+        metrics = new RemovalMetrics();
+    }
+
+    @Benchmark
+    public ColumnFamily removeTTL() {
+        bytes.reset();
+        columnFamily.clear();
+
+        remover.serializeRow(NoTTLAbstractCell.onDiskIterator(in, ColumnSerializer.Flag.LOCAL, Integer.MIN_VALUE, BigFormat.latestVersion, serializer),
+                             serializer,
+                             columnFamily,
+                             metrics);
+
+        return columnFamily;
+    }
+}
@@ -0,0 +1,119 @@
+package com.instaclustr.cassandra.ttl;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOError;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.AbstractIterator;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Config;
+import org.apache.cassandra.db.ArrayBackedSortedColumns;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.ColumnSerializer;
+import org.apache.cassandra.db.OnDiskAtom;
+import org.apache.cassandra.io.sstable.format.big.BigFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Allocation of reading partitions of Cassandra 2 without TTL when a serializer and a column family
+ * are reused by all partitions of a scanner, compared to the previous read path which created a serializer
+ * for every atom and a column family for every partition. The GC profiler reports the allocation per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class NoTTLPartitionBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int rows;
+
+    @Param({"true", "false"})
+    public boolean ttl;
+
+    private CFMetaData metadata;
+
+    private ByteArrayInputStream bytes;
+
+    private DataInputStream in;
+
+    private ColumnFamily columnFamily;
+
+    private NoTTLSerializer serializer;
+
+    private Cassandra2TTLRemover remover;
+
+    private RemovalMetrics metrics;
+
+    @Setup
+    public void setup() throws Exception {
+        Config.setClientMode(true);
+
+        metadata = BenchmarkRows.clusteredMetadata();
+        bytes = new ByteArrayInputStream(BenchmarkRows.serializedPartition(metadata, rows, ttl));
+        in = new DataInputStream(bytes);
+        columnFamily = ArrayBackedSortedColumns.factory.create(metadata);
+        serializer = new NoTTLSerializer(metadata.comparator);
+        remover = new Cassandra2TTLRemover();
+        metrics = new RemovalMetrics();
+    }
+
+    @Benchmark
+    public ColumnFamily reused() {
+        bytes.reset();
+        columnFamily.clear();
+
+        remover.serializeRow(NoTTLAbstractCell.onDiskIterator(in, ColumnSerializer.Flag.LOCAL, Integer.MIN_VALUE, BigFormat.latestVersion, serializer),
+                             serializer,
+                             columnFamily,
+                             metrics);
+
+        return columnFamily;
+    }
+
+    @Benchmark
+    public ColumnFamily perAtom() {
+        bytes.reset();
+
+        final ColumnFamily partition = ArrayBackedSortedColumns.factory.create(metadata);
+
+        remover.serializeRow(perAtomIterator(in, metadata), serializer, partition, metrics);
+
+        return partition;
+    }
+
+    /**
+     * The previous read path, a new serializer for every atom.
+     */
+    private static Iterator<OnDiskAtom> perAtomIterator(final DataInput in, final CFMetaData metadata) {
+        return new AbstractIterator<OnDiskAtom>() {
+            protected OnDiskAtom computeNext() {
+                final OnDiskAtom atom;
+
+                try {
+                    atom = new NoTTLSerializer(metadata.comparator).deserializeFromSSTable(in, ColumnSerializer.Flag.LOCAL, Integer.MIN_VALUE, BigFormat.latestVersion);
+                } catch (final IOException e) {
+                    throw new IOError(e);
+                }
+
+                return atom == null ? endOfData() : atom;
+            }
+        };
+    }
+}
@@ -0,0 +1,121 @@
+package com.instaclustr.cassandra.ttl;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.cql3.FieldIdentifier;
+import org.apache.cassandra.db.Clustering;
+import org.apache.cassandra.db.LivenessInfo;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.db.marshal.MapType;
+import org.apache.cassandra.db.marshal.SetType;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.db.marshal.UserType;
+import org.apache.cassandra.db.rows.BTreeRow;
+import org.apache.cassandra.db.rows.BufferCell;
+import org.apache.cassandra.db.rows.Cell;
+import org.apache.cassandra.db.rows.CellPath;
+import org.apache.cassandra.db.rows.Row;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+
+/**
+ * Tables and rows of {@link RowShape shapes} for Cassandra 3.
+ */
+final class BenchmarkRows {
+
+    static final int TTL = 86400;
+
+    private BenchmarkRows() {
+    }
+
+    static CFMetaData metadata(final RowShape shape) {
+        final CFMetaData.Builder builder = CFMetaData.Builder.create(RowShape.KEYSPACE, shape.table())
+            .withPartitioner(Murmur3Partitioner.instance)
+            .addPartitionKey("id", Int32Type.instance);
+
+        switch (shape) {
+            case NARROW:
+                builder.addRegularColumn("value", UTF8Type.instance);
+                break;
+            case WIDE:
+                for (int i = 0; i < RowShape.WIDE_COLUMNS; i++) {
+                    builder.addRegularColumn(String.format("c%02d", i), UTF8Type.instance);
+                }
+                break;
+            case COLLECTION:
+                builder.addRegularColumn("tags", SetType.getInstance(UTF8Type.instance, true));
+                builder.addRegularColumn("attributes", MapType.getInstance(UTF8Type.instance, UTF8Type.instance, true));
+                break;
+            case UDT:
+                builder.addRegularColumn("address", new UserType(RowShape.KEYSPACE,
+                                                                 ByteBufferUtil.bytes("address"),
+                                                                 Arrays.asList(FieldIdentifier.forUnquoted("street"),
+                                                                               FieldIdentifier.forUnquoted("city"),
+                                                                               FieldIdentifier.forUnquoted("zip")),
+                                                                 Arrays.asList(UTF8Type.instance, UTF8Type.instance, Int32Type.instance),
+                                                                 true));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * @param ttl whether all cells and the primary key liveness of the row are expiring
+     */
+    static Row row(final CFMetaData metadata, final boolean ttl) {
+        final int nowInSec = FBUtilities.nowInSeconds();
+        final long timestamp = FBUtilities.timestampMicros();
+
+        final Row.Builder builder = BTreeRow.unsortedBuilder(nowInSec);
+
+        builder.newRow(Clustering.EMPTY);
+        builder.addPrimaryKeyLivenessInfo(ttl ? LivenessInfo.expiring(timestamp, TTL, nowInSec) : LivenessInfo.create(timestamp, nowInSec));
+
+        for (final ColumnDefinition column : metadata.partitionColumns().regulars) {
+            if (column.type instanceof SetType) {
+                for (int i = 0; i < RowShape.COLLECTION_ELEMENTS; i++) {
+                    builder.addCell(cell(column, timestamp, nowInSec, ttl, ByteBufferUtil.EMPTY_BYTE_BUFFER, CellPath.create(text("tag", i))));
+                }
+            } else if (column.type instanceof MapType) {
+                for (int i = 0; i < RowShape.COLLECTION_ELEMENTS; i++) {
+                    builder.addCell(cell(column, timestamp, nowInSec, ttl, text("value", i), CellPath.create(text("key", i))));
+                }
+            } else if (column.type instanceof UserType) {
+                final UserType type = (UserType) column.type;
+
+                for (int i = 0; i < type.size(); i++) {
+                    builder.addCell(cell(column, timestamp, nowInSec, ttl, value(type.fieldType(i), i), CellPath.create(ByteBufferUtil.bytes((short) i))));
+                }
+            } else {
+                builder.addCell(cell(column, timestamp, nowInSec, ttl, value(column.type, 0), null));
+            }
+        }
+
+        return builder.build();
+    }
+
+    private static Cell cell(final ColumnDefinition column,
+                             final long timestamp,
+                             final int nowInSec,
+                             final boolean ttl,
+                             final ByteBuffer value,
+                             final CellPath path) {
+        return ttl ? BufferCell.expiring(column, timestamp, TTL, nowInSec, value, path) : BufferCell.live(column, timestamp, value, path);
+    }
+
+    private static ByteBuffer value(final AbstractType<?> type, final int i) {
+        return type instanceof Int32Type ? ByteBufferUtil.bytes(i) : text("value", i);
+    }
+
+    private static ByteBuffer text(final String prefix, final int i) {
+        return ByteBufferUtil.bytes(String.format("%s-%02d-%s", prefix, i, "xxxxxxxxxxxxxxxxxxxxxxxx"));
+    }
+}
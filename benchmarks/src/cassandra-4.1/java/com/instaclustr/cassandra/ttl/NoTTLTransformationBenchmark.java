@@ -0,0 +1,53 @@
+package com.instaclustr.cassandra.ttl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.rows.Row;
+import org.apache.cassandra.utils.FBUtilities;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput and allocation of removing TTL from a single row, the hot path of Cassandra 4.1 remover.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class NoTTLTransformationBenchmark {
+
+    @Param({"NARROW", "WIDE", "COLLECTION", "UDT"})
+    public RowShape shape;
+
+    @Param({"true", "false"})
+    public boolean ttl;
+
+    private NoTTLTransformation transformation;
+
+    private Row row;
+
+    @Setup
+    public void setup() {
+        DatabaseDescriptor.clientInitialization();
+
+        row = BenchmarkRows.row(BenchmarkRows.metadata(shape), ttl);
+        transformation = new NoTTLTransformation(new RemovalMetrics(), FBUtilities.nowInSeconds());
+    }
+
+    @Benchmark
+    public Row removeTTL() {
+        return transformation.applyToRow(row);
+    }
+}
@@ -0,0 +1,23 @@
+package com.instaclustr.cassandra.ttl;
+
+/**
+ * Table of a {@link CorpusSpec corpus} for Cassandra 4.
+ */
+final class CorpusSchema {
+
+    private CorpusSchema() {
+    }
+
+    static String createTable(final CorpusSpec spec) {
+        return String.format("CREATE TABLE %s.%s (pk bigint, ck int, v text, PRIMARY KEY (pk, ck)) WITH compression = %s",
+                             RowShape.KEYSPACE,
+                             CorpusSpec.TABLE,
+                             spec.compressed() ? "{'class': '" + spec.compression + "'}" : "{'enabled': 'false'}");
+    }
+
+    /**
+     * Nothing to do, the remover builds the table from the CQL statement.
+     */
+    static void register(final CorpusSpec spec) {
+    }
+}
@@ -0,0 +1,36 @@
+package com.instaclustr.cassandra.ttl;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.ProfilerConfig;
+
+/**
+ * Runs JMH benchmarks with the GC profiler always on, so allocation rate is reported next to throughput,
+ * and writes results as JSON unless other format is asked for. All JMH command line options are accepted.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+
+        final ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions);
+
+        if (commandLineOptions.getProfilers().stream().noneMatch(BenchmarkRunner::isGCProfiler)) {
+            options.addProfiler(GCProfiler.class);
+        }
+
+        if (!commandLineOptions.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+
+        new Runner(options.build()).run();
+    }
+
+    private static boolean isGCProfiler(final ProfilerConfig profiler) {
+        return profiler.getKlass().equals("gc") || profiler.getKlass().equals(GCProfiler.class.getName());
+    }
+}
@@ -0,0 +1,54 @@
+package com.instaclustr.cassandra.ttl;
+
+/**
+ * Shape of a synthetic SSTable corpus of a single table with a bigint partition key, an int clustering key
+ * and a text value, every row is written with TTL with probability of {@link #ttlRatio}.
+ */
+final class CorpusSpec {
+
+    static final String TABLE = "macro";
+
+    /**
+     * TTL of expiring rows, long enough for none of them to expire while a benchmark runs.
+     */
+    static final int TTL = 365 * 86400;
+
+    /**
+     * Value of compressor option meaning compression is turned off.
+     */
+    static final String NO_COMPRESSION = "none";
+
+    final long partitions;
+
+    final int rowsPerPartition;
+
+    final int valueSize;
+
+    final double ttlRatio;
+
+    final String compression;
+
+    final long seed;
+
+    CorpusSpec(final long partitions,
+               final int rowsPerPartition,
+               final int valueSize,
+               final double ttlRatio,
+               final String compression,
+               final long seed) {
+        this.partitions = partitions;
+        this.rowsPerPartition = rowsPerPartition;
+        this.valueSize = valueSize;
+        this.ttlRatio = ttlRatio;
+        this.compression = compression;
+        this.seed = seed;
+    }
+
+    boolean compressed() {
+        return !NO_COMPRESSION.equalsIgnoreCase(compression);
+    }
+
+    String insert() {
+        return String.format("INSERT INTO %s.%s (pk, ck, v) VALUES (?, ?, ?) USING TTL ?", RowShape.KEYSPACE, TABLE);
+    }
+}
@@ -0,0 +1,417 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.lang.String.format;
+import static java.util.stream.Collectors.toList;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.ServiceLoader;
+import java.util.stream.Stream;
+
+import com.instaclustr.cassandra.ttl.cli.TTLRemovalException;
+import com.instaclustr.cassandra.ttl.cli.TTLRemoverCLI;
+import org.apache.cassandra.io.sstable.CQLSSTableWriter;
+import org.apache.cassandra.utils.FBUtilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.ParameterException;
+import picocli.CommandLine.Spec;
+
+/**
+ * End-to-end benchmark of a whole removal run. A synthetic corpus of SSTables is written by {@link CQLSSTableWriter}
+ * unless it already exists, then the remover found on the class path rewrites it several times and throughput,
+ * GC time and peak resident set size of every iteration are written to a JSON report.
+ */
+@Command(name = "ttl-remove-macro-benchmark",
+    mixinStandardHelpOptions = true,
+    sortOptions = false,
+    description = "end-to-end benchmark of TTL removal from a synthetic SSTable corpus")
+public class MacroBenchmark implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MacroBenchmark.class);
+
+    private static final double MIB = 1024 * 1024;
+
+    private static final String VALUE_CHARACTERS = "abcdefghijklmnopqrstuvwxyz0123456789";
+
+    @Spec
+    protected CommandSpec spec;
+
+    @Option(names = {"--work-dir", "-d"},
+        paramLabel = "[DIRECTORY]",
+        required = true,
+        description = "Directory the corpus is written to (or read from if it exists) and SSTables without TTL are written to.")
+    public Path workDir;
+
+    @Option(names = {"--partitions", "-n"},
+        paramLabel = "[INTEGER]",
+        defaultValue = "1000000",
+        description = "Number of partitions of the corpus, defaults to 1000000.")
+    public long partitions;
+
+    @Option(names = {"--rows-per-partition", "-w"},
+        paramLabel = "[INTEGER]",
+        defaultValue = "10",
+        description = "Number of rows of every partition, defaults to 10.")
+    public int rowsPerPartition;
+
+    @Option(names = {"--value-size", "-v"},
+        paramLabel = "[BYTES]",
+        defaultValue = "64",
+        description = "Size of the text value of every row, defaults to 64.")
+    public int valueSize;
+
+    @Option(names = {"--ttl-ratio", "-t"},
+        paramLabel = "[RATIO]",
+        defaultValue = "0.5",
+        description = "Ratio of rows written with TTL, between 0 and 1, defaults to 0.5.")
+    public double ttlRatio;
+
+    @Option(names = {"--compression", "-c"},
+        paramLabel = "[COMPRESSOR]",
+        defaultValue = "LZ4Compressor",
+        description = "Compressor of the corpus table, e.g. LZ4Compressor or DeflateCompressor, 'none' turns compression off, defaults to LZ4Compressor.")
+    public String compression;
+
+    @Option(names = {"--seed"},
+        paramLabel = "[INTEGER]",
+        defaultValue = "42",
+        description = "Seed of generated values and of rows chosen to have TTL, defaults to 42.")
+    public long seed;
+
+    @Option(names = {"--corpus-only"},
+        description = "Only write the corpus and exit, so removal is measured by another JVM whose peak RSS does not include the corpus writing.")
+    public boolean corpusOnly;
+
+    @Option(names = {"--iterations", "-i"},
+        paramLabel = "[INTEGER]",
+        defaultValue = "3",
+        description = "Number of times the corpus is rewritten, defaults to 3.")
+    public int iterations;
+
+    @Option(names = {"--threads", "-j"},
+        paramLabel = "[INTEGER]",
+        defaultValue = "1",
+        description = "Number of SSTables to rewrite concurrently, defaults to 1.")
+    public int threads;
+
+    @Option(names = {"--token-ranges", "-r"},
+        paramLabel = "[INTEGER]",
+        defaultValue = "1",
+        description = "Number of token ranges every SSTable is split to, defaults to 1.")
+    public int tokenRanges;
+
+    @Option(names = {"--access-mode", "-A"},
+        paramLabel = "[MODE]",
+        description = "How input SSTables are read, mmap, standard or auto, defaults to the access mode of the agent or of cassandra.yaml.")
+    public String accessMode;
+
+    @Option(names = {"--raw-rewrite"},
+        description = "Rewrites cells at the byte level.")
+    public boolean rawRewrite;
+
+    @Option(names = {"--compress-chunks"},
+        paramLabel = "[INTEGER]",
+        defaultValue = "0",
+        description = "Number of output chunks compressed ahead of the writer on a pool of threads, relevant only for Cassandra 2, defaults to 0.")
+    public int compressChunks;
+
+    @Option(names = {"--report-file", "-R"},
+        paramLabel = "[FILE]",
+        description = "Path to the JSON report, defaults to macro-benchmark.json in --work-dir.")
+    public Path reportFile;
+
+    public static void main(String[] args) {
+        System.exit(TTLRemoverCLI.execute(new CommandLine(new MacroBenchmark()), args));
+    }
+
+    @Override
+    public void run() {
+        validate();
+
+        final CorpusSpec corpusSpec = new CorpusSpec(partitions, rowsPerPartition, valueSize, ttlRatio, compression, seed);
+
+        try {
+            final Path corpus = workDir.resolve("corpus");
+            final Path tableDir = corpus.resolve(RowShape.KEYSPACE).resolve(CorpusSpec.TABLE);
+
+            if (!Files.isDirectory(tableDir)) {
+                writeCorpus(corpusSpec, tableDir);
+            } else {
+                logger.info(format("Using existing corpus in %s", tableDir));
+            }
+
+            if (corpusOnly) {
+                return;
+            }
+
+            CorpusSchema.register(corpusSpec);
+
+            final List<Path> sstables = dataFiles(corpus);
+            final long inputBytes = sstables.stream().mapToLong(sstable -> sstable.toFile().length()).sum();
+
+            final Iterator<SSTableTTLRemover> removers = ServiceLoader.load(SSTableTTLRemover.class).iterator();
+
+            if (!removers.hasNext()) {
+                throw new TTLRemovalException("Unable to locate an instance of SSTableTTLRemover on the class path.");
+            }
+
+            final SSTableTTLRemover remover = removers.next();
+
+            final List<Iteration> results = new ArrayList<>();
+
+            for (int i = 0; i < iterations; i++) {
+                final Iteration iteration = removeTTL(remover, sstables, corpusSpec, workDir.resolve("output"), inputBytes);
+
+                logger.info(format("Iteration %s of %s: %s", i + 1, iterations, iteration));
+
+                results.add(iteration);
+            }
+
+            final Path report = reportFile != null ? reportFile : workDir.resolve("macro-benchmark.json");
+
+            Files.write(report, toJson(corpusSpec, remover, sstables.size(), inputBytes, results).getBytes(StandardCharsets.UTF_8));
+
+            logger.info(format("Report written to %s", report));
+        } catch (final Exception ex) {
+            throw new RuntimeException("Unable to run macro benchmark", ex);
+        }
+    }
+
+    private void validate() {
+        if (partitions <= 0 || rowsPerPartition <= 0 || valueSize < 0) {
+            throw new ParameterException(spec.commandLine(), "--partitions and --rows-per-partition have to be positive, --value-size can not be negative.");
+        }
+
+        if (ttlRatio < 0 || ttlRatio > 1) {
+            throw new ParameterException(spec.commandLine(), "--ttl-ratio has to be between 0 and 1.");
+        }
+
+        if (iterations <= 0 || threads <= 0 || tokenRanges <= 0) {
+            throw new ParameterException(spec.commandLine(), "--iterations, --threads and --token-ranges have to be positive.");
+        }
+
+        if (accessMode != null) {
+            try {
+                AccessMode.parse(accessMode);
+            } catch (final IllegalArgumentException ex) {
+                throw new ParameterException(spec.commandLine(), ex.getMessage());
+            }
+        }
+    }
+
+    private void writeCorpus(final CorpusSpec spec, final Path tableDir) throws Exception {
+        Files.createDirectories(tableDir);
+
+        logger.info(format("Writing corpus of %s partitions with %s rows each to %s", spec.partitions, spec.rowsPerPartition, tableDir));
+
+        final long start = System.nanoTime();
+
+        final Random random = new Random(spec.seed);
+        final char[] value = new char[spec.valueSize];
+
+        try (final CQLSSTableWriter writer = CQLSSTableWriter.builder()
+            .inDirectory(tableDir.toString())
+            .forTable(CorpusSchema.createTable(spec))
+            .using(spec.insert())
+            .build()) {
+
+            for (long partition = 0; partition < spec.partitions; partition++) {
+                for (int row = 0; row < spec.rowsPerPartition; row++) {
+                    for (int i = 0; i < value.length; i++) {
+                        value[i] = VALUE_CHARACTERS.charAt(random.nextInt(VALUE_CHARACTERS.length()));
+                    }
+
+                    // TTL of 0 means the row does not expire
+                    writer.addRow(partition, row, new String(value), random.nextDouble() < spec.ttlRatio ? CorpusSpec.TTL : 0);
+                }
+            }
+        }
+
+        logger.info(format("Corpus written in %s ms", (System.nanoTime() - start) / 1_000_000));
+    }
+
+    private Iteration removeTTL(final SSTableTTLRemover remover,
+                                final List<Path> sstables,
+                                final CorpusSpec spec,
+                                final Path output,
+                                final long inputBytes) throws Exception {
+        delete(output);
+
+        final RemovalOptions options = new RemovalOptions();
+        options.threads = threads;
+        options.tokenRanges = tokenRanges;
+        options.progressIntervalSeconds = 0;
+        options.accessMode = accessMode == null ? null : AccessMode.parse(accessMode);
+        options.rawRewrite = rawRewrite;
+        options.compressChunks = compressChunks;
+
+        final long gcCountBefore = gcCount();
+        final long gcMillisBefore = gcMillis();
+        final long start = System.nanoTime();
+
+        remover.executeRemoval(output, sstables, CorpusSchema.createTable(spec), options);
+
+        final long elapsedNanos = System.nanoTime() - start;
+
+        return new Iteration(elapsedNanos / 1_000_000,
+                             inputBytes / MIB / (elapsedNanos / 1e9),
+                             options.metrics.getPartitions() / (elapsedNanos / 1e9),
+                             options.metrics.getPartitions(),
+                             options.metrics.getBytesWritten(),
+                             gcCount() - gcCountBefore,
+                             gcMillis() - gcMillisBefore,
+                             peakRss());
+    }
+
+    private static List<Path> dataFiles(final Path corpus) throws IOException {
+        try (final Stream<Path> stream = Files.walk(corpus)) {
+            return stream.filter(f -> f.toString().endsWith("Data.db")).collect(toList());
+        }
+    }
+
+    private static void delete(final Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+
+        try (final Stream<Path> stream = Files.walk(directory)) {
+            for (final Path path : stream.sorted(Comparator.reverseOrder()).collect(toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+
+    /**
+     * @return peak resident set size of this process in bytes so far, -1 when it is not known, e.g. not on Linux
+     */
+    static long peakRss() {
+        final Path status = Paths.get("/proc/self/status");
+
+        if (!Files.isReadable(status)) {
+            return -1;
+        }
+
+        try {
+            for (final String line : Files.readAllLines(status, StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmHWM:")) {
+                    // e.g. "VmHWM:	  123456 kB"
+                    return Long.parseLong(line.substring("VmHWM:".length()).replace("kB", "").trim()) * 1024;
+                }
+            }
+        } catch (final IOException | NumberFormatException ex) {
+            logger.warn("Unable to read peak RSS", ex);
+        }
+
+        return -1;
+    }
+
+    private String toJson(final CorpusSpec spec,
+                          final SSTableTTLRemover remover,
+                          final int sstables,
+                          final long inputBytes,
+                          final List<Iteration> results) {
+        final StringBuilder sb = new StringBuilder();
+
+        sb.append("{\n");
+        sb.append(format(Locale.ROOT, "  \"cassandraVersion\": \"%s\",\n", FBUtilities.getReleaseVersionString()));
+        sb.append(format(Locale.ROOT, "  \"remover\": \"%s\",\n", remover.getClass().getName()));
+        sb.append(format(Locale.ROOT, "  \"javaVersion\": \"%s\",\n", System.getProperty("java.version")));
+        sb.append(format(Locale.ROOT, "  \"availableProcessors\": %d,\n", Runtime.getRuntime().availableProcessors()));
+        sb.append(format(Locale.ROOT, "  \"maxHeapBytes\": %d,\n", Runtime.getRuntime().maxMemory()));
+        sb.append(format(Locale.ROOT, "  \"threads\": %d,\n", threads));
+        sb.append(format(Locale.ROOT, "  \"tokenRanges\": %d,\n", tokenRanges));
+        sb.append(format(Locale.ROOT, "  \"accessMode\": \"%s\",\n", accessMode == null ? "default" : AccessMode.parse(accessMode).cassandraName()));
+        sb.append(format(Locale.ROOT, "  \"rawRewrite\": %s,\n", rawRewrite));
+        sb.append(format(Locale.ROOT, "  \"compressChunks\": %d,\n", compressChunks));
+
+        sb.append("  \"corpus\": {\n");
+        sb.append(format(Locale.ROOT, "    \"partitions\": %d,\n", spec.partitions));
+        sb.append(format(Locale.ROOT, "    \"rowsPerPartition\": %d,\n", spec.rowsPerPartition));
+        sb.append(format(Locale.ROOT, "    \"valueSize\": %d,\n", spec.valueSize));
+        sb.append(format(Locale.ROOT, "    \"ttlRatio\": %.3f,\n", spec.ttlRatio));
+        sb.append(format(Locale.ROOT, "    \"compression\": \"%s\",\n", spec.compression));
+        sb.append(format(Locale.ROOT, "    \"sstables\": %d,\n", sstables));
+        sb.append(format(Locale.ROOT, "    \"bytes\": %d\n", inputBytes));
+        sb.append("  },\n");
+
+        sb.append("  \"iterations\": [\n");
+
+        for (final Iterator<Iteration> it = results.iterator(); it.hasNext(); ) {
+            sb.append(it.next().toJson()).append(it.hasNext() ? ",\n" : "\n");
+        }
+
+        sb.append("  ],\n");
+        sb.append(format(Locale.ROOT, "  \"peakRssBytes\": %d\n", peakRss()));
+        sb.append("}\n");
+
+        return sb.toString();
+    }
+
+    private static final class Iteration {
+
+        private final long elapsedMillis;
+        private final double mibPerSecond;
+        private final double partitionsPerSecond;
+        private final long partitions;
+        private final long bytesWritten;
+        private final long gcCount;
+        private final long gcMillis;
+        private final long peakRssBytes;
+
+        private Iteration(final long elapsedMillis,
+                          final double mibPerSecond,
+                          final double partitionsPerSecond,
+                          final long partitions,
+                          final long bytesWritten,
+                          final long gcCount,
+                          final long gcMillis,
+                          final long peakRssBytes) {
+            this.elapsedMillis = elapsedMillis;
+            this.mibPerSecond = mibPerSecond;
+            this.partitionsPerSecond = partitionsPerSecond;
+            this.partitions = partitions;
+            this.bytesWritten = bytesWritten;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+            this.peakRssBytes = peakRssBytes;
+        }
+
+        private String toJson() {
+            return format(Locale.ROOT,
+                          "    {\"elapsedMillis\": %d, \"mibPerSecond\": %.2f, \"partitionsPerSecond\": %.2f, \"partitions\": %d, "
+                              + "\"bytesWritten\": %d, \"gcCount\": %d, \"gcMillis\": %d, \"peakRssBytes\": %d}",
+                          elapsedMillis, mibPerSecond, partitionsPerSecond, partitions, bytesWritten, gcCount, gcMillis, peakRssBytes);
+        }
+
+        @Override
+        public String toString() {
+            return format(Locale.ROOT,
+                          "%d ms, %.1f MiB/s, %.0f partitions/s, %d GCs taking %d ms, peak RSS %.1f MiB",
+                          elapsedMillis, mibPerSecond, partitionsPerSecond, gcCount, gcMillis, peakRssBytes / MIB);
+        }
+    }
+}
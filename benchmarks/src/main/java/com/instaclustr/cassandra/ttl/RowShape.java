@@ -0,0 +1,35 @@
+package com.instaclustr.cassandra.ttl;
+
+/**
+ * Shapes of rows benchmarks are run with, every Cassandra version builds tables of these shapes on its own.
+ *
+ * All tables have a single {@code id int} partition key and no clustering columns, they differ in regular columns only.
+ */
+public enum RowShape {
+    /**
+     * One text column.
+     */
+    NARROW,
+    /**
+     * {@value #WIDE_COLUMNS} text columns.
+     */
+    WIDE,
+    /**
+     * A set and a map, both with {@value #COLLECTION_ELEMENTS} elements.
+     */
+    COLLECTION,
+    /**
+     * A user type with two text fields and an int field, non-frozen where the version supports it.
+     */
+    UDT;
+
+    public static final int WIDE_COLUMNS = 64;
+
+    public static final int COLLECTION_ELEMENTS = 16;
+
+    public static final String KEYSPACE = "bench";
+
+    public String table() {
+        return name().toLowerCase();
+    }
+}
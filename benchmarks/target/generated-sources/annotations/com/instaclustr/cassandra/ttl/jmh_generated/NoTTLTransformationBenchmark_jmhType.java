@@ -0,0 +1,4 @@
+package com.instaclustr.cassandra.ttl.jmh_generated;
+public class NoTTLTransformationBenchmark_jmhType extends NoTTLTransformationBenchmark_jmhType_B3 {
+}
+
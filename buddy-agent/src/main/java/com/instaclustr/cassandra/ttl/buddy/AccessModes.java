@@ -0,0 +1,48 @@
+package com.instaclustr.cassandra.ttl.buddy;
+
+import java.util.Locale;
+
+import org.apache.cassandra.config.Config.DiskAccessMode;
+
+/**
+ * Access modes of data and index files returned by the intercepted {@code DatabaseDescriptor}.
+ *
+ * The agent is installed before the remover parses its command line, so {@code --access-mode} is passed in
+ * the {@value #PROPERTY} system property, which is read whenever an SSTable is opened. When it is not set,
+ * {@code disk_access_mode} of {@link AgentSettings} is used. Modes are resolved as Cassandra resolves them from
+ * {@code cassandra.yaml}: auto means mmap on 64-bit JVMs and mmap_index_only maps index files only.
+ */
+public final class AccessModes {
+
+    public static final String PROPERTY = "ttl.remover.access.mode";
+
+    private static volatile DiskAccessMode configured = DiskAccessMode.standard;
+
+    private AccessModes() {
+    }
+
+    static void configure(final DiskAccessMode mode) {
+        configured = mode;
+    }
+
+    public static DiskAccessMode getDiskAccessMode() {
+        final DiskAccessMode mode = current();
+        return mode == DiskAccessMode.mmap_index_only ? DiskAccessMode.standard : mode;
+    }
+
+    public static DiskAccessMode getIndexAccessMode() {
+        final DiskAccessMode mode = current();
+        return mode == DiskAccessMode.mmap_index_only ? DiskAccessMode.mmap : mode;
+    }
+
+    private static DiskAccessMode current() {
+        final String property = System.getProperty(PROPERTY);
+        final DiskAccessMode mode = property == null ? configured : DiskAccessMode.valueOf(property.trim().toLowerCase(Locale.ROOT));
+
+        if (mode == DiskAccessMode.auto) {
+            return System.getProperty("os.arch").contains("64") ? DiskAccessMode.mmap : DiskAccessMode.standard;
+        }
+
+        return mode;
+    }
+}
@@ -0,0 +1,238 @@
+package com.instaclustr.cassandra.ttl.buddy;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.cassandra.config.Config.DiskAccessMode;
+import org.apache.cassandra.io.util.DiskOptimizationStrategy;
+import org.apache.cassandra.io.util.SpinningDiskOptimizationStrategy;
+import org.apache.cassandra.io.util.SsdDiskOptimizationStrategy;
+
+/**
+ * Values of {@code DatabaseDescriptor} methods overridden by {@link CassandraAgent} which depend on the hardware
+ * TTL is removed on: the disk access mode, read buffer sizes, caches and fsync behaviour.
+ *
+ * Settings are passed as agent arguments, e.g. {@code -javaagent:byte-buddy-agent.jar=preset=ssd,file_cache_size_in_mb=256}.
+ * A preset is applied first, then a properties file given as {@code file=/path/to/agent.properties}, then all other
+ * arguments. Settings are named as their counterparts in {@code cassandra.yaml}, those which are not set keep
+ * the defaults the agent always used.
+ */
+public final class AgentSettings {
+
+    public static final String PRESET = "preset";
+
+    public static final String FILE = "file";
+
+    public static final String DISK_ACCESS_MODE = "disk_access_mode";
+    public static final String DISK_OPTIMIZATION_STRATEGY = "disk_optimization_strategy";
+    public static final String DISK_OPTIMIZATION_PAGE_CROSS_CHANCE = "disk_optimization_page_cross_chance";
+    public static final String FILE_CACHE_ENABLED = "file_cache_enabled";
+    public static final String FILE_CACHE_SIZE_IN_MB = "file_cache_size_in_mb";
+    public static final String COLUMN_INDEX_SIZE_IN_KB = "column_index_size_in_kb";
+    public static final String COLUMN_INDEX_CACHE_SIZE_IN_KB = "column_index_cache_size_in_kb";
+    public static final String TRICKLE_FSYNC = "trickle_fsync";
+    public static final String TRICKLE_FSYNC_INTERVAL_IN_KB = "trickle_fsync_interval_in_kb";
+    public static final String SSTABLE_PREEMPTIVE_OPEN_INTERVAL_IN_MB = "sstable_preemptive_open_interval_in_mb";
+    public static final String BUFFER_POOL_USE_HEAP_IF_EXHAUSTED = "buffer_pool_use_heap_if_exhausted";
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    private static final Map<String, Map<String, String>> PRESETS = new HashMap<>();
+
+    static {
+        DEFAULTS.put(DISK_ACCESS_MODE, "standard");
+        DEFAULTS.put(DISK_OPTIMIZATION_STRATEGY, "spinning");
+        DEFAULTS.put(DISK_OPTIMIZATION_PAGE_CROSS_CHANCE, "0.1");
+        DEFAULTS.put(FILE_CACHE_ENABLED, "false");
+        DEFAULTS.put(FILE_CACHE_SIZE_IN_MB, "1");
+        DEFAULTS.put(COLUMN_INDEX_SIZE_IN_KB, "64");
+        DEFAULTS.put(COLUMN_INDEX_CACHE_SIZE_IN_KB, "2");
+        DEFAULTS.put(TRICKLE_FSYNC, "false");
+        DEFAULTS.put(TRICKLE_FSYNC_INTERVAL_IN_KB, "10240");
+        DEFAULTS.put(SSTABLE_PREEMPTIVE_OPEN_INTERVAL_IN_MB, "50");
+        DEFAULTS.put(BUFFER_POOL_USE_HEAP_IF_EXHAUSTED, "true");
+
+        final Map<String, String> ssd = new HashMap<>();
+        // reads of SSD are cheap, buffers are sized to the data read rather than rounded up to whole pages
+        ssd.put(DISK_OPTIMIZATION_STRATEGY, "ssd");
+        // index files are read at random, mapping them saves a system call per read
+        ssd.put(DISK_ACCESS_MODE, "mmap_index_only");
+        PRESETS.put("ssd", ssd);
+
+        final Map<String, String> hdd = new HashMap<>();
+        hdd.put(DISK_OPTIMIZATION_STRATEGY, "spinning");
+        hdd.put(DISK_ACCESS_MODE, "standard");
+        // written data are synced in small steps so the page cache does not flush gigabytes at once and stall reads
+        hdd.put(TRICKLE_FSYNC, "true");
+        PRESETS.put("hdd", hdd);
+
+        final Map<String, String> lowMemory = new HashMap<>();
+        lowMemory.put(DISK_ACCESS_MODE, "standard");
+        lowMemory.put(FILE_CACHE_ENABLED, "false");
+        lowMemory.put(FILE_CACHE_SIZE_IN_MB, "1");
+        lowMemory.put(COLUMN_INDEX_CACHE_SIZE_IN_KB, "1");
+        // SSTables being written are not opened early, so their partial index summaries are not held in memory
+        lowMemory.put(SSTABLE_PREEMPTIVE_OPEN_INTERVAL_IN_MB, "-1");
+        lowMemory.put(BUFFER_POOL_USE_HEAP_IF_EXHAUSTED, "true");
+        PRESETS.put("low-memory", lowMemory);
+    }
+
+    private final Map<String, String> settings;
+
+    private AgentSettings(final Map<String, String> settings) {
+        this.settings = Collections.unmodifiableMap(settings);
+    }
+
+    /**
+     * @param arguments agent arguments as comma separated {@code name=value} pairs, might be null
+     */
+    public static AgentSettings parse(final String arguments) {
+        final Map<String, String> parsed = new LinkedHashMap<>();
+
+        if (arguments != null && !arguments.trim().isEmpty()) {
+            for (final String argument : arguments.split(",")) {
+                final int separator = argument.indexOf('=');
+
+                if (separator < 1) {
+                    throw new IllegalArgumentException(format("Agent argument '%s' is not in form name=value", argument));
+                }
+
+                parsed.put(argument.substring(0, separator).trim(), argument.substring(separator + 1).trim());
+            }
+        }
+
+        final Map<String, String> settings = new LinkedHashMap<>(DEFAULTS);
+
+        final String preset = parsed.remove(PRESET);
+
+        if (preset != null) {
+            final Map<String, String> presetSettings = PRESETS.get(preset.toLowerCase(Locale.ROOT));
+
+            if (presetSettings == null) {
+                throw new IllegalArgumentException(format("Unknown preset '%s' of agent settings, known presets are %s", preset, PRESETS.keySet()));
+            }
+
+            settings.putAll(presetSettings);
+        }
+
+        final String file = parsed.remove(FILE);
+
+        if (file != null) {
+            settings.putAll(validated(load(file)));
+        }
+
+        settings.putAll(validated(parsed));
+
+        return new AgentSettings(settings);
+    }
+
+    public DiskAccessMode diskAccessMode() {
+        return DiskAccessMode.valueOf(get(DISK_ACCESS_MODE).toLowerCase(Locale.ROOT));
+    }
+
+    public DiskOptimizationStrategy diskOptimizationStrategy() {
+        final String strategy = get(DISK_OPTIMIZATION_STRATEGY).toLowerCase(Locale.ROOT);
+
+        switch (strategy) {
+            case "ssd":
+                return new SsdDiskOptimizationStrategy(Double.parseDouble(get(DISK_OPTIMIZATION_PAGE_CROSS_CHANCE)));
+            case "spinning":
+                return new SpinningDiskOptimizationStrategy();
+            default:
+                throw new IllegalArgumentException(format("Unknown %s '%s', it might be ssd or spinning", DISK_OPTIMIZATION_STRATEGY, strategy));
+        }
+    }
+
+    public boolean fileCacheEnabled() {
+        return Boolean.parseBoolean(get(FILE_CACHE_ENABLED));
+    }
+
+    public int fileCacheSizeInMB() {
+        return getInt(FILE_CACHE_SIZE_IN_MB);
+    }
+
+    /**
+     * @return column index size in bytes
+     */
+    public int columnIndexSize() {
+        return getInt(COLUMN_INDEX_SIZE_IN_KB) * 1024;
+    }
+
+    /**
+     * @return column index cache size in bytes
+     */
+    public int columnIndexCacheSize() {
+        return getInt(COLUMN_INDEX_CACHE_SIZE_IN_KB) * 1024;
+    }
+
+    public boolean trickleFsync() {
+        return Boolean.parseBoolean(get(TRICKLE_FSYNC));
+    }
+
+    public int trickleFsyncIntervalInKb() {
+        return getInt(TRICKLE_FSYNC_INTERVAL_IN_KB);
+    }
+
+    public int sstablePreemptiveOpenIntervalInMB() {
+        return getInt(SSTABLE_PREEMPTIVE_OPEN_INTERVAL_IN_MB);
+    }
+
+    public boolean bufferPoolUseHeapIfExhausted() {
+        return Boolean.parseBoolean(get(BUFFER_POOL_USE_HEAP_IF_EXHAUSTED));
+    }
+
+    @Override
+    public String toString() {
+        return settings.toString();
+    }
+
+    private String get(final String name) {
+        return settings.get(name);
+    }
+
+    private int getInt(final String name) {
+        try {
+            return Integer.parseInt(get(name));
+        } catch (final NumberFormatException ex) {
+            throw new IllegalArgumentException(format("Agent setting %s has to be an integer but it is '%s'", name, get(name)), ex);
+        }
+    }
+
+    private static Map<String, String> validated(final Map<String, String> settings) {
+        for (final String name : settings.keySet()) {
+            if (!DEFAULTS.containsKey(name)) {
+                throw new IllegalArgumentException(format("Unknown agent setting '%s', known settings are %s", name, DEFAULTS.keySet()));
+            }
+        }
+
+        return settings;
+    }
+
+    private static Map<String, String> load(final String file) {
+        final Properties properties = new Properties();
+
+        try (final InputStream in = Files.newInputStream(Paths.get(file))) {
+            properties.load(in);
+        } catch (final IOException ex) {
+            throw new IllegalArgumentException(format("Unable to read agent settings from %s", file), ex);
+        }
+
+        final Map<String, String> settings = new LinkedHashMap<>();
+
+        for (final String name : properties.stringPropertyNames()) {
+            settings.put(name.trim(), properties.getProperty(name).trim());
+        }
+
+        return settings;
+    }
+}
@@ -4,16 +4,25 @@ import java.lang.instrument.Instrumentation;
 
 import net.bytebuddy.agent.builder.AgentBuilder.Default;
 import net.bytebuddy.implementation.FixedValue;
+import net.bytebuddy.implementation.MethodDelegation;
 import net.bytebuddy.matcher.ElementMatchers;
 import org.apache.cassandra.config.Config.CorruptedTombstoneStrategy;
-import org.apache.cassandra.config.Config.DiskAccessMode;
-import org.apache.cassandra.io.util.SpinningDiskOptimizationStrategy;
 import org.apache.cassandra.metrics.RestorableMeter;
 
 public class CassandraAgent {
 
+    /**
+     * Set once the agent is installed, so options applied through the agent are not silently ignored without it.
+     */
+    public static final String PROPERTY = "ttl.remover.agent";
+
+    /**
+     * @param arg settings of overrides which depend on hardware, see {@link AgentSettings}
+     */
     public static void premain(String arg, Instrumentation inst) {
 
+        final AgentSettings settings = AgentSettings.parse(arg);
+
         final Default agentBuilder = new Default();
 
         agentBuilder
@@ -67,7 +76,7 @@ public class CassandraAgent {
         agentBuilder
             .type(ElementMatchers.named("org.apache.cassandra.config.DatabaseDescriptor"))
             .transform((builder, typeDescription, classLoader, javaModule) ->
-                           builder.method(ElementMatchers.named("getBufferPoolUseHeapIfExhausted")).intercept(FixedValue.value(true)))
+                           builder.method(ElementMatchers.named("getBufferPoolUseHeapIfExhausted")).intercept(FixedValue.value(settings.bufferPoolUseHeapIfExhausted())))
             .installOn(inst);
 
         agentBuilder
@@ -91,13 +100,13 @@ public class CassandraAgent {
         agentBuilder
             .type(ElementMatchers.named("org.apache.cassandra.config.DatabaseDescriptor"))
             .transform((builder, typeDescription, classLoader, javaModule) ->
-                           builder.method(ElementMatchers.named("getColumnIndexSize")).intercept(FixedValue.value(64 * 1024)))
+                           builder.method(ElementMatchers.named("getColumnIndexSize")).intercept(FixedValue.value(settings.columnIndexSize())))
             .installOn(inst);
 
         agentBuilder
             .type(ElementMatchers.named("org.apache.cassandra.config.DatabaseDescriptor"))
             .transform((builder, typeDescription, classLoader, javaModule) ->
-                           builder.method(ElementMatchers.named("getColumnIndexCacheSize")).intercept(FixedValue.value(2 * 1024)))
+                           builder.method(ElementMatchers.named("getColumnIndexCacheSize")).intercept(FixedValue.value(settings.columnIndexCacheSize())))
             .installOn(inst);
 
         agentBuilder
@@ -115,32 +124,42 @@ public class CassandraAgent {
         agentBuilder
             .type(ElementMatchers.named("org.apache.cassandra.config.DatabaseDescriptor"))
             .transform((builder, typeDescription, classLoader, javaModule) ->
-                           builder.method(ElementMatchers.named("getTrickleFsyncIntervalInKb")).intercept(FixedValue.value(10240)))
+                           builder.method(ElementMatchers.named("getTrickleFsyncIntervalInKb")).intercept(FixedValue.value(settings.trickleFsyncIntervalInKb())))
             .installOn(inst);
 
         agentBuilder
             .type(ElementMatchers.named("org.apache.cassandra.config.DatabaseDescriptor"))
             .transform((builder, typeDescription, classLoader, javaModule) ->
-                           builder.method(ElementMatchers.named("getTrickleFsync")).intercept(FixedValue.value(false)))
+                           builder.method(ElementMatchers.named("getTrickleFsync")).intercept(FixedValue.value(settings.trickleFsync())))
             .installOn(inst);
 
+        AccessModes.configure(settings.diskAccessMode());
+
         agentBuilder
             .type(ElementMatchers.named("org.apache.cassandra.config.DatabaseDescriptor"))
             .transform((builder, typeDescription, classLoader, javaModule) ->
-                           builder.method(ElementMatchers.named("getDiskAccessMode")).intercept(FixedValue.value(DiskAccessMode.standard)))
+                           builder.method(ElementMatchers.named("getDiskAccessMode"))
+                               .intercept(MethodDelegation.withDefaultConfiguration().filter(ElementMatchers.named("getDiskAccessMode")).to(AccessModes.class)))
             .installOn(inst);
 
         agentBuilder
             .type(ElementMatchers.named("org.apache.cassandra.config.DatabaseDescriptor"))
             .transform((builder, typeDescription, classLoader, javaModule) ->
-                           builder.method(ElementMatchers.named("getSSTablePreemptiveOpenIntervalInMB")).intercept(FixedValue.value(50)))
+                           builder.method(ElementMatchers.named("getIndexAccessMode"))
+                               .intercept(MethodDelegation.withDefaultConfiguration().filter(ElementMatchers.named("getIndexAccessMode")).to(AccessModes.class)))
+            .installOn(inst);
+
+        agentBuilder
+            .type(ElementMatchers.named("org.apache.cassandra.config.DatabaseDescriptor"))
+            .transform((builder, typeDescription, classLoader, javaModule) ->
+                           builder.method(ElementMatchers.named("getSSTablePreemptiveOpenIntervalInMB")).intercept(FixedValue.value(settings.sstablePreemptiveOpenIntervalInMB())))
             .installOn(inst);
 
         // on 3.11.x, there is typo - check "Preempive" in that method
         agentBuilder
             .type(ElementMatchers.named("org.apache.cassandra.config.DatabaseDescriptor"))
             .transform((builder, typeDescription, classLoader, javaModule) ->
-                           builder.method(ElementMatchers.named("getSSTablePreempiveOpenIntervalInMB")).intercept(FixedValue.value(50)))
+                           builder.method(ElementMatchers.named("getSSTablePreempiveOpenIntervalInMB")).intercept(FixedValue.value(settings.sstablePreemptiveOpenIntervalInMB())))
             .installOn(inst);
 
         agentBuilder
@@ -176,13 +195,13 @@ public class CassandraAgent {
         agentBuilder
             .type(ElementMatchers.named("org.apache.cassandra.config.DatabaseDescriptor"))
             .transform((builder, typeDescription, classLoader, javaModule) ->
-                           builder.method(ElementMatchers.named("getFileCacheSizeInMB")).intercept(FixedValue.value(1)))
+                           builder.method(ElementMatchers.named("getFileCacheSizeInMB")).intercept(FixedValue.value(settings.fileCacheSizeInMB())))
             .installOn(inst);
 
         agentBuilder
             .type(ElementMatchers.named("org.apache.cassandra.config.DatabaseDescriptor"))
             .transform((builder, typeDescription, classLoader, javaModule) ->
-                           builder.method(ElementMatchers.named("getDiskOptimizationStrategy")).intercept(FixedValue.value(new SpinningDiskOptimizationStrategy())))
+                           builder.method(ElementMatchers.named("getDiskOptimizationStrategy")).intercept(FixedValue.value(settings.diskOptimizationStrategy())))
             .installOn(inst);
 
         agentBuilder
@@ -194,7 +213,9 @@ public class CassandraAgent {
         agentBuilder
                 .type(ElementMatchers.named("org.apache.cassandra.config.DatabaseDescriptor"))
                 .transform((builder, typeDescription, classLoader, javaModule) ->
-                        builder.method(ElementMatchers.named("getFileCacheEnabled")).intercept(FixedValue.value(false)))
+                        builder.method(ElementMatchers.named("getFileCacheEnabled")).intercept(FixedValue.value(settings.fileCacheEnabled())))
                 .installOn(inst);
+
+        System.setProperty(PROPERTY, "true");
     }
 }
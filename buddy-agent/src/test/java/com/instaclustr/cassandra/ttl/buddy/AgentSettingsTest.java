@@ -0,0 +1,134 @@
+package com.instaclustr.cassandra.ttl.buddy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.cassandra.config.Config.DiskAccessMode;
+import org.apache.cassandra.io.util.SpinningDiskOptimizationStrategy;
+import org.apache.cassandra.io.util.SsdDiskOptimizationStrategy;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class AgentSettingsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keepsDefaultsWithoutArguments() {
+        for (final AgentSettings settings : new AgentSettings[]{AgentSettings.parse(null), AgentSettings.parse(" ")}) {
+            assertEquals(DiskAccessMode.standard, settings.diskAccessMode());
+            assertTrue(settings.diskOptimizationStrategy() instanceof SpinningDiskOptimizationStrategy);
+            assertFalse(settings.fileCacheEnabled());
+            assertEquals(1, settings.fileCacheSizeInMB());
+            assertEquals(64 * 1024, settings.columnIndexSize());
+            assertEquals(2 * 1024, settings.columnIndexCacheSize());
+            assertFalse(settings.trickleFsync());
+            assertEquals(10240, settings.trickleFsyncIntervalInKb());
+            assertEquals(50, settings.sstablePreemptiveOpenIntervalInMB());
+            assertTrue(settings.bufferPoolUseHeapIfExhausted());
+        }
+    }
+
+    @Test
+    public void appliesPreset() {
+        final AgentSettings ssd = AgentSettings.parse("preset=SSD");
+
+        assertEquals(DiskAccessMode.mmap_index_only, ssd.diskAccessMode());
+        assertTrue(ssd.diskOptimizationStrategy() instanceof SsdDiskOptimizationStrategy);
+
+        assertTrue(AgentSettings.parse("preset=hdd").trickleFsync());
+        assertEquals(-1, AgentSettings.parse("preset=low-memory").sstablePreemptiveOpenIntervalInMB());
+    }
+
+    @Test
+    public void argumentsOverridePreset() {
+        final AgentSettings settings = AgentSettings.parse("disk_access_mode=mmap, preset=ssd ,file_cache_size_in_mb=256");
+
+        assertEquals(DiskAccessMode.mmap, settings.diskAccessMode());
+        assertTrue(settings.diskOptimizationStrategy() instanceof SsdDiskOptimizationStrategy);
+        assertEquals(256, settings.fileCacheSizeInMB());
+    }
+
+    @Test
+    public void fileOverridesPresetAndArgumentsOverrideFile() throws Exception {
+        final Path file = folder.newFile("agent.properties").toPath();
+
+        Files.write(file, ("disk_access_mode = standard\n"
+                               + "trickle_fsync=true\n"
+                               + "column_index_size_in_kb=16\n").getBytes(StandardCharsets.UTF_8));
+
+        final AgentSettings settings = AgentSettings.parse("preset=ssd,file=" + file + ",column_index_size_in_kb=4");
+
+        assertEquals(DiskAccessMode.standard, settings.diskAccessMode());
+        assertTrue(settings.diskOptimizationStrategy() instanceof SsdDiskOptimizationStrategy);
+        assertTrue(settings.trickleFsync());
+        assertEquals(4 * 1024, settings.columnIndexSize());
+    }
+
+    @Test
+    public void rejectsMalformedArgument() {
+        assertRejected("preset", "not in form name=value");
+        assertRejected("=ssd", "not in form name=value");
+    }
+
+    @Test
+    public void rejectsUnknownPreset() {
+        assertRejected("preset=nvme", "Unknown preset");
+    }
+
+    @Test
+    public void rejectsUnknownSetting() {
+        assertRejected("concurrent_reads=32", "Unknown agent setting");
+    }
+
+    @Test
+    public void rejectsUnknownSettingInFile() throws Exception {
+        final Path file = folder.newFile("agent.properties").toPath();
+
+        Files.write(file, "concurrent_reads=32\n".getBytes(StandardCharsets.UTF_8));
+
+        assertRejected("file=" + file, "Unknown agent setting");
+    }
+
+    @Test
+    public void rejectsMissingFile() {
+        assertRejected("file=" + folder.getRoot().toPath().resolve("missing.properties"), "Unable to read agent settings");
+    }
+
+    @Test
+    public void rejectsInvalidValues() {
+        try {
+            AgentSettings.parse("file_cache_size_in_mb=lots").fileCacheSizeInMB();
+            fail();
+        } catch (final IllegalArgumentException ex) {
+            assertTrue(ex.getMessage().contains("has to be an integer"));
+        }
+
+        try {
+            AgentSettings.parse("disk_optimization_strategy=tape").diskOptimizationStrategy();
+            fail();
+        } catch (final IllegalArgumentException ex) {
+            assertTrue(ex.getMessage().contains("it might be ssd or spinning"));
+        }
+    }
+
+    private static void assertRejected(final String arguments, final String message) {
+        try {
+            AgentSettings.parse(arguments);
+            fail(arguments);
+        } catch (final IllegalArgumentException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains(message));
+        }
+    }
+}
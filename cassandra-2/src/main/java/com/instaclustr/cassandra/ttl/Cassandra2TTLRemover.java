@@ -2,11 +2,26 @@ package com.instaclustr.cassandra.ttl;
 
 import static java.lang.String.format;
 
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+import com.instaclustr.cassandra.ttl.RemovalPlanner.RemovalPlan;
 import com.instaclustr.cassandra.ttl.cli.TTLRemovalException;
+import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.Config;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.Schema;
@@ -15,15 +30,26 @@ import org.apache.cassandra.db.BufferDeletedCell;
 import org.apache.cassandra.db.BufferExpiringCell;
 import org.apache.cassandra.db.Cell;
 import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.Keyspace;
 import org.apache.cassandra.db.OnDiskAtom;
+import org.apache.cassandra.db.RangeTombstone;
+import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.io.compress.CompressionParameters;
+import org.apache.cassandra.io.sstable.Component;
 import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.sstable.Descriptor.Type;
 import org.apache.cassandra.io.sstable.ISSTableScanner;
-import org.apache.cassandra.io.sstable.KeyIterator;
 import org.apache.cassandra.io.sstable.format.SSTableFormat;
 import org.apache.cassandra.io.sstable.format.SSTableWriter;
+import org.apache.cassandra.io.sstable.format.Version;
+import org.apache.cassandra.io.sstable.metadata.MetadataType;
+import org.apache.cassandra.io.sstable.metadata.StatsMetadata;
+import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.io.util.RandomAccessReader;
 import org.apache.cassandra.service.ActiveRepairService;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.CLibrary;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,7 +58,10 @@ public class Cassandra2TTLRemover implements SSTableTTLRemover {
     private static final Logger logger = LoggerFactory.getLogger(Cassandra2TTLRemover.class);
 
     @Override
-    public void executeRemoval(final Path outputFolder, final Collection<Path> sstables, final String cql) throws Exception {
+    public void executeRemoval(final Path outputFolder,
+                               final Collection<Path> sstables,
+                               final String cql,
+                               final RemovalOptions options) throws Exception {
 
         if (!Boolean.parseBoolean(System.getProperty("ttl.remover.tests", "false"))) {
             DatabaseDescriptor.forceStaticInitialization();
@@ -51,13 +80,25 @@ public class Cassandra2TTLRemover implements SSTableTTLRemover {
         }
         Keyspace.setInitialized();
 
-        for (final Path sstable : sstables) {
+        NoTTLReader.setAccessMode(options.accessMode == null ? null : Config.DiskAccessMode.valueOf(options.accessMode.cassandraName()));
+
+        if (options.outputCompression.overridesTable()) {
+            overrideCompression(sstables, options.outputCompression);
+        }
+
+        final RemovalPlan plan = RemovalPlanner.plan(sstables, this::isTTLFree, options.ttlFreeAction);
+
+        // rolled SSTables need generations which do not clash with any other SSTable,
+        // including outputs of a previous run which is resumed
+        final AtomicInteger generations = new AtomicInteger(Math.max(maxGeneration(sstables), maxGeneration(SSTableFiles.dataFiles(outputFolder))));
+
+        new ParallelRemovalExecutor(options).execute(sstables, (sstable, outputs) -> {
 
             final Descriptor descriptor = Descriptor.fromFilename(sstable.toAbsolutePath().toFile().getAbsolutePath());
 
             if (Schema.instance.getKSMetaData(descriptor.ksname) == null) {
                 logger.warn(format("Filename %s references to nonexistent keyspace: %s!", sstable, descriptor.ksname));
-                continue;
+                return SSTableOutcome.SKIPPED;
             }
 
             logger.info(format("Loading file %s from initial keyspace: %s", sstable, descriptor.ksname));
@@ -65,11 +106,16 @@ public class Cassandra2TTLRemover implements SSTableTTLRemover {
             final Path newSSTableDestinationDir = outputFolder.resolve(descriptor.ksname).resolve(descriptor.cfname);
 
             if (!newSSTableDestinationDir.toFile().exists()) {
-                if (!newSSTableDestinationDir.toFile().mkdirs()) {
+                // another worker might have created it in the meantime
+                if (!newSSTableDestinationDir.toFile().mkdirs() && !newSSTableDestinationDir.toFile().exists()) {
                     throw new TTLRemovalException(format("Unable to create directories leading to %s.", newSSTableDestinationDir.toFile().getAbsolutePath()));
                 }
             }
 
+            if (plan.isTTLFree(sstable)) {
+                return plan.handleTTLFree(sstable, newSSTableDestinationDir, outputs);
+            }
+
             final Descriptor resultDesc = new Descriptor(newSSTableDestinationDir.toFile(),
                                                          descriptor.ksname,
                                                          descriptor.cfname,
@@ -77,55 +123,277 @@ public class Cassandra2TTLRemover implements SSTableTTLRemover {
                                                          Type.FINAL,
                                                          SSTableFormat.Type.BIG);
 
-            stream(descriptor, resultDesc);
-        }
+            outputs.add(Paths.get(resultDesc.filenameFor(Component.DATA)));
+
+            final IntSupplier outputGenerations = () -> {
+                final int generation = generations.incrementAndGet();
+                outputs.add(Paths.get(withGeneration(resultDesc, generation).filenameFor(Component.DATA)));
+                return generation;
+            };
+
+            if (options.rawRewrite) {
+                return rawStream(descriptor, resultDesc, options, outputGenerations);
+            }
+
+            return stream(descriptor, resultDesc, options, outputGenerations);
+        });
     }
 
-    public void stream(final Descriptor descriptor, final Descriptor toSSTable) throws TTLRemovalException {
+    public SSTableOutcome stream(final Descriptor descriptor,
+                                 final Descriptor toSSTable,
+                                 final RemovalOptions options,
+                                 final IntSupplier generations) throws TTLRemovalException {
 
+        NoTTLReader noTTLreader = null;
         ISSTableScanner noTTLscanner = null;
+        RollingOutput output = null;
 
         try {
-            long keyCount = countKeys(descriptor);
+            noTTLreader = NoTTLReader.open(descriptor);
 
-            NoTTLReader noTTLreader = NoTTLReader.open(descriptor);
+            // the bloom filter and index summary are sized from the estimate taken from the index summary,
+            // the exact number of partitions is recorded in the metadata of the new SSTable as it is written
+            long keyCount = noTTLreader.estimatedKeys();
 
             noTTLscanner = noTTLreader.getScanner();
 
             ColumnFamily columnFamily = ArrayBackedSortedColumns.factory.create(descriptor.ksname, descriptor.cfname);
 
-            SSTableWriter writer = SSTableWriter.create(toSSTable, keyCount, ActiveRepairService.UNREPAIRED_SSTABLE);
+            long keysPerSSTable = SSTableSplitter.keysPerSSTable(keyCount, keyCount, noTTLreader.onDiskLength(), options.maxOutputSSTableSize);
+
+            output = new RollingOutput(toSSTable, keysPerSSTable, generations, options);
 
             NoTTLSSTableIdentityIterator row;
 
+            final RewriteProgress progress = new RewriteProgress(options, noTTLreader.getFilename(), noTTLreader.onDiskLength(), noTTLscanner.getLengthInBytes(), CLibrary::trySkipCache);
+
             while (noTTLscanner.hasNext()) //read data from disk //NoTTLBigTableScanner
             {
                 row = (NoTTLSSTableIdentityIterator) noTTLscanner.next();
-                serializeRow(row, columnFamily);
-                writer.append(row.getKey(), columnFamily);
+
+                final long readStart = noTTLscanner.getCurrentPosition();
+
+                // partition deletion is kept, only TTL is removed
+                columnFamily.delete(row.getColumnFamily());
+                serializeRow(row, row.getSerializer(), columnFamily, options.metrics);
+                final long bytesWritten = output.append(row.getKey(), columnFamily);
                 columnFamily.clear();
+
+                final long bytesRead = noTTLscanner.getCurrentPosition() - readStart;
+
+                progress.read(bytesRead, noTTLscanner.getCurrentPosition());
+                progress.written(bytesRead, bytesWritten, output.getFilename(), output.getOnDiskFilePointer());
             }
 
-            writer.finish(true);
+            output.finish();
+
+            // output SSTables are synced once finished, so all their pages can be dropped now
+            progress.finish();
+            PageCacheDropper.dropSSTable(options.dropPageCache, noTTLreader.getFilename(), CLibrary::trySkipCache);
+
+            return SSTableOutcome.REWRITTEN;
         } catch (final Exception ex) {
-            throw new TTLRemovalException("Unable to remove TTL from sstables.", ex);
+            throw new TTLRemovalException("Unable to remove TTL from sstables.", output == null ? ex : output.abort(ex));
         } finally {
-            if (noTTLscanner != null) {
-                try {
-                    noTTLscanner.close();
-                } catch (final Exception ex) {
-                    throw new TTLRemovalException("Unable to close TTL scanner", ex);
+            try {
+                if (noTTLscanner != null) {
+                    try {
+                        noTTLscanner.close();
+                    } catch (final Exception ex) {
+                        throw new TTLRemovalException("Unable to close TTL scanner", ex);
+                    }
+                }
+            } finally {
+                if (noTTLreader != null) {
+                    noTTLreader.selfRef().release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the data file sequentially and rewrites partitions at the byte level, see {@link RawPartitionRewriter}.
+     * The writer rebuilds the index, the column index, the bloom filter and the statistics of the new SSTable.
+     */
+    public SSTableOutcome rawStream(final Descriptor descriptor,
+                                    final Descriptor toSSTable,
+                                    final RemovalOptions options,
+                                    final IntSupplier generations) throws TTLRemovalException {
+
+        NoTTLReader reader = null;
+        RandomAccessReader dataFile = null;
+        ChunkPrefetcher prefetcher = null;
+        RollingOutput rollingOutput = null;
+
+        try {
+            final NoTTLReader noTTLreader = reader = NoTTLReader.open(descriptor);
+
+            long keyCount = noTTLreader.estimatedKeys();
+
+            long keysPerSSTable = SSTableSplitter.keysPerSSTable(keyCount, keyCount, noTTLreader.onDiskLength(), options.maxOutputSSTableSize);
+
+            final RollingOutput output = rollingOutput = new RollingOutput(toSSTable, keysPerSSTable, generations, options);
+
+            final DataInput in;
+            final LongSupplier position;
+            final long dataLength;
+
+            if (options.prefetchChunks > 0 && noTTLreader.compression)
+            {
+                prefetcher = new ChunkPrefetcher(noTTLreader.getFilename(), noTTLreader.getCompressionMetadata(), options.prefetchChunks);
+                in = new DataInputStream(prefetcher);
+                position = prefetcher::getFilePointer;
+                dataLength = prefetcher.length();
+            }
+            else
+            {
+                dataFile = noTTLreader.openDataReader();
+                in = dataFile;
+                position = dataFile::getFilePointer;
+                dataLength = dataFile.length();
+            }
+
+            final RawPartitionRewriter rewriter = new RawPartitionRewriter();
+
+            final RewriteProgress progress = new RewriteProgress(options, noTTLreader.getFilename(), noTTLreader.onDiskLength(), dataLength, CLibrary::trySkipCache);
+
+            if (RewritePipeline.isPipelined(options, noTTLreader.getFilename(), noTTLreader.getSSTableMetadata().estimatedRowSize.max()))
+            {
+                // cells are rewritten on another thread, the writer thread only serialises indexes and compresses the output
+                RewritePipeline.run(options.pipelineQueueSize,
+                                    () -> {
+                                        if (position.getAsLong() >= dataLength)
+                                        {
+                                            return null;
+                                        }
+
+                                        final long readStart = position.getAsLong();
+                                        final DecoratedKey key = noTTLreader.partitioner.decorateKey(ByteBufferUtil.readWithShortLength(in));
+
+                                        final RawPartition partition = new RawPartition(key, rewriter.buffer(in, options.metrics), position.getAsLong() - readStart);
+
+                                        progress.read(partition.bytesRead, position.getAsLong());
+
+                                        return partition;
+                                    },
+                                    partition -> {
+                                        final long bytesWritten = output.appendFromStream(partition.key, noTTLreader.metadata, partition.data, descriptor.version);
+
+                                        progress.written(partition.bytesRead, bytesWritten, output.getFilename(), output.getOnDiskFilePointer());
+                                    });
+            }
+            else
+            {
+                while (position.getAsLong() < dataLength)
+                {
+                    final long readStart = position.getAsLong();
+
+                    final DecoratedKey key = noTTLreader.partitioner.decorateKey(ByteBufferUtil.readWithShortLength(in));
+
+                    final long bytesWritten = output.appendFromStream(key, noTTLreader.metadata, rewriter.rewrite(in, options.metrics), descriptor.version);
+
+                    final long bytesRead = position.getAsLong() - readStart;
+
+                    progress.read(bytesRead, position.getAsLong());
+                    progress.written(bytesRead, bytesWritten, output.getFilename(), output.getOnDiskFilePointer());
                 }
             }
+
+            output.finish();
+
+            // output SSTables are synced once finished, so all their pages can be dropped now
+            progress.finish();
+            PageCacheDropper.dropSSTable(options.dropPageCache, noTTLreader.getFilename(), CLibrary::trySkipCache);
+
+            return SSTableOutcome.REWRITTEN;
+        } catch (final Exception ex) {
+            throw new TTLRemovalException("Unable to remove TTL from sstables.", rollingOutput == null ? ex : rollingOutput.abort(ex));
+        } finally {
+            FileUtils.closeQuietly(dataFile);
+            FileUtils.closeQuietly(prefetcher);
+
+            if (reader != null) {
+                reader.selfRef().release();
+            }
+        }
+    }
+
+    /**
+     * Writers of Cassandra 2 take compression from the schema, so it is overridden in the schema loaded by this JVM.
+     * Input SSTables are still read with the compression recorded in their CompressionInfo component.
+     */
+    private static void overrideCompression(final Collection<Path> sstables, final OutputCompression output) throws TTLRemovalException {
+        final Set<String> tables = new HashSet<>();
+
+        for (final Path sstable : sstables) {
+            final Descriptor descriptor = Descriptor.fromFilename(sstable.toAbsolutePath().toFile().getAbsolutePath());
+            final CFMetaData metadata = Schema.instance.getCFMetaData(descriptor.ksname, descriptor.cfname);
+
+            if (metadata != null && tables.add(descriptor.ksname + "." + descriptor.cfname)) {
+                metadata.compressionParameters(compressionParameters(metadata.compressionParameters(), output));
+            }
+        }
+    }
+
+    private static CompressionParameters compressionParameters(final CompressionParameters table, final OutputCompression output) throws TTLRemovalException {
+        final OutputCompression.Parameters parameters = output.resolve(table.sstableCompressor == null ? null : table.sstableCompressor.getClass().getName(),
+                                                                       table.chunkLength() / 1024,
+                                                                       table.otherOptions);
+
+        final Map<String, String> options = new HashMap<>();
+
+        if (parameters == null) {
+            options.put(CompressionParameters.SSTABLE_COMPRESSION, "");
+        } else {
+            options.putAll(parameters.otherOptions);
+            options.put(CompressionParameters.SSTABLE_COMPRESSION, parameters.compressor);
+            options.put(CompressionParameters.CHUNK_LENGTH_KB, Integer.toString(parameters.chunkLengthInKiB));
+        }
+
+        try {
+            return CompressionParameters.create(options);
+        } catch (final ConfigurationException ex) {
+            throw new TTLRemovalException(format("Invalid compression of output SSTables %s", options), ex);
         }
     }
 
-    private void serializeRow(Iterator<OnDiskAtom> atoms, ColumnFamily columnFamily) {
+    private static Descriptor withGeneration(final Descriptor descriptor, final int generation) {
+        return new Descriptor(descriptor.directory, descriptor.ksname, descriptor.cfname, generation, Type.FINAL, SSTableFormat.Type.BIG);
+    }
+
+    private static int maxGeneration(final Collection<Path> sstables) {
+        int max = 0;
+
+        for (final Path sstable : sstables) {
+            max = Math.max(max, Descriptor.fromFilename(sstable.toAbsolutePath().toFile().getAbsolutePath()).generation);
+        }
+
+        return max;
+    }
+
+    /**
+     * @param serializer serializer the atoms are read by, expiring cells are turned into cells without TTL as they are read
+     */
+    void serializeRow(Iterator<OnDiskAtom> atoms, NoTTLSerializer serializer, ColumnFamily columnFamily, RemovalMetrics metrics) {
+
+        final long ttlCellsBefore = serializer.ttlCellsStripped();
+
+        long cells = 0;
 
         while (atoms.hasNext()) {
-            serializeAtom(atoms.next(), columnFamily);
+            OnDiskAtom atom = atoms.next();
+
+            if (atom instanceof Cell) {
+                cells++;
+            } else if (atom instanceof RangeTombstone) {
+                metrics.rangeTombstone();
+            }
+
+            serializeAtom(atom, columnFamily);
         }
 
+        // storage engine of Cassandra 2 has no notion of rows, only cells are counted
+        metrics.cellsProcessed(cells, serializer.ttlCellsStripped() - ttlCellsBefore);
     }
 
     private void serializeAtom(OnDiskAtom atom, ColumnFamily columnFamily) {
@@ -139,22 +407,145 @@ public class Cassandra2TTLRemover implements SSTableTTLRemover {
                 columnFamily.addColumn(cell);
             }
 
+        } else if (atom instanceof RangeTombstone) {
+            columnFamily.addAtom(atom);
         }
     }
 
-    private long countKeys(Descriptor descriptor) {
-        KeyIterator iter = new KeyIterator(descriptor);
-        long keycount = 0;
-        try {
-            while (iter.hasNext()) {
-                iter.next();
-                keycount++;
+    /**
+     * Cassandra 2 does not track TTLs in its statistics. The maximal local deletion time does not tell either, as it is
+     * the one of live cells in any SSTable having one, but every cell with a local deletion time, either expiring
+     * or a tombstone, is counted in the histogram of tombstone drop times. SSTables with tombstones are rewritten too.
+     */
+    private boolean isTTLFree(final Path sstable) throws Exception {
+        final Descriptor descriptor = Descriptor.fromFilename(sstable.toAbsolutePath().toFile().getAbsolutePath());
+        final StatsMetadata stats = (StatsMetadata) descriptor.getMetadataSerializer().deserialize(descriptor, MetadataType.STATS);
+
+        return stats.estimatedTombstoneDropTime.getAsMap().isEmpty();
+    }
+
+    /**
+     * A partition rewritten by {@link RawPartitionRewriter}, handed over to the writer thread of a pipelined raw rewrite.
+     */
+    private static final class RawPartition {
+
+        private final DecoratedKey key;
+
+        private final DataInput data;
+
+        private final long bytesRead;
+
+        private RawPartition(final DecoratedKey key, final DataInput data, final long bytesRead) {
+            this.key = key;
+            this.data = data;
+            this.bytesRead = bytesRead;
+        }
+    }
+
+    /**
+     * Appends partitions to output SSTables, a new SSTable with a new generation is started before a partition
+     * is appended once the current one is over the size limit, so partitions are never split.
+     *
+     * When the rewrite fails, the SSTable being written is aborted and SSTables finished before are deleted,
+     * so a failed rewrite does not leave a part of its input behind.
+     */
+    private static final class RollingOutput {
+
+        private final Descriptor toSSTable;
+
+        private final long keysPerSSTable;
+
+        private final IntSupplier generations;
+
+        private final long maxOutputSSTableSize;
+
+        private final int compressChunks;
+
+        private final List<Descriptor> finished = new ArrayList<>();
+
+        private Descriptor descriptor;
+
+        private SSTableWriter writer;
+
+        private RollingOutput(final Descriptor toSSTable, final long keysPerSSTable, final IntSupplier generations, final RemovalOptions options) {
+            this.toSSTable = toSSTable;
+            this.keysPerSSTable = keysPerSSTable;
+            this.generations = generations;
+            this.maxOutputSSTableSize = options.maxOutputSSTableSize;
+            this.compressChunks = options.compressChunks;
+            this.descriptor = toSSTable;
+            this.writer = create(toSSTable);
+        }
+
+        /**
+         * @return bytes written to disk
+         */
+        private long append(final DecoratedKey key, final ColumnFamily columnFamily) {
+            final SSTableWriter current = next();
+            final long writeStart = current.getOnDiskFilePointer();
+
+            current.append(key, columnFamily);
+
+            return current.getOnDiskFilePointer() - writeStart;
+        }
+
+        /**
+         * @return bytes written to disk
+         */
+        private long appendFromStream(final DecoratedKey key, final CFMetaData metadata, final DataInput partition, final Version version) throws IOException {
+            final SSTableWriter current = next();
+            final long writeStart = current.getOnDiskFilePointer();
+
+            current.appendFromStream(key, metadata, partition, version);
+
+            return current.getOnDiskFilePointer() - writeStart;
+        }
+
+        private long getOnDiskFilePointer() {
+            return writer.getOnDiskFilePointer();
+        }
+
+        private String getFilename() {
+            return writer.getFilename();
+        }
+
+        private void finish() {
+            // finished SSTables are not opened, nothing would release their readers
+            writer.finish(false);
+        }
+
+        private Throwable abort(final Throwable failure) {
+            final Throwable accumulated = writer.abort(failure);
+
+            for (final Descriptor sstable : finished) {
+                try {
+                    SSTableFiles.delete(Paths.get(sstable.filenameFor(Component.DATA)));
+                } catch (final TTLRemovalException ex) {
+                    accumulated.addSuppressed(ex);
+                }
             }
 
-        } finally {
-            iter.close();
+            return accumulated;
         }
 
-        return keycount;
+        private SSTableWriter next() {
+            if (SSTableSplitter.isFull(writer.getOnDiskFilePointer(), maxOutputSSTableSize)) {
+                writer.finish(false);
+                finished.add(descriptor);
+
+                descriptor = withGeneration(toSSTable, generations.getAsInt());
+                writer = create(descriptor);
+            }
+
+            return writer;
+        }
+
+        private SSTableWriter create(final Descriptor sstable) {
+            if (compressChunks > 0) {
+                return ParallelCompressedSequentialWriter.create(sstable, keysPerSSTable, compressChunks);
+            }
+
+            return SSTableWriter.create(sstable, keysPerSSTable, ActiveRepairService.UNREPAIRED_SSTABLE);
+        }
     }
 }
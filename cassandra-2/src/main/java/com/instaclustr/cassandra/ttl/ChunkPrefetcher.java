@@ -0,0 +1,214 @@
+package com.instaclustr.cassandra.ttl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+
+import org.apache.cassandra.io.compress.CompressionMetadata;
+import org.apache.cassandra.io.compress.CorruptBlockException;
+
+/**
+ * Reads the data file of a compressed SSTable from its beginning to its end, decompressing chunks which follow
+ * the one being read on a pool of threads, so decompression of a single SSTable is spread over several cores.
+ * The pool is shared by all prefetchers and has as many threads as there are cores, so SSTables rewritten
+ * concurrently do not multiply the number of decompressing threads.
+ *
+ * Offsets of chunks are taken from {@link CompressionMetadata}. At most {@code chunksAhead} chunks are being
+ * decompressed or waiting to be read at any time, so memory is bounded by that many compressed and uncompressed chunks.
+ * The Adler32 checksum of every chunk is verified before it is decompressed, as Cassandra 2.2 does for all SSTable
+ * versions it reads.
+ *
+ * It is not thread safe, it is read by a single thread.
+ */
+public class ChunkPrefetcher extends InputStream {
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+        final Thread thread = new Thread(runnable, "ttl-remover-prefetch-" + threadCounter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // every compressed chunk is followed by an int checksum
+    private static final int CHECKSUM_SIZE = 4;
+
+    private final String path;
+
+    private final CompressionMetadata metadata;
+
+    private final FileChannel channel;
+
+    private final int chunksAhead;
+
+    private final long chunks;
+
+    private final Deque<Future<ByteBuffer>> pending = new ArrayDeque<>();
+
+    private long nextChunk;
+
+    private ByteBuffer current;
+
+    private long position;
+
+    /**
+     * @param path        path to the data file
+     * @param chunksAhead maximal number of chunks decompressed ahead of the one being read
+     */
+    public ChunkPrefetcher(final String path, final CompressionMetadata metadata, final int chunksAhead) throws IOException {
+        this.path = path;
+        this.metadata = metadata;
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        this.chunksAhead = chunksAhead;
+        this.chunks = (metadata.dataLength + metadata.chunkLength() - 1) / metadata.chunkLength();
+
+        schedule();
+    }
+
+    /**
+     * @return number of uncompressed bytes read so far
+     */
+    public long getFilePointer() {
+        return position;
+    }
+
+    /**
+     * @return uncompressed length of the data file
+     */
+    public long length() {
+        return metadata.dataLength;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureBuffer()) {
+            return -1;
+        }
+
+        position++;
+
+        return current.get() & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+
+        if (!ensureBuffer()) {
+            return -1;
+        }
+
+        final int read = Math.min(length, current.remaining());
+
+        current.get(bytes, offset, read);
+        position += read;
+
+        return read;
+    }
+
+    @Override
+    public long skip(final long bytes) throws IOException {
+        if (bytes <= 0 || !ensureBuffer()) {
+            return 0;
+        }
+
+        final int skipped = (int) Math.min(bytes, current.remaining());
+
+        current.position(current.position() + skipped);
+        position += skipped;
+
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // the pool is shared, chunks of this file which were not decompressed yet are dropped from it, running ones finish
+        for (final Future<ByteBuffer> chunk : pending) {
+            chunk.cancel(false);
+        }
+
+        pending.clear();
+        channel.close();
+    }
+
+    private boolean ensureBuffer() throws IOException {
+        while (current == null || !current.hasRemaining()) {
+            if (pending.isEmpty()) {
+                return false;
+            }
+
+            current = await(pending.poll());
+
+            schedule();
+        }
+
+        return true;
+    }
+
+    private void schedule() {
+        while (pending.size() < chunksAhead && nextChunk < chunks) {
+            final long chunk = nextChunk++;
+
+            pending.add(executor.submit(() -> decompress(chunk)));
+        }
+    }
+
+    private ByteBuffer decompress(final long index) throws IOException {
+        final CompressionMetadata.Chunk chunk = metadata.chunkFor(index * metadata.chunkLength());
+
+        final ByteBuffer compressed = ByteBuffer.allocate(chunk.length + CHECKSUM_SIZE);
+
+        while (compressed.hasRemaining()) {
+            if (channel.read(compressed, chunk.offset + compressed.position()) < 0) {
+                throw new EOFException(String.format("Unexpected end of %s while reading chunk at %s", path, chunk.offset));
+            }
+        }
+
+        final Adler32 checksum = new Adler32();
+        checksum.update(compressed.array(), 0, chunk.length);
+
+        if ((int) checksum.getValue() != compressed.getInt(chunk.length)) {
+            throw new CorruptBlockException(path, chunk);
+        }
+
+        final byte[] uncompressed = new byte[metadata.chunkLength()];
+        final int length = metadata.compressor().uncompress(compressed.array(), 0, chunk.length, uncompressed, 0);
+
+        return ByteBuffer.wrap(uncompressed, 0, length);
+    }
+
+    private static ByteBuffer await(final Future<ByteBuffer> chunk) throws IOException {
+        try {
+            return chunk.get();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a chunk to be decompressed.");
+        } catch (final ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+
+            throw new IOException("Unable to decompress a chunk.", ex.getCause());
+        }
+    }
+}
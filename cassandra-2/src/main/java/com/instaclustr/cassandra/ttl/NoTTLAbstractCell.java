@@ -19,6 +19,18 @@ public abstract class NoTTLAbstractCell extends AbstractCell
                                                       final int expireBefore,
                                                       final Version version,
                                                       final CellNameType type)
+    {
+        return onDiskIterator(in, flag, expireBefore, version, new NoTTLSerializer(type));
+    }
+
+    /**
+     * @param serializer serializer reused for all atoms of a scanner
+     */
+    public static Iterator<OnDiskAtom> onDiskIterator(final DataInput in,
+                                                      final ColumnSerializer.Flag flag,
+                                                      final int expireBefore,
+                                                      final Version version,
+                                                      final NoTTLSerializer serializer)
     {
         return new AbstractIterator<OnDiskAtom>()
         {
@@ -27,7 +39,7 @@ public abstract class NoTTLAbstractCell extends AbstractCell
                 OnDiskAtom atom;
                 try
                 {
-                    atom = new NoTTLSerializer(type).deserializeFromSSTable(in, flag, expireBefore, version);
+                    atom = serializer.deserializeFromSSTable(in, flag, expireBefore, version);
                 }
                 catch (IOException e)
                 {
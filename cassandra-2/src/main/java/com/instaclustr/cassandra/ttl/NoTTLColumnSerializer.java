@@ -16,11 +16,21 @@ import org.apache.cassandra.utils.ByteBufferUtil;
 
 public class NoTTLColumnSerializer extends ColumnSerializer
 {
+    private long ttlCellsStripped;
+
     public NoTTLColumnSerializer(CellNameType type)
     {
         super(type);
     }
 
+    /**
+     * @return number of expiring cells this serializer turned into cells without TTL so far
+     */
+    long ttlCellsStripped()
+    {
+        return ttlCellsStripped;
+    }
+
     Cell deserializeColumnBody(DataInput in, CellName name, int mask, Flag flag, int expireBefore) throws IOException
     {
         if ((mask & COUNTER_MASK) != 0)
@@ -36,6 +46,7 @@ public class NoTTLColumnSerializer extends ColumnSerializer
             int expiration = in.readInt();
             long ts = in.readLong();
             ByteBuffer value = ByteBufferUtil.readWithLength(in);
+            ttlCellsStripped++;
             return new BufferCell(name, value, ts);
         }
         else
@@ -17,6 +17,7 @@ import org.apache.cassandra.concurrent.DebuggableThreadPoolExecutor;
 import org.apache.cassandra.concurrent.ScheduledExecutors;
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.config.Config;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.db.*;
@@ -65,6 +66,30 @@ public class NoTTLReader extends SSTable implements SelfRefCounted<NoTTLReader>
     }
     private static final RateLimiter meterSyncThrottle = RateLimiter.create(100.0);
 
+    // set by --access-mode, access modes of cassandra.yaml are used when it is not set
+    private static volatile Config.DiskAccessMode accessMode;
+
+    /**
+     * Sets how data and index files of SSTables opened afterwards are read, null restores modes of cassandra.yaml.
+     * Compressed data files are mapped according to cassandra.yaml only, as CompressedSegmentedFile decides on its own.
+     */
+    public static void setAccessMode(Config.DiskAccessMode mode)
+    {
+        accessMode = mode;
+    }
+
+    private static Config.DiskAccessMode diskAccessMode()
+    {
+        Config.DiskAccessMode mode = accessMode;
+        return mode == null ? DatabaseDescriptor.getDiskAccessMode() : mode;
+    }
+
+    private static Config.DiskAccessMode indexAccessMode()
+    {
+        Config.DiskAccessMode mode = accessMode;
+        return mode == null ? DatabaseDescriptor.getIndexAccessMode() : mode;
+    }
+
     public static final Comparator<NoTTLReader> maxTimestampComparator = new Comparator<NoTTLReader>()
     {
         public int compare(NoTTLReader o1, NoTTLReader o2)
@@ -619,8 +644,8 @@ public class NoTTLReader extends SSTable implements SelfRefCounted<NoTTLReader>
      */
     private void load(boolean recreateBloomFilter, boolean saveSummaryIfCreated) throws IOException
     {   //recreateBloomFilter = false; saveSummaryIfCreated = true;
-        try(SegmentedFile.Builder ibuilder = SegmentedFile.getBuilder(DatabaseDescriptor.getIndexAccessMode(), false);
-            SegmentedFile.Builder dbuilder = SegmentedFile.getBuilder(DatabaseDescriptor.getDiskAccessMode(), compression)) //Compression=True
+        try(SegmentedFile.Builder ibuilder = SegmentedFile.getBuilder(indexAccessMode(), false);
+            SegmentedFile.Builder dbuilder = SegmentedFile.getBuilder(diskAccessMode(), compression)) //Compression=True
         {
             boolean summaryLoaded = loadSummary(ibuilder, dbuilder); // = true;
             boolean builtSummary = false;
@@ -653,8 +678,8 @@ public class NoTTLReader extends SSTable implements SelfRefCounted<NoTTLReader>
                 logger.info("Detected erroneously downsampled index summary; will rebuild summary at full sampling");
                 FileUtils.deleteWithConfirm(new File(descriptor.filenameFor(Component.SUMMARY)));
 
-                try(SegmentedFile.Builder ibuilderRebuild = SegmentedFile.getBuilder(DatabaseDescriptor.getIndexAccessMode(), false);
-                    SegmentedFile.Builder dbuilderRebuild = SegmentedFile.getBuilder(DatabaseDescriptor.getDiskAccessMode(), compression))
+                try(SegmentedFile.Builder ibuilderRebuild = SegmentedFile.getBuilder(indexAccessMode(), false);
+                    SegmentedFile.Builder dbuilderRebuild = SegmentedFile.getBuilder(diskAccessMode(), compression))
                 {
                     buildSummary(false, ibuilderRebuild, dbuilderRebuild, false, Downsampling.BASE_SAMPLING_LEVEL);
                     ifile = ibuilderRebuild.complete(descriptor.filenameFor(Component.PRIMARY_INDEX));
@@ -1095,8 +1120,8 @@ public class NoTTLReader extends SSTable implements SelfRefCounted<NoTTLReader>
             }
 
             //Always save the resampled index
-            try(SegmentedFile.Builder ibuilder = SegmentedFile.getBuilder(DatabaseDescriptor.getIndexAccessMode(), false);
-                SegmentedFile.Builder dbuilder = SegmentedFile.getBuilder(DatabaseDescriptor.getDiskAccessMode(), compression))
+            try(SegmentedFile.Builder ibuilder = SegmentedFile.getBuilder(indexAccessMode(), false);
+                SegmentedFile.Builder dbuilder = SegmentedFile.getBuilder(diskAccessMode(), compression))
             {
                 for (long boundry : dfile.copyReadableBounds())
                     dbuilder.addPotentialBoundary(boundry);
@@ -5,8 +5,6 @@ import java.io.IOError;
 import java.io.IOException;
 import java.util.Iterator;
 
-import org.apache.cassandra.config.CFMetaData;
-import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.ArrayBackedSortedColumns;
 import org.apache.cassandra.db.ColumnFamily;
 import org.apache.cassandra.db.ColumnSerializer;
@@ -15,7 +13,6 @@ import org.apache.cassandra.db.DeletionTime;
 import org.apache.cassandra.db.OnDiskAtom;
 import org.apache.cassandra.db.columniterator.OnDiskAtomIterator;
 import org.apache.cassandra.io.sstable.CorruptSSTableException;
-import org.apache.cassandra.io.util.FileDataInput;
 import org.apache.cassandra.io.util.RandomAccessReader;
 import org.apache.cassandra.serializers.MarshalException;
 
@@ -34,46 +31,45 @@ public class NoTTLSSTableIdentityIterator implements Comparable<NoTTLSSTableIden
 
     private final NoTTLReader sstable;
 
+    private final NoTTLSerializer serializer;
+
     public NoTTLSSTableIdentityIterator(NoTTLReader sstable, RandomAccessReader file, DecoratedKey key) {
         this(sstable, file, key, false);
     }
 
     public NoTTLSSTableIdentityIterator(NoTTLReader sstable, RandomAccessReader file, DecoratedKey key, boolean checkData) {
-        this(sstable.metadata, file, file.getPath(), key, checkData, sstable, ColumnSerializer.Flag.LOCAL);
-    }
-
-
-    private NoTTLSSTableIdentityIterator(CFMetaData metadata,
-                                         FileDataInput in,
-                                         String filename,
-                                         DecoratedKey key,
-                                         boolean checkData, //false
-                                         NoTTLReader sstable,
-                                         ColumnSerializer.Flag flag) //local
-    {
-        this(metadata, in, filename, key, checkData, sstable, flag, readDeletionTime(in, sstable, filename),
-             NoTTLAbstractCell.onDiskIterator(in, flag, (int) (System.currentTimeMillis() / 1000),
-                                              sstable == null ? DatabaseDescriptor.getSSTableFormat().info.getLatestVersion() : sstable.descriptor.version, metadata.comparator));
+        this(sstable,
+             file,
+             key,
+             checkData,
+             ArrayBackedSortedColumns.factory.create(sstable.metadata),
+             new NoTTLSerializer(sstable.metadata.comparator),
+             (int) (System.currentTimeMillis() / 1000));
     }
 
-    private NoTTLSSTableIdentityIterator(CFMetaData metadata,
-                                         DataInput in,
-                                         String filename,
-                                         DecoratedKey key,
-                                         boolean checkData,
-                                         NoTTLReader sstable,
-                                         ColumnSerializer.Flag flag,
-                                         DeletionTime deletion,
-                                         Iterator<OnDiskAtom> atomIterator) {
+    /**
+     * @param columnFamily container of the partition deletion, cleared and reused for every partition of a scanner
+     * @param serializer serializer reused for every partition of a scanner
+     * @param expireBefore time of the scan, taken once per scanner
+     */
+    public NoTTLSSTableIdentityIterator(NoTTLReader sstable,
+                                        RandomAccessReader file,
+                                        DecoratedKey key,
+                                        boolean checkData,
+                                        ColumnFamily columnFamily,
+                                        NoTTLSerializer serializer,
+                                        int expireBefore) {
         assert !checkData || (sstable != null);
-        this.filename = filename;
+        this.filename = file.getPath();
         this.key = key;
-        this.flag = flag;
+        this.flag = ColumnSerializer.Flag.LOCAL;
         this.validateColumns = checkData;
         this.sstable = sstable;
-        columnFamily = ArrayBackedSortedColumns.factory.create(metadata);
-        columnFamily.delete(deletion);
-        this.atomIterator = atomIterator;
+        this.serializer = serializer;
+        this.columnFamily = columnFamily;
+        this.columnFamily.clear();
+        this.columnFamily.delete(readDeletionTime(file, sstable, filename));
+        this.atomIterator = NoTTLAbstractCell.onDiskIterator(file, flag, expireBefore, sstable.descriptor.version, serializer);
     }
 
     private static DeletionTime readDeletionTime(DataInput in, NoTTLReader sstable, String filename) {
@@ -96,6 +92,10 @@ public class NoTTLSSTableIdentityIterator implements Comparable<NoTTLSSTableIden
         return key;
     }
 
+    public NoTTLSerializer getSerializer() {
+        return serializer;
+    }
+
     public void close() throws IOException {
 
     }
@@ -13,6 +13,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.common.collect.AbstractIterator;
 import com.google.common.util.concurrent.RateLimiter;
+import org.apache.cassandra.db.ArrayBackedSortedColumns;
+import org.apache.cassandra.db.ColumnFamily;
 import org.apache.cassandra.db.DataRange;
 import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.RowIndexEntry;
@@ -44,6 +46,11 @@ public class NoTTLScanner implements ISSTableScanner {
 
     protected Iterator<OnDiskAtomIterator> iterator;
 
+    // created once and reused for all partitions
+    private final NoTTLSerializer serializer;
+    private final ColumnFamily columnFamily;
+    private final int expireBefore;
+
     public static ISSTableScanner getScanner(NoTTLReader sstable, DataRange dataRange, RateLimiter limiter) {
         return new NoTTLScanner(sstable, dataRange, limiter);
     }
@@ -57,6 +64,9 @@ public class NoTTLScanner implements ISSTableScanner {
         this.sstable = sstable;
         this.dataRange = dataRange;
         this.rowIndexEntrySerializer = sstable.descriptor.version.getSSTableFormat().getIndexSerializer(sstable.metadata);
+        this.serializer = new NoTTLSerializer(sstable.metadata.comparator);
+        this.columnFamily = ArrayBackedSortedColumns.factory.create(sstable.metadata);
+        this.expireBefore = (int) (System.currentTimeMillis() / 1000);
 
         List<AbstractBounds<RowPosition>> boundsList = new ArrayList<>(2);
         addRange(dataRange.keyRange(), boundsList);
@@ -208,8 +218,8 @@ public class NoTTLScanner implements ISSTableScanner {
                 }
 
                 dfile.seek(currentEntry.position + currentEntry.headerOffset());
-                ByteBufferUtil.readWithShortLength(dfile); // key
-                return new NoTTLSSTableIdentityIterator(sstable, dfile, currentKey, false);
+                ByteBufferUtil.skipShortLength(dfile); // key, already read from the index
+                return new NoTTLSSTableIdentityIterator(sstable, dfile, currentKey, false, columnFamily, serializer, expireBefore);
 
 
             } catch (CorruptSSTableException | IOException e) {
@@ -10,13 +10,28 @@ import org.apache.cassandra.db.composites.CellNameType;
 import org.apache.cassandra.db.composites.Composite;
 import org.apache.cassandra.io.sstable.format.Version;
 
+/**
+ * Reads atoms from a data file turning expiring cells into cells without TTL.
+ *
+ * It is not thread safe, a scanner creates one instance and reuses it for all atoms it reads.
+ */
 public class NoTTLSerializer extends OnDiskAtom.Serializer {
 
     private final CellNameType type;
 
+    private final NoTTLColumnSerializer columnSerializer;
+
     public NoTTLSerializer(CellNameType type) {
         super(type);
         this.type = type;
+        this.columnSerializer = new NoTTLColumnSerializer(type);
+    }
+
+    /**
+     * @return number of expiring cells read by this serializer so far
+     */
+    public long ttlCellsStripped() {
+        return columnSerializer.ttlCellsStripped();
     }
 
     @Override
@@ -31,7 +46,7 @@ public class NoTTLSerializer extends OnDiskAtom.Serializer {
         if ((b & ColumnSerializer.RANGE_TOMBSTONE_MASK) != 0) {
             return type.rangeTombstoneSerializer().deserializeBody(in, name, version);
         } else {
-            return new NoTTLColumnSerializer(type).deserializeColumnBody(in, (CellName) name, b, flag, expireBefore);
+            return columnSerializer.deserializeColumnBody(in, (CellName) name, b, flag, expireBefore);
         }
     }
 
@@ -0,0 +1,333 @@
+package com.instaclustr.cassandra.ttl;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.io.compress.BufferType;
+import org.apache.cassandra.io.compress.CompressedSequentialWriter;
+import org.apache.cassandra.io.compress.CompressionParameters;
+import org.apache.cassandra.io.compress.ICompressor;
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.format.SSTableWriter;
+import org.apache.cassandra.io.sstable.format.big.BigTableWriter;
+import org.apache.cassandra.io.sstable.metadata.MetadataCollector;
+import org.apache.cassandra.io.util.FileMark;
+import org.apache.cassandra.io.util.SegmentedFile;
+import org.apache.cassandra.service.ActiveRepairService;
+import org.apache.cassandra.utils.Throwables;
+
+/**
+ * Writes the data file of a compressed SSTable, compressing chunks on a pool of threads while the writing thread
+ * fills the next ones, so compression of a single SSTable is spread over several cores. The pool is shared by all
+ * writers and has as many threads as there are cores, so SSTables rewritten concurrently do not multiply the number
+ * of compressing threads.
+ *
+ * Compressed chunks are written in order by {@link CompressedSequentialWriter#flushData()} itself, its compressor
+ * is replaced by one handing over the chunk compressed on the pool. Chunk offsets in CompressionInfo, checksums
+ * of chunks and the digest are therefore computed by Cassandra from the very same bytes a sequential writer writes.
+ *
+ * At most {@code chunksAhead} chunks are being compressed or waiting to be written at any time, so memory is bounded
+ * by that many uncompressed and compressed chunks. As chunks reach the disk only once they are compressed,
+ * {@link #getOnDiskFilePointer()} lags behind by up to that many chunks.
+ *
+ * It is not thread safe, it is written by a single thread.
+ */
+public class ParallelCompressedSequentialWriter extends CompressedSequentialWriter {
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+        final Thread thread = new Thread(runnable, "ttl-remover-compress-" + threadCounter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ICompressor compressor;
+
+    private final CompressedChunk compressedChunk;
+
+    private final int chunksAhead;
+
+    private final Deque<Chunk> pending = new ArrayDeque<>();
+
+    private final Deque<Chunk> spare = new ArrayDeque<>();
+
+    // chunk the writing thread fills, its buffer is the buffer of this writer
+    private Chunk current;
+
+    /**
+     * @param chunksAhead maximal number of chunks compressed ahead of the one being written
+     */
+    public ParallelCompressedSequentialWriter(final File file,
+                                              final String offsetsPath,
+                                              final CompressionParameters parameters,
+                                              final MetadataCollector sstableMetadataCollector,
+                                              final int chunksAhead) {
+        super(file, offsetsPath, parameters, sstableMetadataCollector);
+        this.compressor = parameters.sstableCompressor;
+        this.compressedChunk = new CompressedChunk(compressor);
+        this.chunksAhead = chunksAhead;
+        this.current = new Chunk(buffer, allocateCompressed());
+
+        // CompressionInfo records the name of the compressor of the parameters, which stays the original one
+        setField(CompressedSequentialWriter.class, "compressor", this, compressedChunk);
+    }
+
+    /**
+     * Creates a writer of an SSTable as {@link SSTableWriter#create(Descriptor, long, long)} does. When the SSTable
+     * is compressed, its data file is written by a {@link ParallelCompressedSequentialWriter}.
+     *
+     * Writers of Cassandra 2.2 open their data file as they are constructed, so the sequential one is aborted before
+     * anything is written to it and it is replaced by a parallel one writing the same files. Cassandra 2.2.19 is the last
+     * release of 2.2, fields of its writer do not change. SSTables are not opened early, so nothing else refers to
+     * the replaced writer.
+     *
+     * @param chunksAhead maximal number of chunks compressed ahead of the one being written
+     */
+    public static SSTableWriter create(final Descriptor descriptor, final long keyCount, final int chunksAhead) {
+        final CFMetaData metadata = Schema.instance.getCFMetaData(descriptor);
+        final MetadataCollector collector = new MetadataCollector(metadata.comparator).sstableLevel(0);
+
+        final SSTableWriter writer = SSTableWriter.create(descriptor,
+                                                          keyCount,
+                                                          ActiveRepairService.UNREPAIRED_SSTABLE,
+                                                          metadata,
+                                                          DatabaseDescriptor.getPartitioner(),
+                                                          collector);
+
+        if (!writer.compression) {
+            return writer;
+        }
+
+        final CompressedSequentialWriter sequential = (CompressedSequentialWriter) getField(BigTableWriter.class, "dataFile", writer);
+
+        Throwables.maybeFail(sequential.abort(null));
+
+        final ParallelCompressedSequentialWriter parallel = new ParallelCompressedSequentialWriter(new File(writer.getFilename()),
+                                                                                                   descriptor.filenameFor(Component.COMPRESSION_INFO),
+                                                                                                   metadata.compressionParameters(),
+                                                                                                   collector,
+                                                                                                   chunksAhead);
+
+        setField(BigTableWriter.class, "dataFile", writer, parallel);
+        setField(BigTableWriter.class, "dbuilder", writer, SegmentedFile.getCompressedBuilder(parallel));
+
+        return writer;
+    }
+
+    /**
+     * Hands the full chunk over to the pool instead of compressing it, the writing thread goes on with another buffer.
+     */
+    @Override
+    protected void flushData() {
+        final Chunk chunk = current;
+
+        chunk.offset = bufferOffset;
+        chunk.data.flip();
+        chunk.compression = executor.submit(() -> compress(chunk));
+
+        pending.add(chunk);
+
+        // the chunk is not written yet but the writing thread goes on with the data following it
+        bufferOffset += chunk.data.remaining();
+
+        current = spare.isEmpty() ? new Chunk(compressor.preferredBufferType().allocate(chunk.data.capacity()), allocateCompressed()) : spare.poll();
+        buffer = current.data;
+
+        while (pending.size() > chunksAhead) {
+            writeChunk();
+        }
+    }
+
+    /**
+     * Writes all chunks before the data file is synced, which happens before it is committed as well.
+     */
+    @Override
+    protected void syncInternal() {
+        flushInternal();
+        writeChunks();
+
+        super.syncInternal();
+    }
+
+    @Override
+    public FileMark mark() {
+        writeChunks();
+
+        return super.mark();
+    }
+
+    @Override
+    public synchronized void resetAndTruncate(final FileMark mark) {
+        writeChunks();
+
+        super.resetAndTruncate(mark);
+    }
+
+    private void writeChunks() {
+        while (!pending.isEmpty()) {
+            writeChunk();
+        }
+    }
+
+    /**
+     * Writes the oldest chunk once it is compressed. {@link CompressedSequentialWriter#flushData()} writes it as if it
+     * was the buffer being filled, the buffer and its offset are restored afterwards.
+     */
+    private void writeChunk() {
+        final Chunk chunk = pending.poll();
+
+        await(chunk.compression);
+
+        final ByteBuffer filled = buffer;
+        final long filledOffset = bufferOffset;
+
+        try {
+            // flushData flips the buffer once more
+            chunk.data.position(chunk.data.limit());
+            buffer = chunk.data;
+            bufferOffset = chunk.offset;
+            compressedChunk.compressed = chunk.compressed;
+
+            super.flushData();
+        } finally {
+            buffer = filled;
+            bufferOffset = filledOffset;
+            compressedChunk.compressed = null;
+        }
+
+        chunk.compression = null;
+        spare.add(chunk);
+    }
+
+    private Void compress(final Chunk chunk) throws IOException {
+        chunk.compressed.clear();
+        compressor.compress(chunk.data.duplicate(), chunk.compressed);
+        chunk.compressed.flip();
+
+        return null;
+    }
+
+    private ByteBuffer allocateCompressed() {
+        return compressor.preferredBufferType().allocate(compressor.initialCompressedBufferLength(buffer.capacity()));
+    }
+
+    private void await(final Future<Void> compression) {
+        try {
+            compression.get();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a chunk to be compressed.", ex);
+        } catch (final ExecutionException ex) {
+            // as CompressedSequentialWriter fails
+            throw new RuntimeException("Compression exception", ex.getCause());
+        }
+    }
+
+    private static Object getField(final Class<?> type, final String name, final Object target) {
+        try {
+            return field(type, name).get(target);
+        } catch (final ReflectiveOperationException ex) {
+            throw new IllegalStateException(String.format("Unable to read %s of %s", name, type.getName()), ex);
+        }
+    }
+
+    private static void setField(final Class<?> type, final String name, final Object target, final Object value) {
+        try {
+            field(type, name).set(target, value);
+        } catch (final ReflectiveOperationException ex) {
+            throw new IllegalStateException(String.format("Unable to replace %s of %s", name, type.getName()), ex);
+        }
+    }
+
+    private static Field field(final Class<?> type, final String name) throws NoSuchFieldException {
+        final Field field = type.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+    }
+
+    /**
+     * A chunk being filled, compressed or waiting to be written, its buffers are reused once it is written.
+     */
+    private static final class Chunk {
+
+        private final ByteBuffer data;
+
+        private final ByteBuffer compressed;
+
+        // uncompressed offset of the chunk in the data file
+        private long offset;
+
+        private Future<Void> compression;
+
+        private Chunk(final ByteBuffer data, final ByteBuffer compressed) {
+            this.data = data;
+            this.compressed = compressed;
+        }
+    }
+
+    /**
+     * Compressor of the sequential writer, it copies the chunk compressed on the pool instead of compressing the buffer.
+     * Everything else, e.g. decompression of the last chunk on {@link #resetAndTruncate}, is done by the real compressor.
+     */
+    private static final class CompressedChunk implements ICompressor {
+
+        private final ICompressor compressor;
+
+        private ByteBuffer compressed;
+
+        private CompressedChunk(final ICompressor compressor) {
+            this.compressor = compressor;
+        }
+
+        @Override
+        public void compress(final ByteBuffer input, final ByteBuffer output) {
+            output.put(compressed.duplicate());
+            input.position(input.limit());
+        }
+
+        @Override
+        public int initialCompressedBufferLength(final int chunkLength) {
+            return compressor.initialCompressedBufferLength(chunkLength);
+        }
+
+        @Override
+        public int uncompress(final byte[] input, final int inputOffset, final int inputLength, final byte[] output, final int outputOffset) throws IOException {
+            return compressor.uncompress(input, inputOffset, inputLength, output, outputOffset);
+        }
+
+        @Override
+        public void uncompress(final ByteBuffer input, final ByteBuffer output) throws IOException {
+            compressor.uncompress(input, output);
+        }
+
+        @Override
+        public BufferType preferredBufferType() {
+            return compressor.preferredBufferType();
+        }
+
+        @Override
+        public boolean supports(final BufferType bufferType) {
+            return compressor.supports(bufferType);
+        }
+
+        @Override
+        public Set<String> supportedOptions() {
+            return compressor.supportedOptions();
+        }
+    }
+}
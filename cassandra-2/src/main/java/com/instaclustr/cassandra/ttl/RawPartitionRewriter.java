@@ -0,0 +1,293 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.lang.String.format;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.cassandra.db.ColumnSerializer;
+
+/**
+ * Removes TTL from partitions of a Cassandra 2 data file without deserialising their cells.
+ *
+ * An expiring cell differs from a regular one only by {@link ColumnSerializer#EXPIRATION_MASK} in its flags
+ * and by the ttl and the local expiration time (two ints) in front of its timestamp, so cells are copied
+ * byte by byte with the mask cleared and those eight bytes dropped. Everything else - the partition deletion,
+ * range tombstones, counter and deleted cells - is copied as it is.
+ *
+ * A partition is laid out as its deletion time, atoms and an empty cell name marking its end. Every atom starts
+ * with a short length prefixed name and its flags, the rest depends on the flags:
+ * <ul>
+ *     <li>range tombstone: short length prefixed end of the range and deletion time</li>
+ *     <li>counter: timestamp of the last delete, timestamp and int length prefixed value</li>
+ *     <li>expiring: ttl, local expiration time, timestamp and int length prefixed value</li>
+ *     <li>regular, deleted and counter update: timestamp and int length prefixed value</li>
+ * </ul>
+ *
+ * Partitions are rewritten as they are read, so only a few fields of a single atom are held in memory at a time,
+ * names and values are read from the data file just when they are read from the rewritten partition.
+ * A partition is buffered as a whole only when it is handed over to another thread, see {@link #buffer}.
+ *
+ * It is not thread safe, one instance is reused for all partitions of an SSTable.
+ */
+public class RawPartitionRewriter {
+
+    // int local deletion time and long marked for delete at
+    private static final int DELETION_TIME_SIZE = 12;
+
+    private static final int TIMESTAMP_SIZE = 8;
+
+    // int ttl and int local expiration time
+    private static final int EXPIRATION_SIZE = 8;
+
+    private static final int MIN_BUFFER_SIZE = 4 * 1024;
+
+    private final RewritingStream stream = new RewritingStream();
+
+    private final DataInputStream rewritten = new DataInputStream(stream);
+
+    private final byte[] scratch = new byte[64 * 1024];
+
+    // buffers are sized by the previous partition, as partitions of a table tend to be of similar size
+    private int bufferSize = MIN_BUFFER_SIZE;
+
+    /**
+     * Removes TTL from a partition as it is read from the returned input.
+     *
+     * @param in data file positioned just after the partition key, it is read only as far as the returned input is
+     * @return rewritten partition, valid until this method or {@link #buffer} is called again
+     */
+    public DataInput rewrite(final DataInput in, final RemovalMetrics metrics) {
+        stream.start(in, metrics);
+
+        return rewritten;
+    }
+
+    /**
+     * Reads a partition without TTL into a buffer of its own, so it can be handed over to another thread.
+     *
+     * @param in data file positioned just after the partition key, it is positioned after the partition once done
+     * @return rewritten partition, which stays valid when this method is called again
+     */
+    public DataInput buffer(final DataInput in, final RemovalMetrics metrics) throws IOException {
+        final Buffer buffer = new Buffer(bufferSize);
+
+        stream.start(in, metrics);
+
+        int read;
+
+        while ((read = stream.read(scratch, 0, scratch.length)) != -1) {
+            buffer.write(scratch, 0, read);
+        }
+
+        bufferSize = Math.max(MIN_BUFFER_SIZE, buffer.size());
+
+        return buffer.input();
+    }
+
+    /**
+     * Rewrites a partition atom by atom, fixed size fields of an atom are rewritten into a small array, names
+     * and values are copied from the data file as they are read.
+     */
+    private static final class RewritingStream extends InputStream {
+
+        private enum State {
+            DELETION_TIME, NAME, FLAGS, RANGE_TOMBSTONE, END
+        }
+
+        // flags, timestamp of the last delete, timestamp and length of a value is the most an atom needs at once
+        private final byte[] fields = new byte[32];
+
+        private int fieldsPosition;
+
+        private int fieldsLength;
+
+        // bytes left to be copied from the data file as they are, e.g. a name or a value
+        private int copying;
+
+        private DataInput in;
+
+        private RemovalMetrics metrics;
+
+        private State state = State.END;
+
+        private long cells;
+
+        private long ttlCells;
+
+        private void start(final DataInput in, final RemovalMetrics metrics) {
+            this.in = in;
+            this.metrics = metrics;
+            this.state = State.DELETION_TIME;
+            this.fieldsPosition = 0;
+            this.fieldsLength = 0;
+            this.copying = 0;
+            this.cells = 0;
+            this.ttlCells = 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!prepare()) {
+                return -1;
+            }
+
+            if (fieldsPosition < fieldsLength) {
+                return fields[fieldsPosition++] & 0xFF;
+            }
+
+            copying--;
+
+            return in.readUnsignedByte();
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+
+            if (!prepare()) {
+                return -1;
+            }
+
+            if (fieldsPosition < fieldsLength) {
+                final int read = Math.min(length, fieldsLength - fieldsPosition);
+
+                System.arraycopy(fields, fieldsPosition, bytes, offset, read);
+                fieldsPosition += read;
+
+                return read;
+            }
+
+            final int read = Math.min(length, copying);
+
+            in.readFully(bytes, offset, read);
+            copying -= read;
+
+            return read;
+        }
+
+        /**
+         * @return false once the whole partition was read
+         */
+        private boolean prepare() throws IOException {
+            while (fieldsPosition == fieldsLength && copying == 0) {
+                if (state == State.END) {
+                    return false;
+                }
+
+                fieldsPosition = 0;
+                fieldsLength = 0;
+
+                advance();
+            }
+
+            return true;
+        }
+
+        private void advance() throws IOException {
+            switch (state) {
+                case DELETION_TIME:
+                    copyField(DELETION_TIME_SIZE);
+                    state = State.NAME;
+                    break;
+                case NAME:
+                    final int nameLength = in.readUnsignedShort();
+                    writeShort(nameLength);
+
+                    if (nameLength == 0) {
+                        // storage engine of Cassandra 2 has no notion of rows, only cells are counted
+                        metrics.cellsProcessed(cells, ttlCells);
+                        state = State.END;
+                    } else {
+                        copying = nameLength;
+                        state = State.FLAGS;
+                    }
+                    break;
+                case FLAGS:
+                    final int flags = in.readUnsignedByte();
+
+                    if ((flags & ColumnSerializer.RANGE_TOMBSTONE_MASK) != 0) {
+                        writeByte(flags);
+
+                        copying = in.readUnsignedShort();
+                        writeShort(copying);
+
+                        metrics.rangeTombstone();
+
+                        state = State.RANGE_TOMBSTONE;
+                        break;
+                    }
+
+                    cells++;
+
+                    if ((flags & ColumnSerializer.COUNTER_MASK) != 0) {
+                        writeByte(flags);
+                        // timestamp of the last delete
+                        copyField(TIMESTAMP_SIZE);
+                    } else if ((flags & ColumnSerializer.EXPIRATION_MASK) != 0) {
+                        writeByte(flags & ~ColumnSerializer.EXPIRATION_MASK);
+                        skipField(EXPIRATION_SIZE);
+
+                        ttlCells++;
+                    } else {
+                        writeByte(flags);
+                    }
+
+                    copyField(TIMESTAMP_SIZE);
+
+                    copying = in.readInt();
+                    writeInt(copying);
+
+                    state = State.NAME;
+                    break;
+                case RANGE_TOMBSTONE:
+                    copyField(DELETION_TIME_SIZE);
+                    state = State.NAME;
+                    break;
+                default:
+                    throw new IllegalStateException(format("Unexpected state %s", state));
+            }
+        }
+
+        private void copyField(final int length) throws IOException {
+            in.readFully(fields, fieldsLength, length);
+            fieldsLength += length;
+        }
+
+        private void skipField(final int length) throws IOException {
+            // read past the rewritten fields, so it is overwritten by the next one
+            in.readFully(fields, fieldsLength, length);
+        }
+
+        private void writeByte(final int value) {
+            fields[fieldsLength++] = (byte) value;
+        }
+
+        private void writeShort(final int value) {
+            writeByte(value >>> 8);
+            writeByte(value);
+        }
+
+        private void writeInt(final int value) {
+            writeShort(value >>> 16);
+            writeShort(value);
+        }
+    }
+
+    private static final class Buffer extends ByteArrayOutputStream {
+
+        private Buffer(final int size) {
+            super(size);
+        }
+
+        private DataInput input() {
+            return new DataInputStream(new ByteArrayInputStream(buf, 0, count));
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.apache.cassandra.db.ColumnSerializer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RawPartitionRewriterTest {
+
+    private static final byte[] TRAILER = "next partition".getBytes(UTF_8);
+
+    @Test
+    public void removesTTLFromExpiringCells() throws IOException {
+        final Partition input = new Partition()
+            .expiring("a", 10, 1000, 1L, "value a")
+            .expiring("b", 20, 2000, 2L, "value b");
+
+        final Partition expected = new Partition()
+            .regular("a", 1L, "value a")
+            .regular("b", 2L, "value b");
+
+        final RemovalMetrics metrics = new RemovalMetrics();
+
+        assertRewritten(expected, input, metrics);
+
+        assertEquals(2, metrics.getCells());
+        assertEquals(2, metrics.getTTLCellsStripped());
+        assertEquals(0, metrics.getRangeTombstones());
+    }
+
+    @Test
+    public void copiesOtherAtoms() throws IOException {
+        final Partition input = new Partition()
+            .rangeTombstone("a", "c", 100, 3L)
+            .regular("b", 4L, "value")
+            .cell("c", ColumnSerializer.DELETION_MASK, 5L, "")
+            .counter("d", 6L, 7L, "counter")
+            .cell("e", ColumnSerializer.COUNTER_UPDATE_MASK, 8L, "update");
+
+        final RemovalMetrics metrics = new RemovalMetrics();
+
+        assertRewritten(input, input, metrics);
+
+        assertEquals(4, metrics.getCells());
+        assertEquals(0, metrics.getTTLCellsStripped());
+        assertEquals(1, metrics.getRangeTombstones());
+    }
+
+    @Test
+    public void rewritesMixedAtoms() throws IOException {
+        final Partition input = new Partition()
+            .rangeTombstone("a", "b", 100, 3L)
+            .expiring("b", 10, 1000, 4L, "")
+            .counter("c", 5L, 6L, "counter")
+            .expiring("d", 10, 1000, 7L, longValue(100_000));
+
+        final Partition expected = new Partition()
+            .rangeTombstone("a", "b", 100, 3L)
+            .regular("b", 4L, "")
+            .counter("c", 5L, 6L, "counter")
+            .regular("d", 7L, longValue(100_000));
+
+        final RemovalMetrics metrics = new RemovalMetrics();
+
+        assertRewritten(expected, input, metrics);
+
+        assertEquals(3, metrics.getCells());
+        assertEquals(2, metrics.getTTLCellsStripped());
+        assertEquals(1, metrics.getRangeTombstones());
+    }
+
+    @Test
+    public void rewritesEmptyPartition() throws IOException {
+        final Partition partition = new Partition();
+
+        assertRewritten(partition, partition, new RemovalMetrics());
+    }
+
+    @Test
+    public void bufferedPartitionOutlivesNextOne() throws IOException {
+        final RawPartitionRewriter rewriter = new RawPartitionRewriter();
+        final RemovalMetrics metrics = new RemovalMetrics();
+
+        final Partition first = new Partition().expiring("a", 10, 1000, 1L, longValue(10_000));
+        final Partition second = new Partition().expiring("b", 10, 1000, 2L, "second");
+
+        final DataInput buffered = rewriter.buffer(first.input(), metrics);
+
+        rewriter.buffer(second.input(), metrics);
+        rewriter.rewrite(second.input(), metrics);
+
+        final byte[] expected = new Partition().regular("a", 1L, longValue(10_000)).bytes();
+        final byte[] actual = new byte[expected.length];
+
+        buffered.readFully(actual);
+
+        assertArrayEquals(expected, actual);
+    }
+
+    /**
+     * Checks a partition rewritten as it is read and a buffered one, only the latter is counted in given metrics.
+     */
+    private static void assertRewritten(final Partition expected, final Partition input, final RemovalMetrics metrics) throws IOException {
+        final RawPartitionRewriter rewriter = new RawPartitionRewriter();
+        final byte[] expectedBytes = expected.bytes();
+
+        // rewritten partitions are read in chunks of various sizes, so they end in the middle of every field
+        for (final int chunk : new int[]{1, 3, 7, 64, expectedBytes.length}) {
+            final DataInputStream in = input.input();
+
+            assertArrayEquals(expectedBytes, read(rewriter.rewrite(in, new RemovalMetrics()), expectedBytes.length, chunk));
+            assertTrailer(in);
+        }
+
+        final DataInputStream in = input.input();
+
+        assertArrayEquals(expectedBytes, read(rewriter.buffer(in, metrics), expectedBytes.length, expectedBytes.length));
+        assertTrailer(in);
+    }
+
+    private static byte[] read(final DataInput rewritten, final int length, final int chunk) throws IOException {
+        final byte[] bytes = new byte[length];
+
+        for (int offset = 0; offset < length; offset += chunk) {
+            rewritten.readFully(bytes, offset, Math.min(chunk, length - offset));
+        }
+
+        return bytes;
+    }
+
+    private static void assertTrailer(final DataInputStream in) throws IOException {
+        final byte[] trailer = new byte[TRAILER.length];
+
+        in.readFully(trailer);
+
+        assertArrayEquals(TRAILER, trailer);
+        assertEquals(-1, in.read());
+    }
+
+    private static String longValue(final int length) {
+        final StringBuilder value = new StringBuilder(length);
+
+        for (int i = 0; i < length; i++) {
+            value.append((char) ('a' + i % 26));
+        }
+
+        return value.toString();
+    }
+
+    /**
+     * Serialises a partition as Cassandra 2 lays it out in a data file after its key.
+     */
+    private static final class Partition {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        private Partition() throws IOException {
+            // local deletion time and marked for delete at of a live partition
+            out.writeInt(Integer.MAX_VALUE);
+            out.writeLong(Long.MIN_VALUE);
+        }
+
+        private Partition regular(final String name, final long timestamp, final String value) throws IOException {
+            return cell(name, 0, timestamp, value);
+        }
+
+        private Partition cell(final String name, final int flags, final long timestamp, final String value) throws IOException {
+            writeName(name);
+            out.writeByte(flags);
+            out.writeLong(timestamp);
+            writeValue(value);
+            return this;
+        }
+
+        private Partition expiring(final String name, final int ttl, final int localExpirationTime, final long timestamp, final String value) throws IOException {
+            writeName(name);
+            out.writeByte(ColumnSerializer.EXPIRATION_MASK);
+            out.writeInt(ttl);
+            out.writeInt(localExpirationTime);
+            out.writeLong(timestamp);
+            writeValue(value);
+            return this;
+        }
+
+        private Partition counter(final String name, final long timestampOfLastDelete, final long timestamp, final String value) throws IOException {
+            writeName(name);
+            out.writeByte(ColumnSerializer.COUNTER_MASK);
+            out.writeLong(timestampOfLastDelete);
+            out.writeLong(timestamp);
+            writeValue(value);
+            return this;
+        }
+
+        private Partition rangeTombstone(final String start, final String end, final int localDeletionTime, final long markedForDeleteAt) throws IOException {
+            writeName(start);
+            out.writeByte(ColumnSerializer.RANGE_TOMBSTONE_MASK);
+            writeName(end);
+            out.writeInt(localDeletionTime);
+            out.writeLong(markedForDeleteAt);
+            return this;
+        }
+
+        private byte[] bytes() throws IOException {
+            final ByteArrayOutputStream partition = new ByteArrayOutputStream();
+
+            bytes.writeTo(partition);
+            // empty name marks the end of the partition
+            partition.write(new byte[]{0, 0});
+
+            return partition.toByteArray();
+        }
+
+        private DataInputStream input() throws IOException {
+            final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+            data.write(bytes());
+            data.write(TRAILER);
+
+            return new DataInputStream(new ByteArrayInputStream(data.toByteArray()));
+        }
+
+        private void writeName(final String name) throws IOException {
+            final byte[] bytes = name.getBytes(UTF_8);
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+
+        private void writeValue(final String value) throws IOException {
+            final byte[] bytes = value.getBytes(UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
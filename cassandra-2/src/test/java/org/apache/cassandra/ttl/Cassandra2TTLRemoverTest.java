@@ -24,6 +24,7 @@ import com.github.nosan.embedded.cassandra.EmbeddedCassandraFactory;
 import com.github.nosan.embedded.cassandra.api.Cassandra;
 import com.github.nosan.embedded.cassandra.api.Version;
 import com.github.nosan.embedded.cassandra.artifact.Artifact;
+import com.instaclustr.cassandra.ttl.RemovalTestHarness;
 import com.instaclustr.cassandra.ttl.cli.TTLRemoverCLI;
 import com.instaclustr.sstable.generator.BulkLoader;
 import com.instaclustr.sstable.generator.CassandraBulkLoader;
@@ -66,8 +67,14 @@ public class Cassandra2TTLRemoverTest {
     @Rule
     public TemporaryFolder generatedSSTables = new TemporaryFolder();
 
+    @Rule
+    public TemporaryFolder manyTTLSSTables = new TemporaryFolder();
+
+    @Rule
+    public TemporaryFolder outputs = new TemporaryFolder();
+
     @Test
-    public void removeTTL() throws InterruptedException {
+    public void removeTTL() throws Exception {
 
         Path cassandraDir = new File("target/cassandra-2").toPath().toAbsolutePath();
 
@@ -119,6 +126,8 @@ public class Cassandra2TTLRemoverTest {
 
             bulkLoader.run();
 
+            generateManyRows(manyTTLSSTables.getRoot().toPath());
+
             // wait until data would expire
             Thread.sleep(15000);
 
@@ -173,6 +182,24 @@ public class Cassandra2TTLRemoverTest {
                 new File("target/cassandra-2/data/data").getAbsolutePath(),
             }, false);
 
+            // remove ttls with other options, their outputs are loaded once the first one is checked
+
+            final Path manyRows = Paths.get(manyTTLSSTables.getRoot().getAbsolutePath(), KEYSPACE);
+            final RemovalTestHarness harness = new RemovalTestHarness(outputs,
+                                                                      "--cassandra-version=2",
+                                                                      "--cassandra-yaml",
+                                                                      findCassandraYaml(new File("target/cassandra-2/conf").toPath()).toAbsolutePath().toString(),
+                                                                      "--cassandra-storage-dir",
+                                                                      new File("target/cassandra-2/data/data").getAbsolutePath());
+
+            final Path rewritten = harness.rewrite("--threads", manyRows, "--threads=2");
+            harness.rewrite("--raw-rewrite", manyRows, "--raw-rewrite");
+            harness.rewrite("--raw-rewrite --pipeline-queue-size", manyRows, "--raw-rewrite", "--pipeline-queue-size=8");
+            harness.rewriteIdentical("--compress-chunks", manyRows, rewritten, "--compress-chunks=4");
+            harness.rewriteRolled(manyRows);
+            harness.rewriteTTLFree(rewritten);
+            harness.rewriteResumed(manyRows);
+
             // import it into Cassandra
 
             final CassandraBulkLoaderSpec cassandraBulkLoaderSpec2 = new CassandraBulkLoaderSpec();
@@ -189,6 +216,10 @@ public class Cassandra2TTLRemoverTest {
             try (final Cluster cluster = Cluster.builder().addContactPoint("127.0.0.1").withPort(9042).build(); final Session session = cluster.connect()) {
                 assertEquals(3, session.execute(QueryBuilder.select().all().from("test", "test")).all().size());
             }
+
+            // and so do SSTables removed with other options
+
+            harness.assertRowCounts(2 * RemovalTestHarness.ROWS, this::loadAndCount);
         } finally {
             if (cassandra != null) {
                 cassandra.stop();
@@ -242,6 +273,75 @@ public class Cassandra2TTLRemoverTest {
     }
 
 
+    public static final class TestManyRowsImplementation implements RowMapper {
+
+        public static final String KEYSPACE = "test";
+        public static final String TABLE = "test";
+
+        @Override
+        public List<Object> map(final List<String> row) {
+            return null;
+        }
+
+        @Override
+        public Stream<List<Object>> get() {
+            return RemovalTestHarness.manyRows();
+        }
+
+        @Override
+        public List<Object> random() {
+            return null;
+        }
+
+        @Override
+        public String insertStatement() {
+            return format("INSERT INTO %s.%s (id, name, surname) VALUES (?, ?, ?);", KEYSPACE, TABLE);
+        }
+    }
+
+    private void generateManyRows(final Path outputDir) {
+        final BulkLoaderSpec bulkLoaderSpec = new BulkLoaderSpec();
+
+        bulkLoaderSpec.bufferSize = 128;
+        bulkLoaderSpec.file = Paths.get("");
+        bulkLoaderSpec.keyspace = KEYSPACE;
+        bulkLoaderSpec.table = TABLE;
+        bulkLoaderSpec.partitioner = "murmur";
+        bulkLoaderSpec.sorted = false;
+        bulkLoaderSpec.threads = 1;
+
+        bulkLoaderSpec.generationImplementation = TestManyRowsImplementation.class.getName();
+        bulkLoaderSpec.outputDir = outputDir;
+        bulkLoaderSpec.schema = Paths.get(new File("src/test/resources/cassandra/cql/table.cql").getAbsolutePath());
+
+        // every run writes an SSTable of its own, so there is more than one to be rewritten concurrently
+        for (int i = 0; i < 2; i++) {
+            final BulkLoader bulkLoader = new TestBulkLoader();
+            bulkLoader.bulkLoaderSpec = bulkLoaderSpec;
+
+            bulkLoader.run();
+        }
+    }
+
+    private int loadAndCount(final Path sstablesDir) {
+        executeWithSession(session -> session.execute(format("TRUNCATE %s.%s;", KEYSPACE, TABLE)));
+
+        final CassandraBulkLoaderSpec cassandraBulkLoaderSpec = new CassandraBulkLoaderSpec();
+
+        cassandraBulkLoaderSpec.node = "127.0.0.1";
+        cassandraBulkLoaderSpec.cassandraYaml = findCassandraYaml(new File("target/cassandra-2/conf").toPath());
+        cassandraBulkLoaderSpec.sstablesDir = sstablesDir;
+        cassandraBulkLoaderSpec.cassandraVersion = CassandraVersion.V3;
+
+        final CassandraBulkLoader cassandraBulkLoader = new Cassandra2CustomBulkLoader();
+        cassandraBulkLoader.cassandraBulkLoaderSpec = cassandraBulkLoaderSpec;
+        cassandraBulkLoader.run();
+
+        try (final Cluster cluster = Cluster.builder().addContactPoint("127.0.0.1").withPort(9042).build(); final Session session = cluster.connect()) {
+            return session.execute(QueryBuilder.select().all().from(KEYSPACE, TABLE)).all().size();
+        }
+    }
+
     private void waitForCql() {
         await()
             .pollInterval(10, TimeUnit.SECONDS)
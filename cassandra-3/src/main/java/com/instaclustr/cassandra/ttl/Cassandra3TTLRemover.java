@@ -2,35 +2,59 @@ package com.instaclustr.cassandra.ttl;
 
 import static java.lang.String.format;
 
+import java.io.DataInput;
+import java.io.IOException;
 import java.nio.file.Path;
-import java.util.*;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
 
+import com.instaclustr.cassandra.ttl.RemovalPlanner.RemovalPlan;
+import com.google.common.collect.Iterables;
 import com.instaclustr.cassandra.ttl.cli.TTLRemovalException;
 import org.apache.cassandra.config.CFMetaData;
-import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.cql3.QueryProcessor;
 import org.apache.cassandra.cql3.statements.CFStatement;
 import org.apache.cassandra.cql3.statements.CreateTableStatement;
-import org.apache.cassandra.db.*;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.LivenessInfo;
+import org.apache.cassandra.db.SerializationHeader;
 import org.apache.cassandra.db.compaction.OperationType;
 import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
-import org.apache.cassandra.db.marshal.CollectionType;
-import org.apache.cassandra.db.marshal.MapType;
-import org.apache.cassandra.db.partitions.PartitionUpdate;
-import org.apache.cassandra.db.rows.*;
-import org.apache.cassandra.db.rows.Row.Builder;
+import org.apache.cassandra.db.partitions.ImmutableBTreePartition;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
 import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.io.sstable.Component;
 import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.sstable.ISSTableScanner;
-import org.apache.cassandra.io.sstable.KeyIterator;
 import org.apache.cassandra.io.sstable.SSTable;
 import org.apache.cassandra.io.sstable.SSTableRewriter;
 import org.apache.cassandra.io.sstable.format.SSTableFormat;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.apache.cassandra.io.sstable.format.SSTableWriter;
+import org.apache.cassandra.io.sstable.metadata.MetadataType;
+import org.apache.cassandra.io.sstable.metadata.StatsMetadata;
+import org.apache.cassandra.io.util.RandomAccessReader;
+import org.apache.cassandra.schema.CompressionParams;
+import org.apache.cassandra.schema.TableParams;
 import org.apache.cassandra.schema.Types;
+import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.NativeLibrary;
+import org.apache.cassandra.utils.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,9 +62,27 @@ public class Cassandra3TTLRemover implements SSTableTTLRemover {
 
     private static final Logger logger = LoggerFactory.getLogger(Cassandra3TTLRemover.class);
 
+    private final TableSchemaCache<CFMetaData> schemaCache = new TableSchemaCache<>(Cassandra3TTLRemover::createMetadata);
+
     @Override
-    public void executeRemoval(final Path outputFolder, final Collection<Path> sstables, final String cql) throws Exception {
-        for (final Path sstable : sstables) {
+    public void executeRemoval(final Path outputFolder,
+                               final Collection<Path> sstables,
+                               final String cql,
+                               final RemovalOptions options) throws Exception {
+        // read by the byte-buddy agent whenever an SSTable is opened
+        AccessMode.passToAgent(options.accessMode);
+
+        final TableSchemas schemas = options.tableSchemas != null ? options.tableSchemas : TableSchemas.of(cql);
+
+        final Collection<Path> tableSSTables = selectSSTables(sstables, schemas);
+
+        final RemovalPlan plan = RemovalPlanner.plan(tableSSTables, this::isTTLFree, options.ttlFreeAction);
+
+        // SSTables split to token ranges need generations which do not clash with any other SSTable,
+        // including outputs of a previous run which is resumed
+        final AtomicInteger generations = new AtomicInteger(Math.max(maxGeneration(tableSSTables), maxGeneration(SSTableFiles.dataFiles(outputFolder))));
+
+        new ParallelRemovalExecutor(options).execute(tableSSTables, (sstable, outputs) -> {
 
             final Descriptor descriptor = Descriptor.fromFilename(sstable.toAbsolutePath().toFile().getAbsolutePath());
 
@@ -49,36 +91,55 @@ public class Cassandra3TTLRemover implements SSTableTTLRemover {
             final Path newSSTableDestinationDir = outputFolder.resolve(descriptor.ksname).resolve(descriptor.cfname);
 
             if (!newSSTableDestinationDir.toFile().exists()) {
-                if (!newSSTableDestinationDir.toFile().mkdirs()) {
+                // another worker might have created it in the meantime
+                if (!newSSTableDestinationDir.toFile().mkdirs() && !newSSTableDestinationDir.toFile().exists()) {
                     throw new TTLRemovalException(format("Unable to create directories leading to %s.", newSSTableDestinationDir.toFile().getAbsolutePath()));
                 }
             }
 
+            if (plan.isTTLFree(sstable)) {
+                return plan.handleTTLFree(sstable, newSSTableDestinationDir, outputs);
+            }
+
             final Descriptor resultDesc = new Descriptor(newSSTableDestinationDir.toFile(),
                                                          descriptor.ksname,
                                                          descriptor.cfname,
                                                          descriptor.generation,
                                                          SSTableFormat.Type.BIG);
 
-            CFStatement parsed = (CFStatement) QueryProcessor.parseStatement(cql);
-            parsed.prepareKeyspace(descriptor.ksname);
-            CreateTableStatement statement = (CreateTableStatement) ((CreateTableStatement.RawStatement) parsed).prepare(Types.none()).statement;
-
-            CFMetaData cfMetadata = statement.metadataBuilder()
-                .withId(CFMetaData.generateLegacyCfId(descriptor.ksname, statement.columnFamily()))
-                .withPartitioner(new Murmur3Partitioner())
-                .build()
-                .params(statement.params())
-                .readRepairChance(0.0)
-                .dcLocalReadRepairChance(0.0)
-                .gcGraceSeconds(0)
-                .memtableFlushPeriod((int) TimeUnit.HOURS.toMillis(1));
-
-            stream(descriptor, resultDesc, cfMetadata);
+            final CFMetaData cfMetadata = schemaCache.get(descriptor.ksname, descriptor.cfname, schemas.cqlFor(descriptor.ksname, descriptor.cfname));
+
+            outputs.add(Paths.get(resultDesc.filenameFor(Component.DATA)));
+
+            return stream(descriptor, resultDesc, cfMetadata, options, () -> {
+                final int generation = generations.incrementAndGet();
+                outputs.add(Paths.get(withGeneration(resultDesc, generation).filenameFor(Component.DATA)));
+                return generation;
+            });
+        });
+    }
+
+    private Collection<Path> selectSSTables(final Collection<Path> sstables, final TableSchemas schemas) {
+        final List<Path> selected = new ArrayList<>();
+
+        for (final Path sstable : sstables) {
+            final Descriptor descriptor = Descriptor.fromFilename(sstable.toAbsolutePath().toFile().getAbsolutePath());
+
+            if (schemas.covers(descriptor.ksname, descriptor.cfname)) {
+                selected.add(sstable);
+            } else {
+                logger.warn(format("Skipping SSTable %s, there is no schema for table %s.%s", sstable, descriptor.ksname, descriptor.cfname));
+            }
         }
+
+        return selected;
     }
 
-    public void stream(final Descriptor descriptor, final Descriptor toSSTable, final CFMetaData cfMetadata) throws TTLRemovalException {
+    public SSTableOutcome stream(final Descriptor descriptor,
+                                 final Descriptor toSSTable,
+                                 final CFMetaData cfMetadata,
+                                 final RemovalOptions options,
+                                 final IntSupplier generations) throws TTLRemovalException {
 
         final SSTableReader noTTLreader;
 
@@ -88,110 +149,369 @@ public class Cassandra3TTLRemover implements SSTableTTLRemover {
             throw new TTLRemovalException(format("Unable to open descriptor %s", descriptor.baseFilename()), ex);
         }
 
-        final long keyCount = countKeys(descriptor, cfMetadata);
+        try {
+            final List<Range<Token>> ranges = splitRanges(noTTLreader, options.tokenRanges);
+
+            if (ranges.size() < 2) {
+                // the bloom filter and index summary are sized from the estimate taken from the index summary,
+                // the exact number of partitions is recorded in the metadata of the new SSTable as it is written
+                if (options.rawRewrite) {
+                    rawRewrite(noTTLreader,
+                               Collections.singletonList(Pair.create(0L, noTTLreader.uncompressedLength())),
+                               toSSTable,
+                               cfMetadata,
+                               noTTLreader.estimatedKeys(),
+                               options,
+                               generations);
+                } else {
+                    rewrite(noTTLreader, noTTLreader.getScanner(), toSSTable, cfMetadata, noTTLreader.estimatedKeys(), options, generations);
+                }
+            } else {
+                logger.info(format("Splitting SSTable %s to %s token ranges", descriptor.baseFilename(), ranges.size()));
+
+                final List<Callable<SSTableOutcome>> tasks = new ArrayList<>(ranges.size());
+
+                for (int i = 0; i < ranges.size(); i++) {
+                    final Collection<Range<Token>> range = Collections.singleton(ranges.get(i));
+
+                    // the first range keeps the generation of the original SSTable
+                    final Descriptor rangeSSTable = i == 0 ? toSSTable : withGeneration(toSSTable, generations.getAsInt());
+
+                    if (options.rawRewrite) {
+                        tasks.add(() -> rawRewrite(noTTLreader,
+                                                   noTTLreader.getPositionsForRanges(range),
+                                                   rangeSSTable,
+                                                   cfMetadata,
+                                                   noTTLreader.estimatedKeysForRanges(range),
+                                                   options,
+                                                   generations));
+                    } else {
+                        tasks.add(() -> rewrite(noTTLreader,
+                                                noTTLreader.getScanner(range, null),
+                                                rangeSSTable,
+                                                cfMetadata,
+                                                noTTLreader.estimatedKeysForRanges(range),
+                                                options,
+                                                generations));
+                    }
+                }
+
+                SSTableSplitter.runConcurrently(tasks, options.idleWorkers());
+            }
+
+            // no token range reads the input anymore, so its pages can be dropped
+            PageCacheDropper.dropSSTable(options.dropPageCache, noTTLreader.getFilename(), NativeLibrary::trySkipCache);
+
+            return SSTableOutcome.REWRITTEN;
+        } finally {
+            // the reader is shared by all token ranges, it is released once all of them are rewritten
+            noTTLreader.selfRef().release();
+        }
+    }
+
+    private SSTableOutcome rewrite(final SSTableReader noTTLreader,
+                                   final ISSTableScanner scanner,
+                                   final Descriptor toSSTable,
+                                   final CFMetaData cfMetadata,
+                                   final long keyCount,
+                                   final RemovalOptions options,
+                                   final IntSupplier generations) throws TTLRemovalException {
 
         final LifecycleTransaction txn = LifecycleTransaction.offline(OperationType.WRITE);
 
+        final CFMetaData outputMetadata = outputMetadata(cfMetadata, options.outputCompression);
+
         final SerializationHeader header = SerializationHeader.make(cfMetadata, Arrays.asList(noTTLreader));
 
         final SSTableRewriter writer = SSTableRewriter.constructKeepingOriginals(txn, true, Long.MAX_VALUE);
 
-        writer.switchWriter(SSTableWriter.create(cfMetadata, toSSTable, keyCount, -1, 0, header, null, txn));
+        final long keysPerSSTable = SSTableSplitter.keysPerSSTable(keyCount,
+                                                                   noTTLreader.estimatedKeys(),
+                                                                   noTTLreader.onDiskLength(),
+                                                                   options.maxOutputSSTableSize);
 
-        //writer.switchWriter(SSTableWriter.create(toSSTable.toString(), keyCount, -1, header, null, txn));
+        try (final ISSTableScanner noTTLscanner = scanner) {
+            writer.switchWriter(SSTableWriter.create(outputMetadata, toSSTable, keysPerSSTable, -1, 0, header, null, txn));
 
-        try (final ISSTableScanner noTTLscanner = noTTLreader.getScanner()) {
-            while (noTTLscanner.hasNext()) {
-                final UnfilteredRowIterator partition = noTTLscanner.next();
+            final RewriteProgress progress = new RewriteProgress(options, noTTLreader.getFilename(), noTTLreader.onDiskLength(), noTTLscanner.getLengthInBytes(), NativeLibrary::trySkipCache);
+            final NoTTLTransformation noTTL = new NoTTLTransformation(options.metrics, FBUtilities.nowInSeconds());
+            final Supplier<SSTableWriter> nextWriter = () -> SSTableWriter.create(outputMetadata, withGeneration(toSSTable, generations.getAsInt()), keysPerSSTable, -1, 0, header, null, txn);
 
-                if (!partition.hasNext()) {
-                    //keep partitions with no rows
-                    writer.append(partition);
-                    continue;
-                }
+            if (RewritePipeline.isPipelined(options, noTTLreader.getFilename(), noTTLreader.getSSTableMetadata().estimatedPartitionSize.max())) {
+                RewritePipeline.run(options.pipelineQueueSize,
+                                    () -> {
+                                        if (!noTTLscanner.hasNext()) {
+                                            return null;
+                                        }
+
+                                        try (final UnfilteredRowIterator partition = noTTL.apply(noTTLscanner.next())) {
+                                            // taken once the partition is opened, as in the sequential rewrite, seeking to it is not read data
+                                            final long readStart = noTTLscanner.getCurrentPosition();
 
-                final PartitionUpdate update = new PartitionUpdate(cfMetadata, partition.partitionKey(), partition.columns(), 2);
+                                            // TTL is removed as the partition is materialised, so it is held in memory just once
+                                            final QueuedPartition queued = new QueuedPartition(ImmutableBTreePartition.create(partition), noTTLscanner.getCurrentPosition() - readStart);
 
-                while (partition.hasNext()) {
+                                            progress.read(queued.bytesRead, noTTLscanner.getCurrentPosition());
 
-                    final Unfiltered unfiltered = partition.next();
+                                            return queued;
+                                        }
+                                    },
+                                    queued -> {
+                                        final long bytesWritten = append(writer, queued.partition.unfilteredIterator(), nextWriter, options.maxOutputSSTableSize);
 
-                    switch (unfiltered.kind()) {
-                        case ROW:
-                            Row newRow = serializeRow(unfiltered);
-                            update.add(newRow);
-                            break;
-                        case RANGE_TOMBSTONE_MARKER:
-                            //Range tombstones are denoted as separate (Unfiltered) entries for start and end,
-                            //so we record them separately and add the tombstone once both ends of the range are defined
-                            RangeTombstoneBoundMarker marker = (RangeTombstoneBoundMarker) unfiltered;
+                                        progress.written(queued.bytesRead, bytesWritten, writer.currentWriter().getFilename(), writer.currentWriter().getOnDiskFilePointer());
+                                    });
+            } else {
+                while (noTTLscanner.hasNext()) {
+                    // rows are rewritten one by one as the writer pulls them, a partition is not held in memory as a whole
+                    try (final UnfilteredRowIterator partition = noTTL.apply(noTTLscanner.next())) {
+                        final long readStart = noTTLscanner.getCurrentPosition();
 
-                            final ClusteringBound start = marker.isOpen(false) ? marker.openBound(false) : null;
-                            final ClusteringBound end = marker.isClose(false) ? marker.closeBound(false) : null;
+                        final long bytesWritten = append(writer, partition, nextWriter, options.maxOutputSSTableSize);
 
-                            if (start != null && end != null) {
-                                update.add(new RangeTombstone(Slice.make(start, end), marker.deletionTime()));
-                            }
+                        final long bytesRead = noTTLscanner.getCurrentPosition() - readStart;
 
-                            break;
+                        progress.read(bytesRead, noTTLscanner.getCurrentPosition());
+                        progress.written(bytesRead, bytesWritten, writer.currentWriter().getFilename(), writer.currentWriter().getOnDiskFilePointer());
                     }
                 }
+            }
+            writer.finish();
+
+            // output SSTables are synced once finished, so all their pages can be dropped now
+            progress.finish();
+
+            return SSTableOutcome.REWRITTEN;
+        } catch (final Exception ex) {
+            // aborting the writer aborts its transaction, which deletes partial outputs and the transaction log
+            throw new TTLRemovalException(format("Exception occurred while scanning SSTable %s", noTTLreader.descriptor.baseFilename()), writer.abort(ex));
+        }
+    }
+
+    /**
+     * Reads sections of the data file sequentially and rewrites their partitions at the byte level,
+     * see {@link RawUnfilteredRewriter}. Output SSTables are written with the serialization header of the input,
+     * their writer builds the index, the bloom filter and the statistics of every new SSTable.
+     *
+     * @param sections positions of the first and after the last partition of every section to rewrite
+     */
+    private SSTableOutcome rawRewrite(final SSTableReader noTTLreader,
+                                      final List<Pair<Long, Long>> sections,
+                                      final Descriptor toSSTable,
+                                      final CFMetaData cfMetadata,
+                                      final long keyCount,
+                                      final RemovalOptions options,
+                                      final IntSupplier generations) throws TTLRemovalException {
+
+        final LifecycleTransaction txn = LifecycleTransaction.offline(OperationType.WRITE);
+
+        final CFMetaData outputMetadata = outputMetadata(cfMetadata, options.outputCompression);
+
+        final SSTableRewriter writer = SSTableRewriter.constructKeepingOriginals(txn, true, Long.MAX_VALUE);
+
+        final long keysPerSSTable = SSTableSplitter.keysPerSSTable(keyCount,
+                                                                   noTTLreader.estimatedKeys(),
+                                                                   noTTLreader.onDiskLength(),
+                                                                   options.maxOutputSSTableSize);
+
+        long length = 0;
+
+        for (final Pair<Long, Long> section : sections) {
+            length += section.right - section.left;
+        }
 
-                update.allowNewUpdates();
-                writer.append(update.unfilteredIterator());
+        try (final RandomAccessReader dataFile = noTTLreader.openDataReader()) {
+            writer.switchWriter(RawBigTableWriter.create(outputMetadata, toSSTable, keysPerSSTable, -1, 0, noTTLreader.header, txn, options.metrics));
+
+            final RewriteProgress progress = new RewriteProgress(options, noTTLreader.getFilename(), noTTLreader.onDiskLength(), length, NativeLibrary::trySkipCache);
+            final Supplier<SSTableWriter> nextWriter = () -> RawBigTableWriter.create(outputMetadata,
+                                                                                      withGeneration(toSSTable, generations.getAsInt()),
+                                                                                      keysPerSSTable,
+                                                                                      -1,
+                                                                                      0,
+                                                                                      noTTLreader.header,
+                                                                                      txn,
+                                                                                      options.metrics);
+
+            for (final Pair<Long, Long> section : sections) {
+                dataFile.seek(section.left);
+
+                while (dataFile.getFilePointer() < section.right) {
+                    final long readStart = dataFile.getFilePointer();
+
+                    final DecoratedKey key = noTTLreader.decorateKey(ByteBufferUtil.readWithShortLength(dataFile));
+
+                    final long bytesWritten = append(writer, key, dataFile, nextWriter, options.maxOutputSSTableSize);
+
+                    final long bytesRead = dataFile.getFilePointer() - readStart;
+
+                    progress.read(bytesRead, dataFile.getFilePointer());
+                    progress.written(bytesRead, bytesWritten, writer.currentWriter().getFilename(), writer.currentWriter().getOnDiskFilePointer());
+                }
             }
+
             writer.finish();
+
+            // output SSTables are synced once finished, so all their pages can be dropped now
+            progress.finish();
+
+            return SSTableOutcome.REWRITTEN;
         } catch (final Exception ex) {
-            throw new TTLRemovalException(format("Exception occurred while scanning SSTable %s", descriptor.baseFilename()), ex);
+            // aborting the writer aborts its transaction, which deletes partial outputs and the transaction log
+            throw new TTLRemovalException(format("Exception occurred while reading SSTable %s", noTTLreader.descriptor.baseFilename()), writer.abort(ex));
+        }
+    }
+
+    /**
+     * Appends a partition, a new output SSTable is started before it when the current one is full.
+     *
+     * @return bytes the partition took on disk
+     */
+    private static long append(final SSTableRewriter writer,
+                               final UnfilteredRowIterator partition,
+                               final Supplier<SSTableWriter> nextWriter,
+                               final long maxOutputSSTableSize) {
+        if (SSTableSplitter.isFull(writer.currentWriter().getOnDiskFilePointer(), maxOutputSSTableSize)) {
+            writer.switchWriter(nextWriter.get());
         }
+
+        final long writeStart = writer.currentWriter().getOnDiskFilePointer();
+
+        writer.append(partition);
+
+        return writer.currentWriter().getOnDiskFilePointer() - writeStart;
+    }
+
+    /**
+     * Appends a partition read from the data file at the byte level, writers are {@link RawBigTableWriter}s.
+     *
+     * @param in data file positioned just after the key of the partition
+     * @return bytes the partition took on disk
+     */
+    private static long append(final SSTableRewriter writer,
+                               final DecoratedKey key,
+                               final DataInput in,
+                               final Supplier<SSTableWriter> nextWriter,
+                               final long maxOutputSSTableSize) throws IOException {
+        if (SSTableSplitter.isFull(writer.currentWriter().getOnDiskFilePointer(), maxOutputSSTableSize)) {
+            writer.switchWriter(nextWriter.get());
+        }
+
+        final long writeStart = writer.currentWriter().getOnDiskFilePointer();
+
+        ((RawBigTableWriter) writer.currentWriter()).append(key, in);
+
+        return writer.currentWriter().getOnDiskFilePointer() - writeStart;
+    }
+
+    /**
+     * @return metadata output SSTables are written with, a copy of the metadata of their table when its compression is overridden
+     */
+    private static CFMetaData outputMetadata(final CFMetaData cfMetadata, final OutputCompression output) throws TTLRemovalException {
+        if (!output.overridesTable()) {
+            return cfMetadata;
+        }
+
+        return cfMetadata.copy().params(TableParams.builder(cfMetadata.params).compression(compressionParams(cfMetadata.params.compression, output)).build());
     }
 
-    private long countKeys(final Descriptor descriptor, final CFMetaData metaData) {
+    private static CompressionParams compressionParams(final CompressionParams table, final OutputCompression output) throws TTLRemovalException {
+        final OutputCompression.Parameters parameters = output.resolve(table.isEnabled() ? table.getSstableCompressor().getClass().getName() : null,
+                                                                       table.chunkLength() / 1024,
+                                                                       table.getOtherOptions());
 
-        final KeyIterator iter = new KeyIterator(descriptor, metaData);
+        if (parameters == null) {
+            return CompressionParams.noCompression();
+        }
+
+        final Map<String, String> options = new HashMap<>(parameters.otherOptions);
 
-        long keycount = 0;
+        options.put(CompressionParams.CLASS, parameters.compressor);
+        options.put(CompressionParams.CHUNK_LENGTH_IN_KB, Integer.toString(parameters.chunkLengthInKiB));
 
         try {
-            while (iter.hasNext()) {
-                iter.next();
-                keycount++;
-            }
-        } finally {
-            iter.close();
+            return CompressionParams.fromMap(options);
+        } catch (final ConfigurationException ex) {
+            throw new TTLRemovalException(format("Invalid compression of output SSTables %s", options), ex);
+        }
+    }
+
+
+    /**
+     * Splits the ring to ranges holding about the same number of partitions of the SSTable, according to its index summary.
+     */
+    private List<Range<Token>> splitRanges(final SSTableReader reader, final int tokenRanges) {
+        final Token minimum = reader.first.getToken().minValue();
+
+        final List<Token> boundaries = SSTableSplitter.boundaries(Iterables.transform(reader.getKeySamples(new Range<>(minimum, minimum)),
+                                                                                     DecoratedKey::getToken),
+                                                                  tokenRanges);
+
+        final List<Range<Token>> ranges = new ArrayList<>(boundaries.size() + 1);
+
+        Token left = minimum;
+
+        for (final Token boundary : boundaries) {
+            ranges.add(new Range<>(left, boundary));
+            left = boundary;
         }
 
-        return keycount;
+        ranges.add(new Range<>(left, minimum));
+
+        return ranges;
     }
 
-    private Row serializeRow(final Unfiltered atoms) {
+    private static Descriptor withGeneration(final Descriptor descriptor, final int generation) {
+        return new Descriptor(descriptor.directory, descriptor.ksname, descriptor.cfname, generation, SSTableFormat.Type.BIG);
+    }
 
-        final Row row = (Row) atoms;
+    private static int maxGeneration(final Collection<Path> sstables) {
+        int max = 0;
 
-        Builder builder = BTreeRow.sortedBuilder();
-        builder.newRow(row.clustering());
+        for (final Path sstable : sstables) {
+            max = Math.max(max, Descriptor.fromFilename(sstable.toAbsolutePath().toFile().getAbsolutePath()).generation);
+        }
 
-        builder.addPrimaryKeyLivenessInfo(LivenessInfo.create(row.primaryKeyLivenessInfo().timestamp(),
-                                                              LivenessInfo.NO_TTL,
-                                                              FBUtilities.nowInSeconds()));
+        return max;
+    }
 
-        row.columnData().forEach(cd -> {
-            ColumnDefinition cdef = cd.column();
-            if (cdef.isComplex()) {
-                Iterator<Cell> cellIterator = row.getComplexColumnData(cdef).iterator();
+    private static CFMetaData createMetadata(final String keyspace, final String cql) {
+        CFStatement parsed = (CFStatement) QueryProcessor.parseStatement(cql);
+        parsed.prepareKeyspace(keyspace);
+        CreateTableStatement statement = (CreateTableStatement) ((CreateTableStatement.RawStatement) parsed).prepare(Types.none()).statement;
+
+        CFMetaData cfMetadata = statement.metadataBuilder()
+            .withId(CFMetaData.generateLegacyCfId(keyspace, statement.columnFamily()))
+            .withPartitioner(new Murmur3Partitioner())
+            .build()
+            .params(statement.params())
+            .readRepairChance(0.0)
+            .dcLocalReadRepairChance(0.0)
+            .gcGraceSeconds(0)
+            .memtableFlushPeriod((int) TimeUnit.HOURS.toMillis(1));
+
+        return cfMetadata;
+    }
 
-                while (cellIterator.hasNext()) {
-                    Cell cell = cellIterator.next();
-                    builder.addCell(BufferCell.live(cell.column(), cell.timestamp(), cell.value(), cell.path()));
-                }
-            } else {
-                Cell cell = row.getCell(cdef);
-                builder.addCell(BufferCell.live(cell.column(), cell.timestamp(), cell.value()));
-            }
-        });
+    private boolean isTTLFree(final Path sstable) throws Exception {
+        final Descriptor descriptor = Descriptor.fromFilename(sstable.toAbsolutePath().toFile().getAbsolutePath());
+        final StatsMetadata stats = (StatsMetadata) descriptor.getMetadataSerializer().deserialize(descriptor, MetadataType.STATS);
+
+        return stats.maxTTL == LivenessInfo.NO_TTL;
+    }
 
-        builder.addRowDeletion(row.deletion());
+    /**
+     * A partition handed over between stages of a pipelined rewrite with the number of bytes it was read from.
+     */
+    private static final class QueuedPartition {
 
-        return builder.build();
+        private final ImmutableBTreePartition partition;
+
+        private final long bytesRead;
+
+        private QueuedPartition(final ImmutableBTreePartition partition, final long bytesRead) {
+            this.partition = partition;
+            this.bytesRead = bytesRead;
+        }
     }
 }
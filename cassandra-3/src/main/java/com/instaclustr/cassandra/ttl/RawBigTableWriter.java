@@ -0,0 +1,266 @@
+package com.instaclustr.cassandra.ttl;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.ClusteringComparator;
+import org.apache.cassandra.db.ClusteringPrefix;
+import org.apache.cassandra.db.Columns;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.DeletionTime;
+import org.apache.cassandra.db.LivenessInfo;
+import org.apache.cassandra.db.RowIndexEntry;
+import org.apache.cassandra.db.SerializationHeader;
+import org.apache.cassandra.db.context.CounterContext;
+import org.apache.cassandra.db.lifecycle.LifecycleNewTracker;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.rows.Cell;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.format.big.BigTableWriter;
+import org.apache.cassandra.io.sstable.metadata.MetadataCollector;
+import org.apache.cassandra.io.util.DataInputBuffer;
+import org.apache.cassandra.io.util.SequentialWriter;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+/**
+ * Writes partitions rewritten by {@link RawUnfilteredRewriter} straight from the data file of the input SSTable.
+ *
+ * The writer is created with the serialization header of the input, as timestamps and deletion times are copied encoded
+ * relative to it. Partitions are appended as {@link BigTableWriter#append} appends them, only the partition itself and its
+ * column index are written by the rewriter and statistics are collected from what the rewriter hands over instead
+ * of from rows. The index entry of a partition is recorded by the private {@code afterAppend} of the writer, which is called
+ * reflectively. Cassandra 3.11 is the last release of 3.x, so the writer does not change.
+ *
+ * It is not thread safe, it is written by a single thread.
+ */
+public class RawBigTableWriter extends BigTableWriter implements RawUnfilteredRewriter.Listener {
+
+    private static final Method afterAppend = method(BigTableWriter.class,
+                                                     "afterAppend",
+                                                     DecoratedKey.class,
+                                                     long.class,
+                                                     RowIndexEntry.class,
+                                                     ByteBuffer.class);
+
+    // protected in 3.11
+    private static final Method valueLengthIfFixed = method(AbstractType.class, "valueLengthIfFixed");
+
+    private final RawUnfilteredRewriter rewriter;
+
+    private final RawMetadataCollector collector;
+
+    private final SequentialWriter indexFile;
+
+    private final int version;
+
+    private RawBigTableWriter(final Descriptor descriptor,
+                              final long keyCount,
+                              final long repairedAt,
+                              final CFMetaData metadata,
+                              final RawMetadataCollector collector,
+                              final SerializationHeader header,
+                              final LifecycleNewTracker lifecycleNewTracker,
+                              final RemovalMetrics metrics) {
+        super(descriptor, keyCount, repairedAt, metadata, collector, header, Collections.emptyList(), lifecycleNewTracker);
+        this.collector = collector;
+        this.rewriter = new RawUnfilteredRewriter(layout(header), DatabaseDescriptor.getColumnIndexSize(), metrics, this);
+        this.indexFile = (SequentialWriter) getField(getField(this, BigTableWriter.class, "iwriter"), "indexFile");
+        this.version = descriptor.version.correspondingMessagingVersion();
+    }
+
+    /**
+     * Creates a writer as {@code SSTableWriter.create} does, without secondary indexes.
+     *
+     * @param header serialization header of the input SSTable
+     */
+    public static RawBigTableWriter create(final CFMetaData metadata,
+                                           final Descriptor descriptor,
+                                           final long keyCount,
+                                           final long repairedAt,
+                                           final int sstableLevel,
+                                           final SerializationHeader header,
+                                           final LifecycleNewTracker lifecycleNewTracker,
+                                           final RemovalMetrics metrics) {
+        final RawMetadataCollector collector = new RawMetadataCollector(metadata.comparator);
+        collector.sstableLevel(sstableLevel);
+
+        return new RawBigTableWriter(descriptor, keyCount, repairedAt, metadata, collector, header, lifecycleNewTracker, metrics);
+    }
+
+    /**
+     * Appends a partition read from the data file of the input SSTable.
+     *
+     * @param in data file positioned just after the key of the partition, it is positioned after the partition once done
+     */
+    public void append(final DecoratedKey key, final DataInput in) throws IOException {
+        final long startPosition = beforeAppend(key);
+
+        rewriter.rewrite(key.getKey(), in, dataFile);
+
+        final long indexFilePosition = ByteBufferUtil.serializedSizeWithShortLength(key.getKey()) + indexFile.position();
+        final ByteBuffer indexInfo = rewriter.indexInfo();
+
+        // without samples, an indexed partition gets an entry which is serialised from its serialised index blocks
+        final RowIndexEntry entry = RowIndexEntry.create(startPosition,
+                                                         indexFilePosition,
+                                                         new DeletionTime(rewriter.partitionMarkedForDeleteAt(), rewriter.partitionLocalDeletionTime()),
+                                                         rewriter.headerLength(),
+                                                         rewriter.columnIndexCount(),
+                                                         indexInfo == null ? 0 : indexInfo.limit(),
+                                                         null,
+                                                         null,
+                                                         rowIndexEntrySerializer.indexInfoSerializer());
+
+        final long endPosition = dataFile.position();
+
+        collector.addCellPerPartitionCount(rewriter.cells());
+        collector.addPartitionSizeInBytes(endPosition - startPosition);
+
+        try {
+            afterAppend.invoke(this, key, endPosition, entry, indexInfo);
+        } catch (final InvocationTargetException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+
+            throw new IllegalStateException("Unable to append index entry", ex.getCause());
+        } catch (final IllegalAccessException ex) {
+            throw new IllegalStateException("Unable to append index entry", ex);
+        }
+    }
+
+    @Override
+    public void clustering(final byte[] prefix, final int length) throws IOException {
+        collector.updateClusteringValues(ClusteringPrefix.serializer.deserialize(new DataInputBuffer(prefix, 0, length), version, header.clusteringTypes()));
+    }
+
+    @Override
+    public void liveness(final long timestamp) {
+        collector.updateLiveness(timestamp);
+    }
+
+    @Override
+    public void deletion(final long markedForDeleteAt, final int localDeletionTime) {
+        collector.updateDeletion(markedForDeleteAt, localDeletionTime);
+    }
+
+    @Override
+    public void cell(final long timestamp, final int localDeletionTime) {
+        collector.updateCell(timestamp, localDeletionTime);
+    }
+
+    @Override
+    public void counterCell(final byte[] value, final int offset, final int length) {
+        collector.updateHasLegacyCounterShards(CounterContext.instance().hasLegacyShards(ByteBuffer.wrap(value, offset, length)));
+    }
+
+    @Override
+    public void row(final int columns) {
+        collector.updateColumnSetPerRow(columns);
+    }
+
+    private static RawUnfilteredRewriter.Layout layout(final SerializationHeader header) {
+        final List<AbstractType<?>> clusteringTypes = header.clusteringTypes();
+        final int[] clusteringLengths = new int[clusteringTypes.size()];
+
+        for (int i = 0; i < clusteringLengths.length; i++) {
+            clusteringLengths[i] = valueLength(clusteringTypes.get(i));
+        }
+
+        return new RawUnfilteredRewriter.Layout(clusteringLengths,
+                                                columns(header, header.columns(true)),
+                                                columns(header, header.columns(false)),
+                                                header.stats().minTimestamp,
+                                                header.stats().minLocalDeletionTime);
+    }
+
+    private static RawUnfilteredRewriter.Column[] columns(final SerializationHeader header, final Columns columns) {
+        final RawUnfilteredRewriter.Column[] layout = new RawUnfilteredRewriter.Column[columns.size()];
+
+        int i = 0;
+
+        for (final ColumnDefinition column : columns) {
+            layout[i++] = new RawUnfilteredRewriter.Column(valueLength(header.getType(column)), column.isComplex(), column.isCounterColumn());
+        }
+
+        return layout;
+    }
+
+    private static int valueLength(final AbstractType<?> type) {
+        try {
+            return (int) valueLengthIfFixed.invoke(type);
+        } catch (final ReflectiveOperationException ex) {
+            throw new IllegalStateException(String.format("Unable to get value length of %s", type), ex);
+        }
+    }
+
+    private static Object getField(final Object target, final Class<?> type, final String name) {
+        try {
+            final Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return field.get(target);
+        } catch (final ReflectiveOperationException ex) {
+            throw new IllegalStateException(String.format("Unable to read %s of %s", name, type.getName()), ex);
+        }
+    }
+
+    private static Object getField(final Object target, final String name) {
+        return getField(target, target.getClass(), name);
+    }
+
+    private static Method method(final Class<?> type, final String name, final Class<?>... parameterTypes) {
+        try {
+            final Method method = type.getDeclaredMethod(name, parameterTypes);
+            method.setAccessible(true);
+            return method;
+        } catch (final ReflectiveOperationException ex) {
+            throw new IllegalStateException(String.format("Unable to find %s of %s", name, type.getName()), ex);
+        }
+    }
+
+    /**
+     * Collects statistics as {@link MetadataCollector} collects them from rows, cells and deletions, from their
+     * timestamps and deletion times.
+     */
+    private static final class RawMetadataCollector extends MetadataCollector {
+
+        private RawMetadataCollector(final ClusteringComparator comparator) {
+            super(comparator);
+        }
+
+        // as update(LivenessInfo) of a liveness without TTL
+        private void updateLiveness(final long timestamp) {
+            updateCell(timestamp, Cell.NO_DELETION_TIME);
+        }
+
+        // as update(Cell) of a cell without TTL, which is either live or a tombstone
+        private void updateCell(final long timestamp, final int localDeletionTime) {
+            timestampTracker.update(timestamp);
+            ttlTracker.update(LivenessInfo.NO_TTL);
+            updateLocalDeletionTime(localDeletionTime);
+        }
+
+        // as update(DeletionTime) of a deletion which is not live
+        private void updateDeletion(final long markedForDeleteAt, final int localDeletionTime) {
+            timestampTracker.update(markedForDeleteAt);
+            updateLocalDeletionTime(localDeletionTime);
+        }
+
+        private void updateLocalDeletionTime(final int localDeletionTime) {
+            localDeletionTimeTracker.update(localDeletionTime);
+
+            if (localDeletionTime != Cell.NO_DELETION_TIME) {
+                estimatedTombstoneDropTime.update(localDeletionTime);
+            }
+        }
+    }
+}
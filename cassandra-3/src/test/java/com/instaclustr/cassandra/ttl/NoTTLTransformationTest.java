@@ -0,0 +1,189 @@
+package com.instaclustr.cassandra.ttl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.Clustering;
+import org.apache.cassandra.db.DeletionTime;
+import org.apache.cassandra.db.LivenessInfo;
+import org.apache.cassandra.db.RangeTombstone;
+import org.apache.cassandra.db.Slice;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.db.partitions.ImmutableBTreePartition;
+import org.apache.cassandra.db.partitions.PartitionUpdate;
+import org.apache.cassandra.db.rows.BTreeRow;
+import org.apache.cassandra.db.rows.BufferCell;
+import org.apache.cassandra.db.rows.Cell;
+import org.apache.cassandra.db.rows.Row;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class NoTTLTransformationTest {
+
+    private static final int NOW = 1_600_000_000;
+
+    private static final long TIMESTAMP = 1_000L;
+
+    private static final int TTL = 3600;
+
+    private static CFMetaData metadata;
+
+    private static ColumnDefinition staticColumn;
+
+    private static ColumnDefinition name;
+
+    private static ColumnDefinition surname;
+
+    private final RemovalMetrics metrics = new RemovalMetrics();
+
+    @BeforeClass
+    public static void setup() {
+        DatabaseDescriptor.clientInitialization();
+
+        metadata = CFMetaData.Builder.create("test", "test")
+            .withPartitioner(Murmur3Partitioner.instance)
+            .addPartitionKey("id", Int32Type.instance)
+            .addClusteringColumn("c", Int32Type.instance)
+            .addStaticColumn("s", UTF8Type.instance)
+            .addRegularColumn("name", UTF8Type.instance)
+            .addRegularColumn("surname", UTF8Type.instance)
+            .build();
+
+        staticColumn = metadata.getColumnDefinition(ByteBufferUtil.bytes("s"));
+        name = metadata.getColumnDefinition(ByteBufferUtil.bytes("name"));
+        surname = metadata.getColumnDefinition(ByteBufferUtil.bytes("surname"));
+    }
+
+    @Test
+    public void removesTTLOfExpiringCells() {
+        final Cell live = BufferCell.live(surname, TIMESTAMP, ByteBufferUtil.bytes("Doe"));
+
+        final Row row = transform(row(1, LivenessInfo.create(TIMESTAMP, NOW), expiring(name, "John"), live)).getRow(clustering(1));
+
+        assertNoTTL(row.getCell(name), "John");
+        assertSame(live, row.getCell(surname));
+
+        assertEquals(1, metrics.getRows());
+        assertEquals(2, metrics.getCells());
+        assertEquals(1, metrics.getTTLCellsStripped());
+    }
+
+    @Test
+    public void removesTTLOfExpiringLiveness() {
+        final Row row = transform(row(1, LivenessInfo.expiring(TIMESTAMP, TTL, NOW), BufferCell.live(name, TIMESTAMP, ByteBufferUtil.bytes("John"))))
+            .getRow(clustering(1));
+
+        assertFalse(row.primaryKeyLivenessInfo().isExpiring());
+        assertEquals(TIMESTAMP, row.primaryKeyLivenessInfo().timestamp());
+        assertEquals(0, metrics.getTTLCellsStripped());
+    }
+
+    @Test
+    public void removesTTLOfStaticRow() {
+        final Row regular = row(1, LivenessInfo.create(TIMESTAMP, NOW), BufferCell.live(name, TIMESTAMP, ByteBufferUtil.bytes("John")));
+
+        final ImmutableBTreePartition partition = transform(staticRow(expiring(staticColumn, "static")), regular);
+
+        assertNoTTL(partition.staticRow().getCell(staticColumn), "static");
+        // rows without TTL are not rebuilt
+        assertSame(regular, partition.getRow(clustering(1)));
+
+        assertEquals(2, metrics.getRows());
+        assertEquals(1, metrics.getTTLCellsStripped());
+    }
+
+    @Test
+    public void keepsTombstones() {
+        final DeletionTime deletion = new DeletionTime(TIMESTAMP - 1, NOW);
+        // newer than the partition deletion, which would shadow it otherwise
+        final DeletionTime rangeDeletion = new DeletionTime(TIMESTAMP + 1, NOW);
+
+        final Row.Builder builder = BTreeRow.unsortedBuilder(NOW);
+        builder.newRow(clustering(1));
+        builder.addRowDeletion(Row.Deletion.regular(deletion));
+        builder.addCell(expiring(name, "John"));
+        builder.addCell(BufferCell.tombstone(surname, TIMESTAMP, NOW));
+
+        final PartitionUpdate update = update();
+        update.addPartitionDeletion(deletion);
+        update.add(builder.build());
+        update.add(new RangeTombstone(Slice.make(clustering(2), clustering(3)), rangeDeletion));
+
+        final ImmutableBTreePartition partition = transform(update);
+        final Row row = partition.getRow(clustering(1));
+
+        assertEquals(deletion, partition.partitionLevelDeletion());
+        assertEquals(deletion, row.deletion().time());
+        assertNoTTL(row.getCell(name), "John");
+        assertTrue(row.getCell(surname).isTombstone());
+        assertEquals(1, partition.deletionInfo().rangeCount());
+
+        assertEquals(1, metrics.getRangeTombstones());
+    }
+
+    private ImmutableBTreePartition transform(final Row... rows) {
+        final PartitionUpdate update = update();
+
+        for (final Row row : rows) {
+            update.add(row);
+        }
+
+        return transform(update);
+    }
+
+    private ImmutableBTreePartition transform(final PartitionUpdate update) {
+        return ImmutableBTreePartition.create(new NoTTLTransformation(metrics, NOW).apply(update.unfilteredIterator()));
+    }
+
+    private static PartitionUpdate update() {
+        return new PartitionUpdate(metadata, Int32Type.instance.decompose(1), metadata.partitionColumns(), 4);
+    }
+
+    private static Row row(final int clustering, final LivenessInfo liveness, final Cell... cells) {
+        final Row.Builder builder = BTreeRow.unsortedBuilder(NOW);
+
+        builder.newRow(clustering(clustering));
+        builder.addPrimaryKeyLivenessInfo(liveness);
+
+        for (final Cell cell : cells) {
+            builder.addCell(cell);
+        }
+
+        return builder.build();
+    }
+
+    private static Row staticRow(final Cell cell) {
+        final Row.Builder builder = BTreeRow.unsortedBuilder(NOW);
+
+        builder.newRow(Clustering.STATIC_CLUSTERING);
+        builder.addCell(cell);
+
+        return builder.build();
+    }
+
+    private static Clustering clustering(final int value) {
+        return Clustering.make(Int32Type.instance.decompose(value));
+    }
+
+    private static Cell expiring(final ColumnDefinition column, final String value) {
+        return BufferCell.expiring(column, TIMESTAMP, TTL, NOW, ByteBufferUtil.bytes(value));
+    }
+
+    private static void assertNoTTL(final Cell cell, final String value) {
+        assertFalse(cell.isExpiring());
+        assertEquals(LivenessInfo.NO_TTL, cell.ttl());
+        assertEquals(TIMESTAMP, cell.timestamp());
+        assertEquals(ByteBufferUtil.bytes(value), cell.value());
+    }
+}
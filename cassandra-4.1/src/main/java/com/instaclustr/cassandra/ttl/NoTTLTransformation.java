@@ -0,0 +1,124 @@
+package com.instaclustr.cassandra.ttl;
+
+import org.apache.cassandra.db.DeletionTime;
+import org.apache.cassandra.db.LivenessInfo;
+import org.apache.cassandra.db.rows.BTreeRow;
+import org.apache.cassandra.db.rows.BufferCell;
+import org.apache.cassandra.db.rows.Cell;
+import org.apache.cassandra.db.rows.ColumnData;
+import org.apache.cassandra.db.rows.ComplexColumnData;
+import org.apache.cassandra.db.rows.RangeTombstoneMarker;
+import org.apache.cassandra.db.rows.Row;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.db.transform.Transformation;
+
+/**
+ * Removes TTL from rows of a partition while the partition is being read from a scanner.
+ *
+ * Rows are rewritten one by one as the writer consumes them, so a partition is never held
+ * in memory as a whole. Rows without TTL, partition deletion and range tombstone markers are passed through.
+ *
+ * One instance is meant to be applied to all partitions of a scanner, one after another, as the row builder is reused.
+ */
+public class NoTTLTransformation extends Transformation<UnfilteredRowIterator> {
+
+    private final RemovalMetrics metrics;
+
+    private final int nowInSec;
+
+    private final Row.Builder builder = BTreeRow.sortedBuilder();
+
+    /**
+     * @param nowInSec time of the rewrite, taken once for the whole SSTable
+     */
+    public NoTTLTransformation(final RemovalMetrics metrics, final int nowInSec) {
+        this.metrics = metrics;
+        this.nowInSec = nowInSec;
+    }
+
+    public UnfilteredRowIterator apply(final UnfilteredRowIterator partition) {
+        return Transformation.apply(partition, this);
+    }
+
+    @Override
+    protected Row applyToStatic(final Row row) {
+        // partitions without static columns still carry Rows.EMPTY_STATIC_ROW, which is not a row to count
+        if (row.isEmpty()) {
+            return row;
+        }
+
+        return removeTTL(row);
+    }
+
+    @Override
+    protected Row applyToRow(final Row row) {
+        return removeTTL(row);
+    }
+
+    @Override
+    protected RangeTombstoneMarker applyToMarker(final RangeTombstoneMarker marker) {
+        // a boundary closes one range tombstone and opens another one, so only opening markers are counted
+        if (marker.isOpen(false)) {
+            metrics.rangeTombstone();
+        }
+
+        return marker;
+    }
+
+    /**
+     * Rows which were never written with TTL, which is the vast majority of rows in most tables,
+     * are passed to the writer as they are, without being rebuilt.
+     */
+    private Row removeTTL(final Row row) {
+        int cells = 0;
+        int ttlCells = 0;
+
+        for (final Cell<?> cell : row.cells()) {
+            cells++;
+
+            if (cell.isExpiring()) {
+                ttlCells++;
+            }
+        }
+
+        metrics.row(cells, ttlCells);
+
+        return ttlCells > 0 || row.primaryKeyLivenessInfo().isExpiring() ? rebuild(row) : row;
+    }
+
+    /**
+     * Only expiring cells are copied, all other cells, tombstones and complex deletions of collections
+     * are added to the new row as they are.
+     */
+    private Row rebuild(final Row row) {
+        final LivenessInfo liveness = row.primaryKeyLivenessInfo();
+
+        builder.newRow(row.clustering());
+        builder.addPrimaryKeyLivenessInfo(liveness.isExpiring() ? LivenessInfo.create(liveness.timestamp(), LivenessInfo.NO_TTL, nowInSec) : liveness);
+        builder.addRowDeletion(row.deletion());
+
+        for (final ColumnData data : row) {
+            if (data.column().isSimple()) {
+                builder.addCell(removeTTL((Cell<?>) data));
+            } else {
+                final ComplexColumnData complexData = (ComplexColumnData) data;
+                final DeletionTime complexDeletion = complexData.complexDeletion();
+
+                if (!complexDeletion.isLive()) {
+                    builder.addComplexDeletion(data.column(), complexDeletion);
+                }
+
+                for (final Cell<?> cell : complexData) {
+                    builder.addCell(removeTTL(cell));
+                }
+            }
+        }
+
+        // the builder is reset by build so it is ready for the next row
+        return builder.build();
+    }
+
+    private static Cell<?> removeTTL(final Cell<?> cell) {
+        return cell.isExpiring() ? BufferCell.live(cell.column(), cell.timestamp(), cell.buffer(), cell.path()) : cell;
+    }
+}
@@ -2,35 +2,54 @@ package com.instaclustr.cassandra.ttl;
 
 import static java.lang.String.format;
 
+import java.io.DataInput;
+import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+import com.instaclustr.cassandra.ttl.RemovalPlanner.RemovalPlan;
+import com.google.common.collect.Iterables;
 import com.instaclustr.cassandra.ttl.cli.TTLRemovalException;
 import org.apache.cassandra.cql3.statements.schema.CreateTableStatement;
-import org.apache.cassandra.db.ClusteringBound;
+import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.LivenessInfo;
-import org.apache.cassandra.db.RangeTombstone;
 import org.apache.cassandra.db.SerializationHeader;
-import org.apache.cassandra.db.Slice;
 import org.apache.cassandra.db.compaction.OperationType;
 import org.apache.cassandra.db.lifecycle.LifecycleTransaction;
-import org.apache.cassandra.db.partitions.PartitionUpdate;
-import org.apache.cassandra.db.rows.*;
-import org.apache.cassandra.db.rows.Row.Builder;
+import org.apache.cassandra.db.partitions.ImmutableBTreePartition;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
 import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.io.sstable.Component;
 import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.sstable.ISSTableScanner;
-import org.apache.cassandra.io.sstable.KeyIterator;
 import org.apache.cassandra.io.sstable.SSTable;
 import org.apache.cassandra.io.sstable.SSTableRewriter;
 import org.apache.cassandra.io.sstable.format.SSTableFormat;
 import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.io.sstable.format.SSTableReader.PartitionPositionBounds;
 import org.apache.cassandra.io.sstable.format.SSTableWriter;
-import org.apache.cassandra.schema.ColumnMetadata;
+import org.apache.cassandra.io.sstable.metadata.MetadataType;
+import org.apache.cassandra.io.sstable.metadata.StatsMetadata;
+import org.apache.cassandra.io.util.RandomAccessReader;
+import org.apache.cassandra.schema.CompressionParams;
 import org.apache.cassandra.schema.TableMetadata;
 import org.apache.cassandra.schema.TableMetadataRef;
+import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.NativeLibrary;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,10 +57,29 @@ public class Cassandra4TTLRemover implements SSTableTTLRemover {
 
     private static final Logger logger = LoggerFactory.getLogger(Cassandra4TTLRemover.class);
 
+    private final TableSchemaCache<TableMetadata> schemaCache = new TableSchemaCache<>(
+        (keyspace, cql) -> CreateTableStatement.parse(cql, keyspace).partitioner(new Murmur3Partitioner()).build());
+
     @Override
-    public void executeRemoval(final Path outputFolder, final Collection<Path> sstables, final String cql) throws Exception {
+    public void executeRemoval(final Path outputFolder,
+                               final Collection<Path> sstables,
+                               final String cql,
+                               final RemovalOptions options) throws Exception {
 
-        for (final Path sstable : sstables) {
+        // read by the byte-buddy agent whenever an SSTable is opened
+        AccessMode.passToAgent(options.accessMode);
+
+        final TableSchemas schemas = options.tableSchemas != null ? options.tableSchemas : TableSchemas.of(cql);
+
+        final Collection<Path> tableSSTables = selectSSTables(sstables, schemas);
+
+        final RemovalPlan plan = RemovalPlanner.plan(tableSSTables, this::isTTLFree, options.ttlFreeAction);
+
+        // SSTables split to token ranges need generations which do not clash with any other SSTable,
+        // including outputs of a previous run which is resumed
+        final AtomicInteger generations = new AtomicInteger(Math.max(maxGeneration(tableSSTables), maxGeneration(SSTableFiles.dataFiles(outputFolder))));
+
+        new ParallelRemovalExecutor(options).execute(tableSSTables, (sstable, outputs) -> {
             final Descriptor descriptor = Descriptor.fromFilename(sstable.toAbsolutePath().toFile().getAbsolutePath());
 
             logger.info(format("Loading file %s from initial keyspace: %s", sstable, descriptor.ksname));
@@ -49,24 +87,55 @@ public class Cassandra4TTLRemover implements SSTableTTLRemover {
             final Path newSSTableDestinationDir = outputFolder.resolve(descriptor.ksname).resolve(descriptor.cfname);
 
             if (!newSSTableDestinationDir.toFile().exists()) {
-                if (!newSSTableDestinationDir.toFile().mkdirs()) {
+                // another worker might have created it in the meantime
+                if (!newSSTableDestinationDir.toFile().mkdirs() && !newSSTableDestinationDir.toFile().exists()) {
                     throw new TTLRemovalException(format("Unable to create directories leading to %s.", newSSTableDestinationDir.toFile().getAbsolutePath()));
                 }
             }
 
+            if (plan.isTTLFree(sstable)) {
+                return plan.handleTTLFree(sstable, newSSTableDestinationDir, outputs);
+            }
+
             final Descriptor resultDesc = new Descriptor(newSSTableDestinationDir.toFile(),
                                                          descriptor.ksname,
                                                          descriptor.cfname,
                                                          descriptor.generation,
                                                          SSTableFormat.Type.BIG);
 
-            final TableMetadata tableMetadata = CreateTableStatement.parse(cql, descriptor.ksname).partitioner(new Murmur3Partitioner()).build();
+            final TableMetadata tableMetadata = schemaCache.get(descriptor.ksname, descriptor.cfname, schemas.cqlFor(descriptor.ksname, descriptor.cfname));
+
+            outputs.add(Paths.get(resultDesc.filenameFor(Component.DATA)));
+
+            return stream(descriptor, resultDesc, tableMetadata, options, () -> {
+                final int generation = generations.incrementAndGet();
+                outputs.add(Paths.get(withGeneration(resultDesc, generation).filenameFor(Component.DATA)));
+                return generation;
+            });
+        });
+    }
+
+    private Collection<Path> selectSSTables(final Collection<Path> sstables, final TableSchemas schemas) {
+        final List<Path> selected = new ArrayList<>();
+
+        for (final Path sstable : sstables) {
+            final Descriptor descriptor = Descriptor.fromFilename(sstable.toAbsolutePath().toFile().getAbsolutePath());
 
-            stream(descriptor, resultDesc, tableMetadata);
+            if (schemas.covers(descriptor.ksname, descriptor.cfname)) {
+                selected.add(sstable);
+            } else {
+                logger.warn(format("Skipping SSTable %s, there is no schema for table %s.%s", sstable, descriptor.ksname, descriptor.cfname));
+            }
         }
+
+        return selected;
     }
 
-    public void stream(final Descriptor descriptor, final Descriptor toSSTable, final TableMetadata tableMetadata) throws TTLRemovalException {
+    public SSTableOutcome stream(final Descriptor descriptor,
+                                 final Descriptor toSSTable,
+                                 final TableMetadata tableMetadata,
+                                 final RemovalOptions options,
+                                 final IntSupplier generations) throws TTLRemovalException {
 
         final SSTableReader noTTLReader;
 
@@ -76,107 +145,351 @@ public class Cassandra4TTLRemover implements SSTableTTLRemover {
             throw new TTLRemovalException(format("Unable to open descriptor %s", descriptor.baseFilename()), ex);
         }
 
-        final long keyCount = countKeys(descriptor, tableMetadata);
+        try {
+            final List<Range<Token>> ranges = splitRanges(noTTLReader, options.tokenRanges);
+
+            if (ranges.size() < 2) {
+                // the bloom filter and index summary are sized from the estimate taken from the index summary,
+                // the exact number of partitions is recorded in the metadata of the new SSTable as it is written
+                if (options.rawRewrite) {
+                    rawRewrite(noTTLReader,
+                               Collections.singletonList(new PartitionPositionBounds(0, noTTLReader.uncompressedLength())),
+                               toSSTable,
+                               tableMetadata,
+                               noTTLReader.estimatedKeys(),
+                               options,
+                               generations);
+                } else {
+                    rewrite(noTTLReader, noTTLReader.getScanner(), toSSTable, tableMetadata, noTTLReader.estimatedKeys(), options, generations);
+                }
+            } else {
+                logger.info(format("Splitting SSTable %s to %s token ranges", descriptor.baseFilename(), ranges.size()));
+
+                final List<Callable<SSTableOutcome>> tasks = new ArrayList<>(ranges.size());
+
+                for (int i = 0; i < ranges.size(); i++) {
+                    final Collection<Range<Token>> range = Collections.singleton(ranges.get(i));
+
+                    // the first range keeps the generation of the original SSTable
+                    final Descriptor rangeSSTable = i == 0 ? toSSTable : withGeneration(toSSTable, generations.getAsInt());
+
+                    if (options.rawRewrite) {
+                        tasks.add(() -> rawRewrite(noTTLReader,
+                                                   noTTLReader.getPositionsForRanges(range),
+                                                   rangeSSTable,
+                                                   tableMetadata,
+                                                   noTTLReader.estimatedKeysForRanges(range),
+                                                   options,
+                                                   generations));
+                    } else {
+                        tasks.add(() -> rewrite(noTTLReader,
+                                                noTTLReader.getScanner(range),
+                                                rangeSSTable,
+                                                tableMetadata,
+                                                noTTLReader.estimatedKeysForRanges(range),
+                                                options,
+                                                generations));
+                    }
+                }
+
+                SSTableSplitter.runConcurrently(tasks, options.idleWorkers());
+            }
+
+            // no token range reads the input anymore, so its pages can be dropped
+            PageCacheDropper.dropSSTable(options.dropPageCache, noTTLReader.getFilename(), NativeLibrary::trySkipCache);
+
+            return SSTableOutcome.REWRITTEN;
+        } finally {
+            // the reader is shared by all token ranges, it is released once all of them are rewritten
+            noTTLReader.selfRef().release();
+        }
+    }
+
+    private SSTableOutcome rewrite(final SSTableReader noTTLReader,
+                                   final ISSTableScanner scanner,
+                                   final Descriptor toSSTable,
+                                   final TableMetadata tableMetadata,
+                                   final long keyCount,
+                                   final RemovalOptions options,
+                                   final IntSupplier generations) throws TTLRemovalException {
 
         final LifecycleTransaction txn = LifecycleTransaction.offline(OperationType.WRITE);
 
+        final TableMetadata outputMetadata = outputMetadata(tableMetadata, options.outputCompression);
+
         final SerializationHeader header = SerializationHeader.make(tableMetadata, Collections.singletonList(noTTLReader));
 
         final SSTableRewriter writer = SSTableRewriter.constructKeepingOriginals(txn, true, Long.MAX_VALUE);
 
-        writer.switchWriter(SSTableWriter.create(TableMetadataRef.forOfflineTools(tableMetadata), toSSTable, keyCount, -1, null, false, 0, header, null, txn));
+        final long keysPerSSTable = SSTableSplitter.keysPerSSTable(keyCount,
+                                                                   noTTLReader.estimatedKeys(),
+                                                                   noTTLReader.onDiskLength(),
+                                                                   options.maxOutputSSTableSize);
 
-        try (final ISSTableScanner sourceSSTableScanner = noTTLReader.getScanner()) {
-            while (sourceSSTableScanner.hasNext()) {
-                final UnfilteredRowIterator partition = sourceSSTableScanner.next();
+        try (final ISSTableScanner sourceSSTableScanner = scanner) {
+            writer.switchWriter(SSTableWriter.create(TableMetadataRef.forOfflineTools(outputMetadata), toSSTable, keysPerSSTable, -1, null, false, 0, header, null, txn));
 
-                if (!partition.hasNext()) {
-                    //keep partitions with no rows
-                    writer.append(partition);
-                    continue;
-                }
+            final RewriteProgress progress = new RewriteProgress(options, noTTLReader.getFilename(), noTTLReader.onDiskLength(), sourceSSTableScanner.getLengthInBytes(), NativeLibrary::trySkipCache);
+            final NoTTLTransformation noTTL = new NoTTLTransformation(options.metrics, FBUtilities.nowInSeconds());
+            final Supplier<SSTableWriter> nextWriter = () -> SSTableWriter.create(TableMetadataRef.forOfflineTools(outputMetadata), withGeneration(toSSTable, generations.getAsInt()), keysPerSSTable, -1, null, false, 0, header, null, txn);
+
+            if (RewritePipeline.isPipelined(options, noTTLReader.getFilename(), noTTLReader.getSSTableMetadata().estimatedPartitionSize.max())) {
+                RewritePipeline.run(options.pipelineQueueSize,
+                                    () -> {
+                                        if (!sourceSSTableScanner.hasNext()) {
+                                            return null;
+                                        }
 
-                final PartitionUpdate.Builder builder = new PartitionUpdate.Builder(tableMetadata,
-                                                                                    partition.partitionKey(),
-                                                                                    partition.columns(),
-                                                                                    2,
-                                                                                    false);
+                                        try (final UnfilteredRowIterator partition = noTTL.apply(sourceSSTableScanner.next())) {
+                                            // taken once the partition is opened, as in the sequential rewrite, seeking to it is not read data
+                                            final long readStart = sourceSSTableScanner.getCurrentPosition();
 
-                while (partition.hasNext()) {
+                                            // TTL is removed as the partition is materialised, so it is held in memory just once
+                                            final QueuedPartition queued = new QueuedPartition(ImmutableBTreePartition.create(partition), sourceSSTableScanner.getCurrentPosition() - readStart);
 
-                    final Unfiltered unfiltered = partition.next();
+                                            progress.read(queued.bytesRead, sourceSSTableScanner.getCurrentPosition());
 
-                    switch (unfiltered.kind()) {
-                        case ROW:
-                            Row newRow = serializeRow(unfiltered);
-                            builder.add(newRow);
-                            break;
-                        case RANGE_TOMBSTONE_MARKER:
-                            //Range tombstones are denoted as separate (Unfiltered) entries for start and end,
-                            //so we record them separately and add the tombstone once both ends of the range are defined
-                            RangeTombstoneBoundMarker marker = (RangeTombstoneBoundMarker) unfiltered;
+                                            return queued;
+                                        }
+                                    },
+                                    queued -> {
+                                        final long bytesWritten = append(writer, queued.partition.unfilteredIterator(), nextWriter, options.maxOutputSSTableSize);
+
+                                        progress.written(queued.bytesRead, bytesWritten, writer.currentWriter().getFilename(), writer.currentWriter().getOnDiskFilePointer());
+                                    });
+            } else {
+                while (sourceSSTableScanner.hasNext()) {
+                    // rows are rewritten one by one as the writer pulls them, a partition is not held in memory as a whole
+                    try (final UnfilteredRowIterator partition = noTTL.apply(sourceSSTableScanner.next())) {
+                        final long readStart = sourceSSTableScanner.getCurrentPosition();
 
-                            final ClusteringBound<?> start = marker.isOpen(false) ? marker.openBound(false) : null;
-                            final ClusteringBound<?> end = marker.isClose(false) ? marker.closeBound(false) : null;
+                        final long bytesWritten = append(writer, partition, nextWriter, options.maxOutputSSTableSize);
 
-                            if (start != null && end != null) {
-                                builder.add(new RangeTombstone(Slice.make(start, end), marker.deletionTime()));
-                            }
+                        final long bytesRead = sourceSSTableScanner.getCurrentPosition() - readStart;
 
-                            break;
+                        progress.read(bytesRead, sourceSSTableScanner.getCurrentPosition());
+                        progress.written(bytesRead, bytesWritten, writer.currentWriter().getFilename(), writer.currentWriter().getOnDiskFilePointer());
                     }
                 }
+            }
+            writer.finish();
+
+            // output SSTables are synced once finished, so all their pages can be dropped now
+            progress.finish();
+
+            return SSTableOutcome.REWRITTEN;
+        } catch (final Exception ex) {
+            // aborting the writer aborts its transaction, which deletes partial outputs and the transaction log
+            throw new TTLRemovalException(format("Exception occurred while scanning SSTable %s", noTTLReader.descriptor.baseFilename()), writer.abort(ex));
+        }
+    }
+
+    /**
+     * Reads sections of the data file sequentially and rewrites their partitions at the byte level,
+     * see {@link RawUnfilteredRewriter}. Output SSTables are written with the serialization header of the input,
+     * their writer builds the index, the bloom filter and the statistics of every new SSTable.
+     *
+     * @param sections positions of the first and after the last partition of every section to rewrite
+     */
+    private SSTableOutcome rawRewrite(final SSTableReader noTTLReader,
+                                      final List<PartitionPositionBounds> sections,
+                                      final Descriptor toSSTable,
+                                      final TableMetadata tableMetadata,
+                                      final long keyCount,
+                                      final RemovalOptions options,
+                                      final IntSupplier generations) throws TTLRemovalException {
+
+        final LifecycleTransaction txn = LifecycleTransaction.offline(OperationType.WRITE);
+
+        final TableMetadataRef outputMetadata = TableMetadataRef.forOfflineTools(outputMetadata(tableMetadata, options.outputCompression));
+
+        final SSTableRewriter writer = SSTableRewriter.constructKeepingOriginals(txn, true, Long.MAX_VALUE);
+
+        final long keysPerSSTable = SSTableSplitter.keysPerSSTable(keyCount,
+                                                                   noTTLReader.estimatedKeys(),
+                                                                   noTTLReader.onDiskLength(),
+                                                                   options.maxOutputSSTableSize);
+
+        long length = 0;
+
+        for (final PartitionPositionBounds section : sections) {
+            length += section.upperPosition - section.lowerPosition;
+        }
+
+        try (final RandomAccessReader dataFile = noTTLReader.openDataReader()) {
+            writer.switchWriter(RawBigTableWriter.create(outputMetadata, toSSTable, keysPerSSTable, -1, 0, noTTLReader.header, txn, options.metrics));
+
+            final RewriteProgress progress = new RewriteProgress(options, noTTLReader.getFilename(), noTTLReader.onDiskLength(), length, NativeLibrary::trySkipCache);
+            final Supplier<SSTableWriter> nextWriter = () -> RawBigTableWriter.create(outputMetadata,
+                                                                                      withGeneration(toSSTable, generations.getAsInt()),
+                                                                                      keysPerSSTable,
+                                                                                      -1,
+                                                                                      0,
+                                                                                      noTTLReader.header,
+                                                                                      txn,
+                                                                                      options.metrics);
+
+            for (final PartitionPositionBounds section : sections) {
+                dataFile.seek(section.lowerPosition);
+
+                while (dataFile.getFilePointer() < section.upperPosition) {
+                    final long readStart = dataFile.getFilePointer();
+
+                    final DecoratedKey key = noTTLReader.decorateKey(ByteBufferUtil.readWithShortLength(dataFile));
+
+                    final long bytesWritten = append(writer, key, dataFile, nextWriter, options.maxOutputSSTableSize);
 
-                writer.append(builder.build().unfilteredIterator());
+                    final long bytesRead = dataFile.getFilePointer() - readStart;
+
+                    progress.read(bytesRead, dataFile.getFilePointer());
+                    progress.written(bytesRead, bytesWritten, writer.currentWriter().getFilename(), writer.currentWriter().getOnDiskFilePointer());
+                }
             }
+
             writer.finish();
+
+            // output SSTables are synced once finished, so all their pages can be dropped now
+            progress.finish();
+
+            return SSTableOutcome.REWRITTEN;
         } catch (final Exception ex) {
-            throw new TTLRemovalException(format("Exception occurred while scanning SSTable %s", descriptor.baseFilename()), ex);
+            // aborting the writer aborts its transaction, which deletes partial outputs and the transaction log
+            throw new TTLRemovalException(format("Exception occurred while reading SSTable %s", noTTLReader.descriptor.baseFilename()), writer.abort(ex));
+        }
+    }
+
+    /**
+     * Appends a partition, a new output SSTable is started before it when the current one is full.
+     *
+     * @return bytes the partition took on disk
+     */
+    private static long append(final SSTableRewriter writer,
+                               final UnfilteredRowIterator partition,
+                               final Supplier<SSTableWriter> nextWriter,
+                               final long maxOutputSSTableSize) {
+        if (SSTableSplitter.isFull(writer.currentWriter().getOnDiskFilePointer(), maxOutputSSTableSize)) {
+            writer.switchWriter(nextWriter.get());
+        }
+
+        final long writeStart = writer.currentWriter().getOnDiskFilePointer();
+
+        writer.append(partition);
+
+        return writer.currentWriter().getOnDiskFilePointer() - writeStart;
+    }
+
+    /**
+     * Appends a partition read from the data file at the byte level, writers are {@link RawBigTableWriter}s.
+     *
+     * @param in data file positioned just after the key of the partition
+     * @return bytes the partition took on disk
+     */
+    private static long append(final SSTableRewriter writer,
+                               final DecoratedKey key,
+                               final DataInput in,
+                               final Supplier<SSTableWriter> nextWriter,
+                               final long maxOutputSSTableSize) throws IOException {
+        if (SSTableSplitter.isFull(writer.currentWriter().getOnDiskFilePointer(), maxOutputSSTableSize)) {
+            writer.switchWriter(nextWriter.get());
         }
+
+        final long writeStart = writer.currentWriter().getOnDiskFilePointer();
+
+        ((RawBigTableWriter) writer.currentWriter()).append(key, in);
+
+        return writer.currentWriter().getOnDiskFilePointer() - writeStart;
     }
 
-    private long countKeys(final Descriptor descriptor, final TableMetadata metaData) {
+    /**
+     * @return metadata output SSTables are written with, it differs from the metadata of their table when its compression is overridden
+     */
+    private static TableMetadata outputMetadata(final TableMetadata tableMetadata, final OutputCompression output) throws TTLRemovalException {
+        if (!output.overridesTable()) {
+            return tableMetadata;
+        }
 
-        final KeyIterator iter = new KeyIterator(descriptor, metaData);
+        return tableMetadata.unbuild().compression(compressionParams(tableMetadata.params.compression, output)).build();
+    }
+
+    private static CompressionParams compressionParams(final CompressionParams table, final OutputCompression output) throws TTLRemovalException {
+        final OutputCompression.Parameters parameters = output.resolve(table.isEnabled() ? table.getSstableCompressor().getClass().getName() : null,
+                                                                       table.chunkLength() / 1024,
+                                                                       table.getOtherOptions());
 
-        long keyCount = 0;
+        if (parameters == null) {
+            return CompressionParams.noCompression();
+        }
+
+        final Map<String, String> options = new HashMap<>(parameters.otherOptions);
+
+        options.put(CompressionParams.CLASS, parameters.compressor);
+        options.put(CompressionParams.CHUNK_LENGTH_IN_KB, Integer.toString(parameters.chunkLengthInKiB));
 
         try {
-            while (iter.hasNext()) {
-                iter.next();
-                keyCount++;
-            }
-        } finally {
-            iter.close();
+            return CompressionParams.fromMap(options);
+        } catch (final ConfigurationException ex) {
+            throw new TTLRemovalException(format("Invalid compression of output SSTables %s", options), ex);
+        }
+    }
+
+
+    /**
+     * Splits the ring to ranges holding about the same number of partitions of the SSTable, according to its index summary.
+     */
+    private List<Range<Token>> splitRanges(final SSTableReader reader, final int tokenRanges) {
+        final Token minimum = reader.first.getToken().minValue();
+
+        final List<Token> boundaries = SSTableSplitter.boundaries(Iterables.transform(reader.getKeySamples(new Range<>(minimum, minimum)),
+                                                                                     DecoratedKey::getToken),
+                                                                  tokenRanges);
+
+        final List<Range<Token>> ranges = new ArrayList<>(boundaries.size() + 1);
+
+        Token left = minimum;
+
+        for (final Token boundary : boundaries) {
+            ranges.add(new Range<>(left, boundary));
+            left = boundary;
         }
 
-        return keyCount;
+        ranges.add(new Range<>(left, minimum));
+
+        return ranges;
     }
 
-    private Row serializeRow(final Unfiltered atoms) {
+    private static Descriptor withGeneration(final Descriptor descriptor, final int generation) {
+        return new Descriptor(descriptor.directory, descriptor.ksname, descriptor.cfname, generation, SSTableFormat.Type.BIG);
+    }
 
-        final Row row = (Row) atoms;
+    private static int maxGeneration(final Collection<Path> sstables) {
+        int max = 0;
 
-        Builder builder = BTreeRow.sortedBuilder();
+        for (final Path sstable : sstables) {
+            max = Math.max(max, Descriptor.fromFilename(sstable.toAbsolutePath().toFile().getAbsolutePath()).generation);
+        }
 
-        builder.newRow(row.clustering());
-        builder.addPrimaryKeyLivenessInfo(LivenessInfo.create(row.primaryKeyLivenessInfo().timestamp(),
-                                                              LivenessInfo.NO_TTL,
-                                                              FBUtilities.nowInSeconds()));
+        return max;
+    }
 
-        row.columnData().forEach(cd -> {
-            ColumnMetadata columnMetadata = cd.column();
-            if (columnMetadata.isComplex()) {
-                for (Cell<?> cell : row.getComplexColumnData(columnMetadata)) {
-                    builder.addCell(BufferCell.live(cell.column(), cell.timestamp(), cell.buffer(), cell.path()));
-                }
-            } else {
-                Cell<?> cell = row.getCell(columnMetadata);
-                builder.addCell(BufferCell.live(cell.column(), cell.timestamp(), cell.buffer()));
-            }
-        });
-        builder.addRowDeletion(row.deletion());
+    private boolean isTTLFree(final Path sstable) throws Exception {
+        final Descriptor descriptor = Descriptor.fromFilename(sstable.toAbsolutePath().toFile().getAbsolutePath());
+        final StatsMetadata stats = (StatsMetadata) descriptor.getMetadataSerializer().deserialize(descriptor, MetadataType.STATS);
 
-        return builder.build();
+        return stats.maxTTL == LivenessInfo.NO_TTL;
+    }
+
+    /**
+     * A partition handed over between stages of a pipelined rewrite with the number of bytes it was read from.
+     */
+    private static final class QueuedPartition {
+
+        private final ImmutableBTreePartition partition;
+
+        private final long bytesRead;
+
+        private QueuedPartition(final ImmutableBTreePartition partition, final long bytesRead) {
+            this.partition = partition;
+            this.bytesRead = bytesRead;
+        }
     }
 }
@@ -0,0 +1,72 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.lang.String.format;
+
+import java.util.Locale;
+
+import com.instaclustr.cassandra.ttl.cli.TTLRemovalException;
+
+/**
+ * How data and index files of input SSTables are read, either through buffered reads or memory mapped.
+ */
+public enum AccessMode {
+    STANDARD,
+    MMAP,
+    AUTO;
+
+    /**
+     * System property the access mode is passed to the byte-buddy agent with, as the agent is installed before
+     * command line arguments are parsed. Its value is a name of Cassandra's {@code Config.DiskAccessMode}.
+     */
+    public static final String PROPERTY = "ttl.remover.access.mode";
+
+    /**
+     * System property set by the byte-buddy agent once it is installed.
+     */
+    public static final String AGENT_PROPERTY = "ttl.remover.agent";
+
+    /**
+     * Passes the mode to the byte-buddy agent of Cassandra 3 and 4.0, which is the only one reading {@value #PROPERTY}.
+     *
+     * @throws TTLRemovalException when the agent is not installed, as the mode would be silently ignored
+     */
+    public static void passToAgent(final AccessMode mode) throws TTLRemovalException {
+        if (mode == null) {
+            return;
+        }
+
+        if (System.getProperty(AGENT_PROPERTY) == null) {
+            throw new TTLRemovalException("--access-mode is applied by the byte-buddy agent for Cassandra 3 and 4.0, run the removal with -javaagent or without --access-mode.");
+        }
+
+        System.setProperty(PROPERTY, mode.cassandraName());
+    }
+
+    public static AccessMode parse(final String mode) {
+        for (final AccessMode value : values()) {
+            if (value.name().equalsIgnoreCase(mode)) {
+                return value;
+            }
+        }
+
+        throw new IllegalArgumentException(format("Unknown access mode %s, it might be mmap, standard or auto", mode));
+    }
+
+    /**
+     * @return mmap on 64-bit JVMs and standard otherwise in case of auto, as Cassandra resolves it, this mode otherwise
+     */
+    public AccessMode resolve() {
+        if (this != AUTO) {
+            return this;
+        }
+
+        return System.getProperty("os.arch").contains("64") ? MMAP : STANDARD;
+    }
+
+    /**
+     * @return name of the resolved mode as in {@code Config.DiskAccessMode}
+     */
+    public String cassandraName() {
+        return resolve().name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,47 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.lang.String.format;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses human readable sizes like {@code 512MiB}, {@code 10g} or {@code 1048576} to bytes.
+ *
+ * Units are binary, {@code k}, {@code KB} and {@code KiB} all mean 1024 bytes.
+ */
+public final class DataSize {
+
+    private static final Pattern SIZE = Pattern.compile("^\\s*(\\d+)\\s*([kmgt]?)(?:i?b)?\\s*$");
+
+    private DataSize() {
+    }
+
+    public static long parseBytes(final String size) {
+        if (size == null) {
+            throw new IllegalArgumentException("Size is not specified.");
+        }
+
+        final Matcher matcher = SIZE.matcher(size.toLowerCase(Locale.ROOT));
+
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException(format("Unable to parse size '%s', it has to be a number optionally followed by a unit, e.g. 512MiB", size));
+        }
+
+        final long value = Long.parseLong(matcher.group(1));
+
+        switch (matcher.group(2)) {
+            case "k":
+                return Math.multiplyExact(value, 1L << 10);
+            case "m":
+                return Math.multiplyExact(value, 1L << 20);
+            case "g":
+                return Math.multiplyExact(value, 1L << 30);
+            case "t":
+                return Math.multiplyExact(value, 1L << 40);
+            default:
+                return value;
+        }
+    }
+}
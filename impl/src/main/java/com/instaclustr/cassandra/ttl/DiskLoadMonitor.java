@@ -0,0 +1,204 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Samples {@code /proc/diskstats} of devices holding input SSTables every second and makes {@link IOThrottle}
+ * back off while any of them is busier than allowed, then raises its rates again once they calm down.
+ *
+ * Utilisation is the share of time a device had I/O in flight and read latency is the mean time of reads completed
+ * since the last sample, both cover I/O of all processes, so the removal yields to the live node rather than to
+ * itself only. When devices can not be resolved, e.g. for network file systems, all block devices are watched.
+ * It works on Linux only, elsewhere the throttle keeps its static limits.
+ */
+public final class DiskLoadMonitor implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiskLoadMonitor.class);
+
+    private static final Path DISKSTATS = Paths.get("/proc/diskstats");
+
+    private static final long INTERVAL_MILLIS = 1000;
+
+    private final IOThrottle throttle;
+
+    private final Set<String> devices;
+
+    private final double maxUtilisation;
+
+    private final double maxReadLatencyMillis;
+
+    // reads completed, milliseconds spent reading and milliseconds with I/O in flight of every device at the last sample
+    private final Map<String, long[]> previous = new HashMap<>();
+
+    private long previousNanos;
+
+    private boolean overloaded;
+
+    private ScheduledExecutorService executor;
+
+    private DiskLoadMonitor(final IOThrottle throttle,
+                            final Set<String> devices,
+                            final double maxUtilisation,
+                            final double maxReadLatencyMillis) {
+        this.throttle = throttle;
+        this.devices = devices;
+        this.maxUtilisation = maxUtilisation;
+        this.maxReadLatencyMillis = maxReadLatencyMillis;
+    }
+
+    /**
+     * @param sstables              input SSTables, devices holding them are watched
+     * @param maxUtilisationPercent utilisation of a device in percent above which the throttle backs off
+     * @param maxReadLatencyMillis  mean read latency of a device in milliseconds above which the throttle backs off
+     */
+    public static DiskLoadMonitor start(final IOThrottle throttle,
+                                        final Collection<Path> sstables,
+                                        final int maxUtilisationPercent,
+                                        final int maxReadLatencyMillis) {
+        final DiskLoadMonitor monitor = new DiskLoadMonitor(throttle, devices(sstables), maxUtilisationPercent / 100.0, maxReadLatencyMillis);
+
+        if (!Files.isReadable(DISKSTATS)) {
+            logger.warn(format("%s can not be read, I/O is throttled by static limits only", DISKSTATS));
+            return monitor;
+        }
+
+        logger.info(format("Throttling I/O adaptively, watching %s", monitor.devices.isEmpty() ? "all devices" : monitor.devices));
+
+        monitor.sample();
+
+        monitor.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "ttl-remover-throttle");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        monitor.executor.scheduleWithFixedDelay(monitor::sample, INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        return monitor;
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private void sample() {
+        final List<String> lines;
+
+        try {
+            lines = Files.readAllLines(DISKSTATS);
+        } catch (final IOException ex) {
+            logger.debug(format("Unable to read %s", DISKSTATS), ex);
+            return;
+        }
+
+        final long now = System.nanoTime();
+        final double elapsedMillis = (now - previousNanos) / 1_000_000.0;
+
+        double utilisation = 0;
+        double readLatencyMillis = 0;
+
+        for (final String line : lines) {
+            final String[] fields = line.trim().split("\\s+");
+
+            if (fields.length < 14 || !watched(fields[2])) {
+                continue;
+            }
+
+            final long[] current = new long[]{Long.parseLong(fields[3]), Long.parseLong(fields[6]), Long.parseLong(fields[12])};
+            final long[] last = previous.put(fields[2], current);
+
+            if (last == null || elapsedMillis <= 0) {
+                continue;
+            }
+
+            final long reads = current[0] - last[0];
+
+            utilisation = Math.max(utilisation, (current[2] - last[2]) / elapsedMillis);
+
+            if (reads > 0) {
+                readLatencyMillis = Math.max(readLatencyMillis, (current[1] - last[1]) / (double) reads);
+            }
+        }
+
+        if (previousNanos != 0) {
+            adjust(utilisation > maxUtilisation || readLatencyMillis > maxReadLatencyMillis, now - previousNanos, utilisation, readLatencyMillis);
+        }
+
+        previousNanos = now;
+    }
+
+    private void adjust(final boolean overloaded, final long elapsedNanos, final double utilisation, final double readLatencyMillis) {
+        if (overloaded) {
+            throttle.backOff(elapsedNanos);
+        } else {
+            throttle.recover(elapsedNanos);
+        }
+
+        if (overloaded != this.overloaded) {
+            logger.info(format("Disk utilisation %.0f%%, read latency %.1f ms, %s I/O to %s",
+                               utilisation * 100,
+                               readLatencyMillis,
+                               overloaded ? "throttling" : "releasing",
+                               throttle));
+        }
+
+        this.overloaded = overloaded;
+    }
+
+    private boolean watched(final String device) {
+        if (devices.isEmpty()) {
+            return !device.startsWith("loop") && !device.startsWith("ram");
+        }
+
+        return devices.contains(device);
+    }
+
+    /**
+     * @return names of block devices as listed in /proc/diskstats, e.g. sda1 or dm-0, empty if none could be resolved
+     */
+    private static Set<String> devices(final Collection<Path> sstables) {
+        final Set<Path> directories = new HashSet<>();
+
+        for (final Path sstable : sstables) {
+            directories.add(sstable.toAbsolutePath().getParent());
+        }
+
+        final Set<String> devices = new HashSet<>();
+
+        for (final Path directory : directories) {
+            try {
+                // name of a file store is the mounted device, e.g. /dev/sda1 or /dev/mapper/data which links to /dev/dm-0
+                final Path device = Paths.get(Files.getFileStore(directory).name());
+
+                if (device.isAbsolute() && Files.exists(device)) {
+                    devices.add(device.toRealPath().getFileName().toString());
+                }
+            } catch (final IOException | InvalidPathException ex) {
+                logger.debug(format("Unable to resolve device of %s", directory), ex);
+            }
+        }
+
+        return devices;
+    }
+}
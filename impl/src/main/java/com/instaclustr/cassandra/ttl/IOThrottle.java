@@ -0,0 +1,151 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.lang.String.format;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.instaclustr.cassandra.ttl.cli.TTLRemovalException;
+
+/**
+ * Limits bytes read from input SSTables and written to output SSTables per second, shared by all threads
+ * of a removal, so a removal running on a serving node does not starve compaction and client reads.
+ *
+ * Every byte is a permit of a Guava {@link RateLimiter}, as Cassandra throttles compaction. Removers acquire bytes
+ * after every partition, so a partition is never held back in the middle and limits hold on average rather than
+ * for every single read. Rates are lowered and raised again by {@link DiskLoadMonitor} when the adaptive mode is on,
+ * never above the configured limits.
+ */
+public final class IOThrottle {
+
+    // adaptive rates never drop below this, so a removal keeps going even on a saturated disk
+    private static final double MIN_BYTES_PER_SECOND = 1024 * 1024;
+
+    private final Limit read;
+
+    private final Limit write;
+
+    /**
+     * @param readBytesPerSecond  limit of bytes read per second, 0 for no limit
+     * @param writeBytesPerSecond limit of bytes written per second, 0 for no limit
+     */
+    public IOThrottle(final long readBytesPerSecond, final long writeBytesPerSecond) {
+        this.read = new Limit(readBytesPerSecond);
+        this.write = new Limit(writeBytesPerSecond);
+    }
+
+    /**
+     * Waits until reading of given bytes on disk fits the read limit.
+     */
+    public void acquireRead(final long bytes) throws TTLRemovalException {
+        read.acquire(bytes);
+    }
+
+    /**
+     * Waits until writing of given bytes on disk fits the write limit.
+     */
+    public void acquireWrite(final long bytes) throws TTLRemovalException {
+        write.acquire(bytes);
+    }
+
+    /**
+     * Halves current rates, relative to the bytes actually read and written since the last adjustment.
+     */
+    void backOff(final long elapsedNanos) {
+        read.backOff(elapsedNanos);
+        write.backOff(elapsedNanos);
+    }
+
+    /**
+     * Raises current rates by a quarter, up to the configured limits.
+     */
+    void recover(final long elapsedNanos) {
+        read.recover(elapsedNanos);
+        write.recover(elapsedNanos);
+    }
+
+    @Override
+    public String toString() {
+        return format("read %s, write %s", read, write);
+    }
+
+    private static final class Limit {
+
+        // bytes per second, infinite when there is no limit
+        private final double limit;
+
+        // null while the rate is not limited, e.g. until the adaptive mode backs off without a configured limit
+        private volatile RateLimiter limiter;
+
+        // bytes acquired since the last adjustment of the rate
+        private final AtomicLong acquired = new AtomicLong();
+
+        private Limit(final long bytesPerSecond) {
+            this.limit = bytesPerSecond <= 0 ? Double.POSITIVE_INFINITY : bytesPerSecond;
+            this.limiter = Double.isInfinite(limit) ? null : RateLimiter.create(limit);
+        }
+
+        private void acquire(final long bytes) throws TTLRemovalException {
+            acquired.addAndGet(bytes);
+
+            final RateLimiter current = limiter;
+
+            if (current == null || bytes <= 0) {
+                return;
+            }
+
+            // permits are ints, a partition over 2GiB is acquired in parts
+            for (long remaining = bytes; remaining > 0; remaining -= Integer.MAX_VALUE) {
+                current.acquire((int) Math.min(remaining, Integer.MAX_VALUE));
+            }
+
+            // the rate limiter sleeps uninterruptibly and restores the interrupt flag afterwards
+            if (Thread.currentThread().isInterrupted()) {
+                throw new TTLRemovalException("Interrupted while throttling I/O.");
+            }
+        }
+
+        private synchronized void backOff(final long elapsedNanos) {
+            final double observed = observed(elapsedNanos);
+
+            // nothing was done since the last adjustment, the load is not ours to back off from
+            if (observed > 0) {
+                setRate(Math.max(MIN_BYTES_PER_SECOND, Math.min(rate(), observed) / 2));
+            }
+        }
+
+        private synchronized void recover(final long elapsedNanos) {
+            observed(elapsedNanos);
+
+            setRate(Math.min(limit, rate() * 1.25));
+        }
+
+        private double rate() {
+            final RateLimiter current = limiter;
+
+            return current == null ? Double.POSITIVE_INFINITY : current.getRate();
+        }
+
+        private void setRate(final double rate) {
+            if (Double.isInfinite(rate)) {
+                limiter = null;
+            } else if (limiter == null) {
+                limiter = RateLimiter.create(rate);
+            } else {
+                limiter.setRate(rate);
+            }
+        }
+
+        private double observed(final long elapsedNanos) {
+            return acquired.getAndSet(0) * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsedNanos);
+        }
+
+        @Override
+        public String toString() {
+            final double rate = rate();
+
+            return Double.isInfinite(rate) ? "unlimited" : format("%.1f MiB/s", rate / 1024 / 1024);
+        }
+    }
+}
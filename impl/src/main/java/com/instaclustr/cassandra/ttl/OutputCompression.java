@@ -0,0 +1,91 @@
+package com.instaclustr.cassandra.ttl;
+
+import java.util.Collections;
+import java.util.Map;
+
+import com.instaclustr.cassandra.ttl.cli.TTLRemovalException;
+
+/**
+ * Compression of output SSTables overriding the compression of their table, which is otherwise taken from the schema.
+ *
+ * It holds only what a user asked for: a compressor class and a chunk length, each of them might be left to the table.
+ * It is resolved against compression of a table here, removers of every Cassandra version only translate the result
+ * to compression parameters of their own.
+ */
+public final class OutputCompression {
+
+    /**
+     * Compressor turning compression of output SSTables off.
+     */
+    public static final String NONE = "none";
+
+    /**
+     * Output SSTables are compressed as their tables are.
+     */
+    public static final OutputCompression TABLE = new OutputCompression(null, null);
+
+    private final String compressor;
+
+    private final Integer chunkLengthInKiB;
+
+    /**
+     * @param compressor       class name of a compressor, a simple name of one of Cassandra's compressors
+     *                         or {@link #NONE}, compressor of the table is used when null
+     * @param chunkLengthInKiB chunk length in KiB, chunk length of the table is used when null
+     */
+    public OutputCompression(final String compressor, final Integer chunkLengthInKiB) {
+        this.compressor = compressor;
+        this.chunkLengthInKiB = chunkLengthInKiB;
+    }
+
+    public boolean overridesTable() {
+        return compressor != null || chunkLengthInKiB != null;
+    }
+
+    /**
+     * Resolves compression of output SSTables against compression of their table.
+     *
+     * @param tableCompressor       class name of the compressor of the table, null when the table is not compressed
+     * @param tableChunkLengthInKiB chunk length of the table in KiB
+     * @param tableOptions          other options of the table's compressor, e.g. its level
+     * @return compression of output SSTables, null when they are not compressed
+     */
+    public Parameters resolve(final String tableCompressor,
+                              final int tableChunkLengthInKiB,
+                              final Map<String, String> tableOptions) throws TTLRemovalException {
+        if (NONE.equalsIgnoreCase(compressor)) {
+            return null;
+        }
+
+        if (compressor == null && tableCompressor == null) {
+            if (chunkLengthInKiB != null) {
+                throw new TTLRemovalException("--output-chunk-length can not be applied to a table without compression, set --output-compression too.");
+            }
+
+            return null;
+        }
+
+        // options like the level of a compressor do not apply to another one
+        return new Parameters(compressor == null ? tableCompressor : compressor,
+                              chunkLengthInKiB == null ? tableChunkLengthInKiB : chunkLengthInKiB,
+                              compressor == null ? tableOptions : Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Compression of output SSTables, which removers translate to compression parameters of their Cassandra version.
+     */
+    public static final class Parameters {
+
+        public final String compressor;
+
+        public final int chunkLengthInKiB;
+
+        public final Map<String, String> otherOptions;
+
+        private Parameters(final String compressor, final int chunkLengthInKiB, final Map<String, String> otherOptions) {
+            this.compressor = compressor;
+            this.chunkLengthInKiB = chunkLengthInKiB;
+            this.otherOptions = otherOptions;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.instaclustr.cassandra.ttl;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.instaclustr.cassandra.ttl.cli.TTLRemovalException;
+
+/**
+ * Drops pages of SSTables from the page cache while they are rewritten, so a removal running next to a live
+ * Cassandra node does not evict its working set.
+ *
+ * Pages are dropped with {@code POSIX_FADV_DONTNEED} by Cassandra's native library, which every remover passes in,
+ * as it is a different class in every Cassandra version. Dirty pages of output SSTables can not be dropped until
+ * they are written back, the advice only starts their writeback, so they are dropped by one of the next advices
+ * or once the SSTable is finished and synced.
+ *
+ * One instance is used for a single rewrite, it might be advanced from the read and the write thread of a pipeline.
+ * An input split to token ranges is read by several rewrites at once, so its components are dropped by
+ * {@link #dropSSTable} once all of them are done.
+ */
+public final class PageCacheDropper {
+
+    @FunctionalInterface
+    public interface SkipCache {
+
+        /**
+         * @param length number of bytes from offset to drop, 0 drops pages up to the end of the file
+         */
+        void trySkipCache(String path, long offset, long length);
+    }
+
+    // every advice opens the file, so pages are dropped in steps rather than after every partition
+    private static final long STEP = 32L * 1024 * 1024;
+
+    private static final PageCacheDropper DISABLED = new PageCacheDropper(null, null);
+
+    private final String input;
+
+    private final SkipCache skipCache;
+
+    // data files advanced so far with the first position and the position up to which their pages were dropped
+    private final Map<String, long[]> dropped = new LinkedHashMap<>();
+
+    private PageCacheDropper(final String input, final SkipCache skipCache) {
+        this.input = input;
+        this.skipCache = skipCache;
+    }
+
+    /**
+     * @param input data file of the input SSTable of the rewrite
+     * @return dropper which does nothing when it is not enabled
+     */
+    public static PageCacheDropper create(final boolean enabled, final String input, final SkipCache skipCache) {
+        return enabled ? new PageCacheDropper(input, skipCache) : DISABLED;
+    }
+
+    /**
+     * Drops all pages of all components of an SSTable, called once all token ranges of an input SSTable are rewritten.
+     *
+     * @param dataFile path to a Data.db component of the SSTable
+     */
+    public static void dropSSTable(final boolean enabled, final String dataFile, final SkipCache skipCache) throws TTLRemovalException {
+        if (!enabled) {
+            return;
+        }
+
+        for (final Path component : SSTableFiles.components(Paths.get(dataFile))) {
+            skipCache.trySkipCache(component.toString(), 0, 0);
+        }
+    }
+
+    /**
+     * Drops pages of a data file between the first position it was advanced to and the given position, once it moved
+     * far enough from the last drop. Pages before the first position are left alone, as they might belong
+     * to a token range another thread has not read yet.
+     *
+     * @param dataFile path to a Data.db component of an input or output SSTable
+     * @param position offset in the file on disk everything before which was read or written
+     */
+    public void advance(final String dataFile, final long position) {
+        if (this == DISABLED) {
+            return;
+        }
+
+        final long start;
+
+        synchronized (dropped) {
+            final long[] positions = dropped.get(dataFile);
+
+            if (positions == null) {
+                dropped.put(dataFile, new long[]{position, position});
+                return;
+            }
+
+            if (position - positions[1] < STEP) {
+                return;
+            }
+
+            positions[1] = position;
+            start = positions[0];
+        }
+
+        skipCache.trySkipCache(dataFile, start, position - start);
+    }
+
+    /**
+     * Drops all pages of all components of every output SSTable advanced so far, called once they are finished.
+     * Pages of the input are left to {@link #dropSSTable}, as other token ranges might still be reading it.
+     */
+    public void finish() throws TTLRemovalException {
+        if (this == DISABLED) {
+            return;
+        }
+
+        synchronized (dropped) {
+            for (final String dataFile : dropped.keySet()) {
+                if (!dataFile.equals(input)) {
+                    dropSSTable(true, dataFile, skipCache);
+                }
+            }
+
+            dropped.clear();
+        }
+    }
+}
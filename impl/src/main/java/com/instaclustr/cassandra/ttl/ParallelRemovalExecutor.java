@@ -0,0 +1,275 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.lang.String.format;
+
+import java.nio.file.Path;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.instaclustr.cassandra.ttl.cli.TTLRemovalException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rewrites independent SSTables on a bounded pool of worker threads. Workers which have no SSTable to rewrite
+ * help with token ranges of split SSTables.
+ *
+ * A failure of one SSTable does not stop the others, all failures are collected and reported
+ * once every SSTable was processed.
+ */
+public class ParallelRemovalExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParallelRemovalExecutor.class);
+
+    public interface SSTableTask {
+
+        /**
+         * @param outputs Data.db files of output SSTables have to be added to them before anything is written to them,
+         *                they are recorded in the manifest as started right away and as completed once the task succeeds,
+         *                might be added to from several threads
+         */
+        SSTableOutcome process(final Path sstable, final Collection<Path> outputs) throws Exception;
+    }
+
+    private final int threads;
+    private final Semaphore idleWorkers;
+    private final RemovalMetrics metrics;
+    private final int progressIntervalSeconds;
+    private final Path reportFile;
+    private final IOThrottle throttle;
+    private final boolean adaptiveThrottle;
+    private final int maxDiskUtilisation;
+    private final int maxReadLatencyMillis;
+    private final Path manifestFile;
+    private final boolean resume;
+
+    public ParallelRemovalExecutor(final RemovalOptions options) {
+        if (options.threads < 1) {
+            throw new IllegalArgumentException(format("Number of threads has to be at least 1 but it is %s", options.threads));
+        }
+
+        this.threads = options.threads;
+        this.idleWorkers = options.idleWorkers();
+        this.metrics = options.metrics;
+        this.progressIntervalSeconds = options.progressIntervalSeconds;
+        this.reportFile = options.reportFile;
+        this.throttle = options.throttle;
+        this.adaptiveThrottle = options.adaptiveThrottle;
+        this.maxDiskUtilisation = options.maxDiskUtilisation;
+        this.maxReadLatencyMillis = options.maxReadLatencyMillis;
+        this.manifestFile = options.manifestFile;
+        this.resume = options.resume;
+    }
+
+    public RemovalSummary execute(final Collection<Path> sstables, final SSTableTask task) throws TTLRemovalException {
+        final RemovalSummary summary = new RemovalSummary();
+        final long start = System.currentTimeMillis();
+
+        final RemovalManifest manifest = openManifest();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, sstables.size())),
+                                                                      new RemovalThreadFactory());
+
+        metrics.start(dataSize(sstables));
+        metrics.register();
+
+        final ScheduledExecutorService reporter = startReporter();
+
+        final DiskLoadMonitor monitor = adaptiveThrottle ? DiskLoadMonitor.start(throttle, sstables, maxDiskUtilisation, maxReadLatencyMillis) : null;
+
+        try {
+            final List<Future<?>> futures = new ArrayList<>(sstables.size());
+
+            for (final Path sstable : sstables) {
+                if (manifest != null && manifest.isCompleted(sstable)) {
+                    logger.info(format("SSTable %s was completed by a previous run, skipping it", sstable));
+                    metrics.completed(dataSize(Collections.singleton(sstable)));
+                    summary.record(sstable, SSTableOutcome.COMPLETED_BEFORE);
+                    continue;
+                }
+
+                futures.add(executor.submit(() -> {
+                    // workers might be busy with token ranges of a split SSTable, see SSTableSplitter
+                    idleWorkers.acquireUninterruptibly();
+
+                    try {
+                        final Collection<Path> outputs = new StartedOutputs(sstable, manifest);
+                        final SSTableOutcome outcome = task.process(sstable, outputs);
+
+                        if (manifest != null) {
+                            manifest.completed(sstable, outcome, outputs);
+                        }
+
+                        if (outcome != SSTableOutcome.REWRITTEN) {
+                            metrics.completed(dataSize(Collections.singleton(sstable)));
+                        }
+
+                        summary.record(sstable, outcome);
+                    } catch (final Throwable t) {
+                        logger.error(format("Unable to remove TTL from SSTable %s", sstable), t);
+                        summary.recordFailure(sstable, t);
+                    } finally {
+                        idleWorkers.release();
+                    }
+                }));
+            }
+
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new TTLRemovalException("Interrupted while waiting for SSTables to be rewritten.", ex);
+        } catch (final ExecutionException ex) {
+            throw new TTLRemovalException("Unexpected error while rewriting SSTables.", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+
+            if (reporter != null) {
+                reporter.shutdownNow();
+            }
+
+            if (monitor != null) {
+                monitor.close();
+            }
+
+            if (manifest != null) {
+                manifest.close();
+            }
+
+            metrics.unregister();
+        }
+
+        summary.setElapsedMillis(System.currentTimeMillis() - start);
+
+        logger.info(summary.toString());
+        logger.info(metrics.toString());
+
+        if (reportFile != null) {
+            metrics.writeReport(reportFile, summary);
+        }
+
+        if (summary.hasFailures()) {
+            for (final Map.Entry<Path, Throwable> failure : summary.getFailures().entrySet()) {
+                logger.error(format("Failed SSTable %s: %s", failure.getKey(), failure.getValue().getMessage()));
+            }
+
+            throw new TTLRemovalException(format("TTL removal failed for %s out of %s SSTable(s).",
+                                                 summary.getFailures().size(),
+                                                 sstables.size()));
+        }
+
+        return summary;
+    }
+
+    private RemovalManifest openManifest() throws TTLRemovalException {
+        if (manifestFile == null) {
+            return null;
+        }
+
+        final RemovalManifest manifest = RemovalManifest.open(manifestFile, resume);
+
+        if (resume) {
+            // nothing is being written yet, so every output started but not completed is a leftover of the previous run
+            manifest.removeLeftovers();
+        }
+
+        return manifest;
+    }
+
+    private ScheduledExecutorService startReporter() {
+        if (progressIntervalSeconds <= 0) {
+            return null;
+        }
+
+        final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "ttl-remover-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        reporter.scheduleAtFixedRate(() -> logger.info(format("Progress: %s", metrics)),
+                                     progressIntervalSeconds,
+                                     progressIntervalSeconds,
+                                     TimeUnit.SECONDS);
+
+        return reporter;
+    }
+
+    private static long dataSize(final Collection<Path> sstables) {
+        long size = 0;
+
+        for (final Path sstable : sstables) {
+            size += sstable.toFile().length();
+        }
+
+        return size;
+    }
+
+    /**
+     * Outputs of a single SSTable, each of them is recorded in the manifest as started before it is added.
+     */
+    private static final class StartedOutputs extends AbstractCollection<Path> {
+
+        private final Path sstable;
+
+        private final RemovalManifest manifest;
+
+        private final List<Path> outputs = new ArrayList<>();
+
+        private StartedOutputs(final Path sstable, final RemovalManifest manifest) {
+            this.sstable = sstable;
+            this.manifest = manifest;
+        }
+
+        @Override
+        public synchronized boolean add(final Path output) {
+            if (manifest != null) {
+                try {
+                    manifest.started(sstable, output);
+                } catch (final TTLRemovalException ex) {
+                    // outputs are added by generation suppliers of removers which can not throw checked exceptions
+                    throw new IllegalStateException(ex.getMessage(), ex);
+                }
+            }
+
+            return outputs.add(output);
+        }
+
+        @Override
+        public synchronized Iterator<Path> iterator() {
+            return new ArrayList<>(outputs).iterator();
+        }
+
+        @Override
+        public synchronized int size() {
+            return outputs.size();
+        }
+    }
+
+    private static final class RemovalThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "ttl-remover-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
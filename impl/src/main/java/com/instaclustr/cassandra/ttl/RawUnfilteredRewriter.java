@@ -0,0 +1,808 @@
+package com.instaclustr.cassandra.ttl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Removes TTL from partitions of a Cassandra 3 or 4 data file without deserialising their rows and cells.
+ *
+ * Rows and cells are read as UnfilteredSerializer of Cassandra writes them, with timestamps and deletion times encoded
+ * relative to the encoding stats of the serialization header of the SSTable. An expiring row differs from a regular one
+ * only by the HAS_TTL flag and by its ttl and local expiration time, an expiring cell only by its IS_EXPIRING
+ * or USE_ROW_TTL flags and by its local expiration time and ttl. Those flags are cleared and those varints dropped,
+ * everything else - the partition key and deletion, clusterings, timestamps, tombstones, paths and values of cells -
+ * is copied byte by byte. Output SSTables are therefore written with the serialization header of their input.
+ *
+ * A partition is laid out as its key, its deletion time, its static row when the table has static columns,
+ * unfiltereds and an end of partition flag. Every unfiltered starts with its flags:
+ * <ul>
+ *     <li>row: extended flags, clustering, size of the row, size of the previous unfiltered, timestamp, ttl and local
+ *     expiration time of its primary key liveness, its deletion, columns it has unless it has all of them, and cells
+ *     of its columns - a complex column has a deletion and a number of cells prefixed to them</li>
+ *     <li>range tombstone marker: bound or boundary, size of the marker, size of the previous unfiltered and one or two
+ *     deletion times</li>
+ * </ul>
+ *
+ * As a row gets shorter, its size and the size of the previous unfiltered of the following one change, so an unfiltered
+ * is rewritten to a buffer before it is written. The column index of a partition is built the way ColumnIndex
+ * of Cassandra builds it, from positions of unfiltereds in the rewritten partition, its blocks are serialised as IndexInfo
+ * of Cassandra serialises them.
+ *
+ * Statistics of the new SSTable are collected by a {@link Listener} from decoded timestamps and deletion times,
+ * only clusterings are handed over in their serialised form, so no object is created for a cell.
+ *
+ * It is not thread safe, one instance is reused for all partitions of an SSTable.
+ */
+public class RawUnfilteredRewriter {
+
+    // flags of an unfiltered
+    private static final int END_OF_PARTITION = 0x01;
+    private static final int IS_MARKER = 0x02;
+    private static final int HAS_TIMESTAMP = 0x04;
+    private static final int HAS_TTL = 0x08;
+    private static final int HAS_DELETION = 0x10;
+    private static final int HAS_ALL_COLUMNS = 0x20;
+    private static final int HAS_COMPLEX_DELETION = 0x40;
+    private static final int EXTENSION_FLAG = 0x80;
+
+    // extended flags of a row
+    private static final int IS_STATIC = 0x01;
+
+    // flags of a cell
+    private static final int IS_DELETED = 0x01;
+    private static final int IS_EXPIRING = 0x02;
+    private static final int HAS_EMPTY_VALUE = 0x04;
+    private static final int USE_ROW_TIMESTAMP = 0x08;
+    private static final int USE_ROW_TTL = 0x10;
+
+    // ordinals of kinds of clustering prefixes
+    private static final int INCL_START_BOUND = 1;
+    private static final int EXCL_END_INCL_START_BOUNDARY = 2;
+    private static final int CLUSTERING = 4;
+    private static final int INCL_END_EXCL_START_BOUNDARY = 5;
+    private static final int EXCL_START_BOUND = 7;
+
+    // widths of index blocks are serialised relative to it
+    private static final long WIDTH_BASE = 64 * 1024;
+
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private static final int NO_DELETION_TIME = Integer.MAX_VALUE;
+
+    private final Layout layout;
+
+    private final int columnIndexSize;
+
+    private final RemovalMetrics metrics;
+
+    private final Listener listener;
+
+    // unfiltered being rewritten: its clustering in the format of a clustering prefix, its flags and clustering
+    // as they are written in front of its sizes, and everything following its sizes
+    private final Buffer clustering = new Buffer();
+    private final Buffer header = new Buffer();
+    private final Buffer body = new Buffer();
+
+    // serialised index blocks of the partition
+    private final Buffer index = new Buffer();
+    private int[] indexOffsets = new int[10];
+
+    // first and last clustering of the index block being filled
+    private final Buffer firstClustering = new Buffer();
+    private final Buffer lastClustering = new Buffer();
+
+    private final int[] columns;
+
+    // position in the partition being rewritten, from the start of its key
+    private long position;
+    private long headerLength;
+    private long blockStart;
+    private long previousStart;
+    private int written;
+    private int columnIndexCount;
+    private int cells;
+
+    private long partitionMarkedForDeleteAt;
+    private int partitionLocalDeletionTime;
+
+    // deletion of the range tombstone open at the end of the last unfiltered
+    private boolean openMarker;
+    private long openMarkedForDeleteAt;
+    private int openLocalDeletionTime;
+
+    private long rowTimestamp;
+
+    public RawUnfilteredRewriter(final Layout layout, final int columnIndexSize, final RemovalMetrics metrics, final Listener listener) {
+        this.layout = layout;
+        this.columnIndexSize = columnIndexSize;
+        this.metrics = metrics;
+        this.listener = listener;
+        this.columns = new int[Math.max(layout.staticColumns.length, layout.regularColumns.length)];
+    }
+
+    /**
+     * Rewrites a partition without TTL.
+     *
+     * @param key partition key, the data file is positioned just after it
+     * @param in  data file, it is positioned after the partition once done
+     * @param out data file of the new SSTable, the whole partition including its key is written to it
+     */
+    public void rewrite(final ByteBuffer key, final DataInput in, final DataOutput out) throws IOException {
+        position = 0;
+        blockStart = -1;
+        previousStart = 0;
+        written = 0;
+        columnIndexCount = 0;
+        cells = 0;
+        openMarker = false;
+        index.reset();
+
+        header.reset();
+        header.writeShort(key.remaining());
+        header.write(key);
+
+        out.write(header.data, 0, header.length);
+        position += header.length;
+
+        // int local deletion time and long marked for delete at, written as they are
+        partitionLocalDeletionTime = in.readInt();
+        partitionMarkedForDeleteAt = in.readLong();
+
+        out.writeInt(partitionLocalDeletionTime);
+        out.writeLong(partitionMarkedForDeleteAt);
+        position += 12;
+
+        deletion(partitionMarkedForDeleteAt, partitionLocalDeletionTime);
+
+        if (layout.hasStatic()) {
+            // written even when the partition has no static row, it is not indexed
+            rewriteRow(in.readUnsignedByte(), in);
+            write(out, 0);
+        }
+
+        headerLength = position;
+
+        int flags;
+
+        while ((flags = in.readUnsignedByte()) != END_OF_PARTITION) {
+            if ((flags & IS_MARKER) != 0) {
+                rewriteMarker(in);
+            } else {
+                rewriteRow(flags, in);
+            }
+
+            final long start = position;
+
+            if (blockStart < 0) {
+                firstClustering.copyOf(clustering);
+                blockStart = start;
+            }
+
+            write(out, start - previousStart);
+
+            lastClustering.copyOf(clustering);
+            previousStart = start;
+            written++;
+
+            if (position - blockStart >= columnIndexSize) {
+                addIndexBlock();
+            }
+        }
+
+        out.writeByte(END_OF_PARTITION);
+        position++;
+
+        if (written > 0 && blockStart >= 0) {
+            addIndexBlock();
+        }
+
+        if (columnIndexCount > 1) {
+            for (int i = 0; i < columnIndexCount; i++) {
+                index.writeInt(indexOffsets[i]);
+            }
+        }
+    }
+
+    /**
+     * @return length of the partition key, deletion and static row of the last partition
+     */
+    public long headerLength() {
+        return headerLength;
+    }
+
+    /**
+     * @return number of cells of the last partition, including cells of its static row
+     */
+    public int cells() {
+        return cells;
+    }
+
+    public long partitionMarkedForDeleteAt() {
+        return partitionMarkedForDeleteAt;
+    }
+
+    public int partitionLocalDeletionTime() {
+        return partitionLocalDeletionTime;
+    }
+
+    /**
+     * @return number of blocks of the column index of the last partition, it is not indexed when there is at most one
+     */
+    public int columnIndexCount() {
+        return columnIndexCount;
+    }
+
+    /**
+     * @return serialised blocks of the column index of the last partition followed by their offsets,
+     * valid until the next partition is rewritten, or null when the partition is not indexed
+     */
+    public ByteBuffer indexInfo() {
+        return columnIndexCount > 1 ? ByteBuffer.wrap(index.data, 0, index.length) : null;
+    }
+
+    /**
+     * Rewrites a row to {@link #clustering}, {@link #header} and {@link #body}.
+     */
+    private void rewriteRow(final int flags, final DataInput in) throws IOException {
+        final int extendedFlags = (flags & EXTENSION_FLAG) != 0 ? in.readUnsignedByte() : 0;
+        final boolean isStatic = (extendedFlags & IS_STATIC) != 0;
+
+        clustering.reset();
+        header.reset();
+
+        header.write(flags & ~HAS_TTL);
+
+        if ((flags & EXTENSION_FLAG) != 0) {
+            header.write(extendedFlags);
+        }
+
+        if (!isStatic) {
+            clustering.write(CLUSTERING);
+            copyClusteringValues(in, clustering, layout.clusteringLengths.length);
+
+            listener.clustering(clustering.data, clustering.length);
+
+            // a clustering prefix starts with its kind, a row is written without it
+            header.write(clustering.data, 1, clustering.length - 1);
+        }
+
+        // size of the row and of the previous unfiltered, both are recomputed
+        readUnsignedVInt(in);
+        readUnsignedVInt(in);
+
+        body.reset();
+
+        rowTimestamp = NO_TIMESTAMP;
+
+        if ((flags & HAS_TIMESTAMP) != 0) {
+            rowTimestamp = copyUnsignedVInt(in, body) + layout.minTimestamp;
+            listener.liveness(rowTimestamp);
+        }
+
+        if ((flags & HAS_TTL) != 0) {
+            // ttl and local expiration time of the primary key liveness
+            readUnsignedVInt(in);
+            readUnsignedVInt(in);
+        }
+
+        if ((flags & HAS_DELETION) != 0) {
+            copyDeletion(in);
+        }
+
+        final Column[] superset = isStatic ? layout.staticColumns : layout.regularColumns;
+        final int columnCount = readColumns(in, superset, (flags & HAS_ALL_COLUMNS) != 0);
+        final boolean hasComplexDeletion = (flags & HAS_COMPLEX_DELETION) != 0;
+
+        int rowCells = 0;
+        int ttlCells = 0;
+        int columnsWithCells = 0;
+
+        for (int i = 0; i < columnCount; i++) {
+            final Column column = superset[columns[i]];
+
+            if (!column.complex) {
+                ttlCells += rewriteCell(in, column);
+                rowCells++;
+                columnsWithCells++;
+                continue;
+            }
+
+            if (hasComplexDeletion) {
+                copyDeletion(in);
+            }
+
+            final int complexCells = (int) copyUnsignedVInt(in, body);
+
+            for (int j = 0; j < complexCells; j++) {
+                ttlCells += rewriteCell(in, column);
+            }
+
+            rowCells += complexCells;
+
+            if (complexCells > 0) {
+                columnsWithCells++;
+            }
+        }
+
+        // partitions of a table with static columns carry an empty static row, which is not a row to count
+        if (isStatic && (flags & (HAS_TIMESTAMP | HAS_DELETION)) == 0 && columnCount == 0) {
+            return;
+        }
+
+        listener.row(columnsWithCells);
+        metrics.row(rowCells, ttlCells);
+        cells += rowCells;
+    }
+
+    /**
+     * @return 1 when the cell was expiring, 0 otherwise
+     */
+    private int rewriteCell(final DataInput in, final Column column) throws IOException {
+        final int flags = in.readUnsignedByte();
+
+        final boolean isDeleted = (flags & IS_DELETED) != 0;
+        final boolean isExpiring = (flags & IS_EXPIRING) != 0;
+        final boolean useRowTTL = (flags & USE_ROW_TTL) != 0;
+
+        body.write(flags & ~(IS_EXPIRING | USE_ROW_TTL));
+
+        final long timestamp = (flags & USE_ROW_TIMESTAMP) != 0 ? rowTimestamp : copyUnsignedVInt(in, body) + layout.minTimestamp;
+
+        int localDeletionTime = NO_DELETION_TIME;
+
+        if (isDeleted && !useRowTTL) {
+            localDeletionTime = (int) copyUnsignedVInt(in, body) + layout.minLocalDeletionTime;
+        } else if (isExpiring && !useRowTTL) {
+            // local expiration time and ttl
+            readUnsignedVInt(in);
+            readUnsignedVInt(in);
+        }
+
+        if (column.complex) {
+            // path of a cell of a collection or user type
+            body.copy(in, (int) copyUnsignedVInt(in, body));
+        }
+
+        listener.cell(timestamp, localDeletionTime);
+
+        if ((flags & HAS_EMPTY_VALUE) == 0) {
+            final int length = column.valueLength >= 0 ? column.valueLength : (int) copyUnsignedVInt(in, body);
+            final int offset = body.length;
+
+            body.copy(in, length);
+
+            if (column.counter && !isDeleted) {
+                listener.counterCell(body.data, offset, length);
+            }
+        }
+
+        return isExpiring || useRowTTL ? 1 : 0;
+    }
+
+    /**
+     * Rewrites a range tombstone marker to {@link #clustering}, {@link #header} and {@link #body}, it has no TTL,
+     * only its sizes change.
+     */
+    private void rewriteMarker(final DataInput in) throws IOException {
+        final int kind = in.readUnsignedByte();
+        final int size = in.readUnsignedShort();
+
+        clustering.reset();
+        header.reset();
+
+        clustering.write(kind);
+        clustering.writeShort(size);
+        copyClusteringValues(in, clustering, size);
+
+        listener.clustering(clustering.data, clustering.length);
+
+        header.write(IS_MARKER);
+        header.write(clustering.data, 0, clustering.length);
+
+        // size of the marker and of the previous unfiltered, both are recomputed
+        readUnsignedVInt(in);
+        readUnsignedVInt(in);
+
+        body.reset();
+
+        final boolean boundary = kind == EXCL_END_INCL_START_BOUNDARY || kind == INCL_END_EXCL_START_BOUNDARY;
+
+        if (boundary) {
+            // the end deletion of the closed range tombstone comes first
+            copyDeletion(in);
+        }
+
+        final long markedForDeleteAt = copyUnsignedVInt(in, body) + layout.minTimestamp;
+        final int localDeletionTime = (int) copyUnsignedVInt(in, body) + layout.minLocalDeletionTime;
+
+        deletion(markedForDeleteAt, localDeletionTime);
+
+        openMarker = boundary || kind == INCL_START_BOUND || kind == EXCL_START_BOUND;
+
+        if (openMarker) {
+            openMarkedForDeleteAt = markedForDeleteAt;
+            openLocalDeletionTime = localDeletionTime;
+
+            // a boundary closes one range tombstone and opens another one, so only opening markers are counted
+            metrics.rangeTombstone();
+        }
+    }
+
+    /**
+     * Writes the unfiltered from {@link #header} and {@link #body} with its sizes in between.
+     */
+    private void write(final DataOutput out, final long previousUnfilteredSize) throws IOException {
+        out.write(header.data, 0, header.length);
+        position += header.length;
+
+        header.reset();
+        header.writeUnsignedVInt(body.length + unsignedVIntSize(previousUnfilteredSize));
+        header.writeUnsignedVInt(previousUnfilteredSize);
+
+        out.write(header.data, 0, header.length);
+        out.write(body.data, 0, body.length);
+
+        position += header.length + body.length;
+        header.reset();
+    }
+
+    /**
+     * Serialises an index block as IndexInfo of Cassandra does.
+     */
+    private void addIndexBlock() {
+        if (columnIndexCount == indexOffsets.length) {
+            indexOffsets = Arrays.copyOf(indexOffsets, indexOffsets.length + 10);
+        }
+
+        indexOffsets[columnIndexCount++] = index.length;
+
+        index.write(firstClustering.data, 0, firstClustering.length);
+        index.write(lastClustering.data, 0, lastClustering.length);
+        index.writeUnsignedVInt(blockStart);
+        index.writeVInt(position - blockStart - WIDTH_BASE);
+        index.write(openMarker ? 1 : 0);
+
+        if (openMarker) {
+            index.writeInt(openLocalDeletionTime);
+            index.writeLong(openMarkedForDeleteAt);
+        }
+
+        blockStart = -1;
+    }
+
+    private int readColumns(final DataInput in, final Column[] superset, final boolean allColumns) throws IOException {
+        final int supersetCount = superset.length;
+
+        final long encoded = allColumns ? 0 : copyUnsignedVInt(in, body);
+
+        if (encoded == 0) {
+            for (int i = 0; i < supersetCount; i++) {
+                columns[i] = i;
+            }
+
+            return supersetCount;
+        }
+
+        int count = 0;
+
+        if (supersetCount < 64) {
+            // a bit is set for every missing column
+            for (int i = 0; i < supersetCount; i++) {
+                if ((encoded >>> i & 1) == 0) {
+                    columns[count++] = i;
+                }
+            }
+
+            return count;
+        }
+
+        final int missing = (int) encoded;
+        final int columnCount = supersetCount - missing;
+
+        if (columnCount < supersetCount / 2) {
+            // indexes of present columns
+            while (count < columnCount) {
+                columns[count++] = (int) copyUnsignedVInt(in, body);
+            }
+
+            return count;
+        }
+
+        // indexes of missing columns
+        int index = 0;
+        int skipped = 0;
+
+        while (true) {
+            final int nextMissing = skipped < missing ? (int) copyUnsignedVInt(in, body) : supersetCount;
+
+            while (index < nextMissing) {
+                columns[count++] = index++;
+            }
+
+            if (index == supersetCount) {
+                return count;
+            }
+
+            index++;
+            skipped++;
+        }
+    }
+
+    /**
+     * Copies values of a clustering, every 32 of them are preceded by a header telling which of them are null or empty.
+     */
+    private void copyClusteringValues(final DataInput in, final Buffer buffer, final int size) throws IOException {
+        int offset = 0;
+
+        while (offset < size) {
+            final long header = copyUnsignedVInt(in, buffer);
+            final int limit = Math.min(size, offset + 32);
+
+            while (offset < limit) {
+                final int shift = (offset % 32) * 2;
+
+                // neither null nor empty
+                if ((header >>> shift & 3) == 0) {
+                    final int length = layout.clusteringLengths[offset];
+
+                    buffer.copy(in, length >= 0 ? length : (int) copyUnsignedVInt(in, buffer));
+                }
+
+                offset++;
+            }
+        }
+    }
+
+    private void copyDeletion(final DataInput in) throws IOException {
+        final long markedForDeleteAt = copyUnsignedVInt(in, body) + layout.minTimestamp;
+        final int localDeletionTime = (int) copyUnsignedVInt(in, body) + layout.minLocalDeletionTime;
+
+        deletion(markedForDeleteAt, localDeletionTime);
+    }
+
+    private void deletion(final long markedForDeleteAt, final int localDeletionTime) {
+        if (markedForDeleteAt != Long.MIN_VALUE || localDeletionTime != NO_DELETION_TIME) {
+            listener.deletion(markedForDeleteAt, localDeletionTime);
+        }
+    }
+
+    private static long readUnsignedVInt(final DataInput in) throws IOException {
+        final int firstByte = in.readByte();
+
+        if (firstByte >= 0) {
+            return firstByte;
+        }
+
+        final int extraBytes = extraBytes(firstByte);
+
+        long value = firstByte & (0xff >> extraBytes);
+
+        for (int i = 0; i < extraBytes; i++) {
+            value = value << 8 | in.readUnsignedByte();
+        }
+
+        return value;
+    }
+
+    /**
+     * Copies an unsigned varint as it is, so the copy does not depend on how it was encoded.
+     */
+    private static long copyUnsignedVInt(final DataInput in, final Buffer buffer) throws IOException {
+        final int firstByte = in.readByte();
+
+        buffer.write(firstByte);
+
+        if (firstByte >= 0) {
+            return firstByte;
+        }
+
+        final int extraBytes = extraBytes(firstByte);
+
+        long value = firstByte & (0xff >> extraBytes);
+
+        for (int i = 0; i < extraBytes; i++) {
+            final int next = in.readUnsignedByte();
+
+            buffer.write(next);
+            value = value << 8 | next;
+        }
+
+        return value;
+    }
+
+    // the number of leading ones of the first byte of a varint
+    private static int extraBytes(final int firstByte) {
+        return Integer.numberOfLeadingZeros(~firstByte) - 24;
+    }
+
+    private static int unsignedVIntSize(final long value) {
+        return (639 - Long.numberOfLeadingZeros(value | 1) * 9) >> 6;
+    }
+
+    /**
+     * Layout of rows of a table as the serialization header of an SSTable describes it.
+     */
+    public static final class Layout {
+
+        private final int[] clusteringLengths;
+
+        private final Column[] staticColumns;
+
+        private final Column[] regularColumns;
+
+        private final long minTimestamp;
+
+        private final int minLocalDeletionTime;
+
+        /**
+         * @param clusteringLengths    fixed lengths of values of clustering columns, -1 for values of variable length
+         * @param staticColumns        static columns in the order of the header
+         * @param regularColumns       regular columns in the order of the header
+         * @param minTimestamp         timestamps are serialised relative to it
+         * @param minLocalDeletionTime local deletion times are serialised relative to it
+         */
+        public Layout(final int[] clusteringLengths,
+                      final Column[] staticColumns,
+                      final Column[] regularColumns,
+                      final long minTimestamp,
+                      final int minLocalDeletionTime) {
+            this.clusteringLengths = clusteringLengths;
+            this.staticColumns = staticColumns;
+            this.regularColumns = regularColumns;
+            this.minTimestamp = minTimestamp;
+            this.minLocalDeletionTime = minLocalDeletionTime;
+        }
+
+        private boolean hasStatic() {
+            return staticColumns.length > 0;
+        }
+    }
+
+    public static final class Column {
+
+        private final int valueLength;
+
+        private final boolean complex;
+
+        private final boolean counter;
+
+        /**
+         * @param valueLength fixed length of values of the column, -1 for values of variable length
+         * @param complex     whether the column is a collection or a user type which is not frozen
+         * @param counter     whether the column is a counter
+         */
+        public Column(final int valueLength, final boolean complex, final boolean counter) {
+            this.valueLength = valueLength;
+            this.complex = complex;
+            this.counter = counter;
+        }
+    }
+
+    /**
+     * Collects statistics of the new SSTable from rewritten partitions, everything it is handed over is without TTL.
+     */
+    public interface Listener {
+
+        /**
+         * @param prefix clustering of a row or bound of a range tombstone marker, serialised as a clustering prefix
+         */
+        void clustering(byte[] prefix, int length) throws IOException;
+
+        /**
+         * @param timestamp of the primary key liveness of a row
+         */
+        void liveness(long timestamp);
+
+        /**
+         * A deletion of a partition, row, complex column or range tombstone, live deletions are not handed over.
+         */
+        void deletion(long markedForDeleteAt, int localDeletionTime);
+
+        /**
+         * @param localDeletionTime local deletion time of a tombstone, {@link Integer#MAX_VALUE} for a live cell
+         */
+        void cell(long timestamp, int localDeletionTime);
+
+        /**
+         * @param value value of a live counter cell, valid only during the call
+         */
+        void counterCell(byte[] value, int offset, int length);
+
+        /**
+         * Called once all cells of a row which is not empty have been handed over.
+         *
+         * @param columns number of columns of the row with a cell
+         */
+        void row(int columns);
+    }
+
+    /**
+     * Growable buffer an unfiltered or index blocks are written to, it is reused for all partitions.
+     */
+    private static final class Buffer {
+
+        private byte[] data = new byte[256];
+
+        private int length;
+
+        private void reset() {
+            length = 0;
+        }
+
+        private void write(final int b) {
+            ensureCapacity(1);
+            data[length++] = (byte) b;
+        }
+
+        private void write(final byte[] bytes, final int offset, final int count) {
+            ensureCapacity(count);
+            System.arraycopy(bytes, offset, data, length, count);
+            length += count;
+        }
+
+        private void write(final ByteBuffer bytes) {
+            ensureCapacity(bytes.remaining());
+            bytes.duplicate().get(data, length, bytes.remaining());
+            length += bytes.remaining();
+        }
+
+        private void writeShort(final int value) {
+            write(value >>> 8);
+            write(value);
+        }
+
+        private void writeInt(final int value) {
+            writeShort(value >>> 16);
+            writeShort(value);
+        }
+
+        private void writeLong(final long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        private void writeUnsignedVInt(long value) {
+            final int size = unsignedVIntSize(value);
+
+            if (size == 1) {
+                write((int) value);
+                return;
+            }
+
+            ensureCapacity(size);
+
+            for (int i = size - 1; i >= 0; i--) {
+                data[length + i] = (byte) value;
+                value >>= 8;
+            }
+
+            data[length] |= (byte) ~(0xff >> (size - 1));
+            length += size;
+        }
+
+        private void writeVInt(final long value) {
+            // zig-zag encoding keeps small negative values short
+            writeUnsignedVInt(value << 1 ^ value >> 63);
+        }
+
+        private void copy(final DataInput in, final int count) throws IOException {
+            ensureCapacity(count);
+            in.readFully(data, length, count);
+            length += count;
+        }
+
+        private void copyOf(final Buffer other) {
+            reset();
+            write(other.data, 0, other.length);
+        }
+
+        private void ensureCapacity(final int count) {
+            if (length + count > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + count));
+            }
+        }
+    }
+}
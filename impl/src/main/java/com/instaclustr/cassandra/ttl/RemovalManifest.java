@@ -0,0 +1,353 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.lang.String.format;
+import static java.util.stream.Collectors.toList;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import com.instaclustr.cassandra.ttl.cli.TTLRemovalException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records every output SSTable a removal started and every input SSTable it completed, so a run which died half way
+ * can be resumed without redoing finished SSTables.
+ *
+ * The manifest lives in the output directory and has two kinds of lines with tab separated fields. A {@code started}
+ * line holds the absolute path of the Data.db of an input and the Data.db of one of its outputs relative to the output
+ * directory, it is appended and synced before anything is written to that output. A {@code completed} line holds
+ * the input, its size and modification time in milliseconds, the outcome and Data.db files of all its outputs,
+ * it is appended and synced once all of them are finished. A line torn by a crash is simply ignored.
+ *
+ * An input SSTable counts as completed only while its size and modification time match the manifest and all
+ * its outputs exist. On resume, only outputs which were started but are not kept by a completed input are deleted,
+ * together with transaction logs referring to them, nothing else in the output directory is touched.
+ */
+public final class RemovalManifest implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RemovalManifest.class);
+
+    public static final String FILE_NAME = "ttl-removal-manifest.tsv";
+
+    private static final String STARTED = "started";
+
+    private static final String COMPLETED = "completed";
+
+    private static final String HEADER = "# " + STARTED + "\tinput\toutput\n"
+        + "# " + COMPLETED + "\tinput\tsize\tmodified\toutcome\toutputs...\n";
+
+    private static final String DATA_COMPONENT = "Data.db";
+
+    private final Path outputDirectory;
+
+    private final FileChannel channel;
+
+    // completed inputs by their absolute path as read from the manifest
+    private final Map<String, Entry> entries;
+
+    // absolute paths of inputs by their outputs started by previous runs, relative to the output directory
+    private final Map<String, String> started;
+
+    private RemovalManifest(final Path outputDirectory, final FileChannel channel, final Map<String, Entry> entries, final Map<String, String> started) {
+        this.outputDirectory = outputDirectory;
+        this.channel = channel;
+        this.entries = entries;
+        this.started = started;
+    }
+
+    /**
+     * @param manifestFile path to the manifest, its parent is the output directory of the removal
+     * @param resume       whether SSTables completed by previous runs are kept, the manifest is started over otherwise
+     */
+    public static RemovalManifest open(final Path manifestFile, final boolean resume) throws TTLRemovalException {
+        final Path file = manifestFile.toAbsolutePath().normalize();
+
+        try {
+            Files.createDirectories(file.getParent());
+
+            final Map<String, Entry> entries = new HashMap<>();
+            final Map<String, String> started = new LinkedHashMap<>();
+
+            if (resume && Files.exists(file)) {
+                read(file, entries, started);
+            }
+
+            if (resume) {
+                logger.info(format("Resuming removal, %s SSTable(s) were completed according to %s", entries.size(), file));
+            }
+
+            // a line torn by a crash is terminated, so it does not swallow the next one
+            final boolean torn = resume && Files.exists(file) && !endsWithNewLine(file);
+
+            final FileChannel channel;
+
+            if (resume) {
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            } else {
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+
+            final RemovalManifest manifest = new RemovalManifest(file.getParent(), channel, entries, started);
+
+            if (channel.size() == 0) {
+                manifest.append(HEADER);
+            } else if (torn) {
+                manifest.append("\n");
+            }
+
+            return manifest;
+        } catch (final IOException ex) {
+            throw new TTLRemovalException(format("Unable to open manifest %s", file), ex);
+        }
+    }
+
+    /**
+     * @return whether the SSTable was completed by a previous run and has not changed since
+     */
+    public boolean isCompleted(final Path sstable) {
+        final Entry entry = entries.get(key(sstable));
+
+        return entry != null && entry.isValid(outputDirectory);
+    }
+
+    /**
+     * Records an output of an SSTable as started, before anything is written to it.
+     *
+     * @param output Data.db file of the output SSTable
+     */
+    public synchronized void started(final Path sstable, final Path output) throws TTLRemovalException {
+        try {
+            append(STARTED + '\t' + key(sstable) + '\t' + relativize(output) + '\n');
+        } catch (final IOException ex) {
+            throw new TTLRemovalException(format("Unable to record output %s of SSTable %s in manifest", output, sstable), ex);
+        }
+    }
+
+    /**
+     * Records an SSTable as completed, once all its outputs are finished.
+     *
+     * @param outputs Data.db files of output SSTables, they are kept when the removal is resumed
+     */
+    public synchronized void completed(final Path sstable, final SSTableOutcome outcome, final Collection<Path> outputs) throws TTLRemovalException {
+        final StringBuilder line = new StringBuilder(COMPLETED).append('\t');
+
+        try {
+            line.append(key(sstable)).append('\t')
+                .append(Files.size(sstable)).append('\t')
+                .append(Files.getLastModifiedTime(sstable).toMillis()).append('\t')
+                .append(outcome.name());
+
+            for (final Path output : outputs) {
+                line.append('\t').append(relativize(output));
+            }
+
+            append(line.append('\n').toString());
+        } catch (final IOException ex) {
+            throw new TTLRemovalException(format("Unable to record SSTable %s in manifest", sstable), ex);
+        }
+    }
+
+    /**
+     * Deletes outputs which previous runs started but did not complete, or completed for an input which changed since,
+     * and transaction logs referring to them.
+     */
+    public void removeLeftovers() throws TTLRemovalException {
+        final Set<String> kept = new LinkedHashSet<>();
+
+        for (final Entry entry : entries.values()) {
+            if (entry.isValid(outputDirectory)) {
+                kept.addAll(entry.outputs);
+            }
+        }
+
+        for (final Map.Entry<String, String> output : started.entrySet()) {
+            final Path dataFile = outputDirectory.resolve(output.getKey()).normalize();
+
+            // inputs are never deleted, even when the output directory overlaps with them
+            if (!kept.contains(output.getKey()) && !started.containsValue(dataFile.toString()) && !entries.containsKey(dataFile.toString())) {
+                removeLeftover(dataFile);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws TTLRemovalException {
+        try {
+            channel.close();
+        } catch (final IOException ex) {
+            throw new TTLRemovalException("Unable to close manifest", ex);
+        }
+    }
+
+    private void removeLeftover(final Path dataFile) throws TTLRemovalException {
+        final Path directory = dataFile.getParent();
+
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        final String name = dataFile.getFileName().toString();
+        // all components share the prefix of the Data.db file, temporary ones of Cassandra 2 are prefixed by tmp- or tmplink-
+        final String prefix = name.substring(0, name.length() - DATA_COMPONENT.length());
+        // transaction logs refer to the SSTable by its directory and prefix without the trailing dash
+        final String reference = directory.resolve(prefix.substring(0, prefix.length() - 1)).toString();
+
+        final List<Path> files;
+
+        try (final Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(Files::isRegularFile).collect(toList());
+        } catch (final IOException ex) {
+            throw new TTLRemovalException(format("Unable to list %s", directory), ex);
+        }
+
+        for (final Path file : files) {
+            final String fileName = file.getFileName().toString();
+
+            if (fileName.startsWith(prefix) || fileName.startsWith("tmp-" + prefix) || fileName.startsWith("tmplink-" + prefix)
+                || isTransactionLog(fileName) && refersTo(file, reference)) {
+                try {
+                    logger.info(format("Deleting %s left behind by a previous run", file));
+                    Files.deleteIfExists(file);
+                } catch (final IOException ex) {
+                    throw new TTLRemovalException(format("Unable to delete %s left behind by a previous run", file), ex);
+                }
+            }
+        }
+    }
+
+    private static boolean isTransactionLog(final String fileName) {
+        return fileName.contains("_txn_") && fileName.endsWith(".log");
+    }
+
+    private static boolean refersTo(final Path transactionLog, final String reference) throws TTLRemovalException {
+        final String content;
+
+        try {
+            content = new String(Files.readAllBytes(transactionLog), StandardCharsets.UTF_8);
+        } catch (final IOException ex) {
+            throw new TTLRemovalException(format("Unable to read transaction log %s", transactionLog), ex);
+        }
+
+        // md-5-big must not match records of md-50-big
+        for (int index = content.indexOf(reference); index >= 0; index = content.indexOf(reference, index + 1)) {
+            final int next = index + reference.length();
+
+            if (next == content.length() || !Character.isLetterOrDigit(content.charAt(next))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void append(final String line) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+        channel.force(false);
+    }
+
+    private String relativize(final Path output) {
+        return outputDirectory.relativize(output.toAbsolutePath().normalize()).toString();
+    }
+
+    private static boolean endsWithNewLine(final Path file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer last = ByteBuffer.allocate(1);
+
+            return channel.size() == 0 || channel.read(last, channel.size() - 1) == 1 && last.get(0) == '\n';
+        }
+    }
+
+    private static String key(final Path sstable) {
+        return sstable.toAbsolutePath().normalize().toString();
+    }
+
+    private static void read(final Path file, final Map<String, Entry> entries, final Map<String, String> started) throws IOException {
+        for (final String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.startsWith("#") || line.trim().isEmpty()) {
+                continue;
+            }
+
+            final String[] fields = line.split("\t");
+
+            try {
+                if (STARTED.equals(fields[0]) && fields.length == 3) {
+                    started.put(fields[2], fields[1]);
+                } else if (COMPLETED.equals(fields[0]) && fields.length >= 5) {
+                    final List<String> outputs = new ArrayList<>();
+
+                    for (int i = 5; i < fields.length; i++) {
+                        outputs.add(fields[i]);
+                    }
+
+                    SSTableOutcome.valueOf(fields[4]);
+
+                    entries.put(fields[1], new Entry(fields[1], Long.parseLong(fields[2]), Long.parseLong(fields[3]), outputs));
+                } else {
+                    throw new IllegalArgumentException(line);
+                }
+            } catch (final RuntimeException ex) {
+                // the last line might be torn by a crash while it was written
+                logger.warn(format("Ignoring malformed line of manifest %s: %s", file, line));
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        private final String input;
+
+        private final long size;
+
+        private final long modified;
+
+        private final List<String> outputs;
+
+        private Entry(final String input, final long size, final long modified, final List<String> outputs) {
+            this.input = input;
+            this.size = size;
+            this.modified = modified;
+            this.outputs = outputs;
+        }
+
+        private boolean isValid(final Path outputDirectory) {
+            try {
+                final Path sstable = outputDirectory.getFileSystem().getPath(input);
+
+                if (Files.size(sstable) != size || Files.getLastModifiedTime(sstable).toMillis() != modified) {
+                    return false;
+                }
+            } catch (final IOException ex) {
+                // the SSTable is gone, e.g. it was compacted by a live node in the meantime
+                return false;
+            }
+
+            for (final String output : outputs) {
+                if (!Files.exists(outputDirectory.resolve(output))) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.instaclustr.cassandra.ttl.cli.TTLRemovalException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counters of a TTL removal run, updated concurrently by all workers.
+ *
+ * Bytes read are positions in uncompressed data files as reported by scanners. Progress and ETA are computed
+ * from sizes of data files on disk, so every read byte is scaled by the compression ratio of its SSTable.
+ */
+public class RemovalMetrics implements RemovalMetricsMBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(RemovalMetrics.class);
+
+    public static final String OBJECT_NAME = "com.instaclustr.cassandra.ttl:type=RemovalMetrics";
+
+    private static final double MIB = 1024 * 1024;
+
+    private final LongAdder partitions = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder cells = new LongAdder();
+    private final LongAdder rangeTombstones = new LongAdder();
+    private final LongAdder ttlCellsStripped = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder progressBytes = new LongAdder();
+
+    private volatile long inputBytes;
+    private volatile long startNanos = System.nanoTime();
+
+    /**
+     * @param onDiskLength       size of a data file on disk
+     * @param uncompressedLength length of the same data file as seen by its scanner
+     * @return ratio to scale scanner positions to bytes on disk with
+     */
+    public static double onDiskRatio(final long onDiskLength, final long uncompressedLength) {
+        return uncompressedLength <= 0 ? 1.0 : (double) onDiskLength / uncompressedLength;
+    }
+
+    public void row(final long cells, final long ttlCellsStripped) {
+        rows.increment();
+        cellsProcessed(cells, ttlCellsStripped);
+    }
+
+    public void cellsProcessed(final long cells, final long ttlCellsStripped) {
+        this.cells.add(cells);
+
+        if (ttlCellsStripped != 0) {
+            this.ttlCellsStripped.add(ttlCellsStripped);
+        }
+    }
+
+    public void rangeTombstone() {
+        rangeTombstones.increment();
+    }
+
+    public void partitionRewritten(final long bytesRead, final double onDiskRatio, final long bytesWritten) {
+        partitions.increment();
+        this.bytesRead.add(bytesRead);
+        this.bytesWritten.add(bytesWritten);
+        progressBytes.add((long) (bytesRead * onDiskRatio));
+    }
+
+    /**
+     * Marks the rest of an SSTable as processed, e.g. when it was linked instead of being rewritten.
+     */
+    public void completed(final long onDiskBytes) {
+        progressBytes.add(onDiskBytes);
+    }
+
+    void start(final long inputBytes) {
+        this.inputBytes = inputBytes;
+        this.startNanos = System.nanoTime();
+    }
+
+    void register() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+
+            // removal might be run repeatedly in the same JVM, e.g. in tests
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+
+            server.registerMBean(this, name);
+        } catch (final Exception ex) {
+            logger.warn(format("Unable to register %s, metrics are not available over JMX", OBJECT_NAME), ex);
+        }
+    }
+
+    void unregister() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (final Exception ex) {
+            logger.warn(format("Unable to unregister %s", OBJECT_NAME), ex);
+        }
+    }
+
+    @Override
+    public long getPartitions() {
+        return partitions.sum();
+    }
+
+    @Override
+    public long getRows() {
+        return rows.sum();
+    }
+
+    @Override
+    public long getCells() {
+        return cells.sum();
+    }
+
+    @Override
+    public long getRangeTombstones() {
+        return rangeTombstones.sum();
+    }
+
+    @Override
+    public long getTTLCellsStripped() {
+        return ttlCellsStripped.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * Bytes written to output SSTables on disk per byte of uncompressed data read, i.e. the compression ratio
+     * of output SSTables as rows without TTL are about as long as the rows they were rewritten from.
+     */
+    @Override
+    public double getOutputCompressionRatio() {
+        final long read = getBytesRead();
+        return read == 0 ? 1.0 : (double) getBytesWritten() / read;
+    }
+
+    @Override
+    public long getInputBytes() {
+        return inputBytes;
+    }
+
+    @Override
+    public double getProgressPercent() {
+        return inputBytes == 0 ? 100.0 : Math.min(100.0, 100.0 * progressBytes.sum() / inputBytes);
+    }
+
+    @Override
+    public double getPartitionsPerSecond() {
+        return perSecond(getPartitions());
+    }
+
+    @Override
+    public double getReadMiBPerSecond() {
+        return perSecond(getBytesRead()) / MIB;
+    }
+
+    @Override
+    public double getWriteMiBPerSecond() {
+        return perSecond(getBytesWritten()) / MIB;
+    }
+
+    @Override
+    public long getEtaSeconds() {
+        final long progress = progressBytes.sum();
+        final double rate = perSecond(progress);
+
+        if (rate <= 0) {
+            return -1;
+        }
+
+        return (long) (Math.max(0, inputBytes - progress) / rate);
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private double perSecond(final long value) {
+        final long elapsedMillis = getElapsedMillis();
+        return elapsedMillis == 0 ? 0 : value * 1000.0 / elapsedMillis;
+    }
+
+    public void writeReport(final Path reportFile, final RemovalSummary summary) throws TTLRemovalException {
+        try {
+            Files.createDirectories(reportFile.toAbsolutePath().getParent());
+            Files.write(reportFile, toJson(summary).getBytes(StandardCharsets.UTF_8));
+        } catch (final IOException ex) {
+            throw new TTLRemovalException(format("Unable to write report to %s", reportFile), ex);
+        }
+    }
+
+    public String toJson(final RemovalSummary summary) {
+        final StringBuilder sb = new StringBuilder();
+
+        sb.append("{\n");
+        sb.append(format(Locale.ROOT, "  \"elapsedMillis\": %d,\n", summary.getElapsedMillis()));
+
+        sb.append("  \"sstables\": {\n");
+
+        for (final SSTableOutcome outcome : SSTableOutcome.values()) {
+            sb.append(format(Locale.ROOT, "    \"%s\": %d,\n", outcome.name().toLowerCase(Locale.ROOT), summary.count(outcome)));
+        }
+
+        sb.setLength(sb.length() - 2);
+        sb.append("\n  },\n");
+
+        sb.append(format(Locale.ROOT, "  \"partitions\": %d,\n", getPartitions()));
+        sb.append(format(Locale.ROOT, "  \"rows\": %d,\n", getRows()));
+        sb.append(format(Locale.ROOT, "  \"cells\": %d,\n", getCells()));
+        sb.append(format(Locale.ROOT, "  \"rangeTombstones\": %d,\n", getRangeTombstones()));
+        sb.append(format(Locale.ROOT, "  \"ttlCellsStripped\": %d,\n", getTTLCellsStripped()));
+        sb.append(format(Locale.ROOT, "  \"inputBytes\": %d,\n", getInputBytes()));
+        sb.append(format(Locale.ROOT, "  \"bytesRead\": %d,\n", getBytesRead()));
+        sb.append(format(Locale.ROOT, "  \"bytesWritten\": %d,\n", getBytesWritten()));
+        sb.append(format(Locale.ROOT, "  \"outputCompressionRatio\": %.3f,\n", getOutputCompressionRatio()));
+        sb.append(format(Locale.ROOT, "  \"partitionsPerSecond\": %.2f,\n", getPartitionsPerSecond()));
+        sb.append(format(Locale.ROOT, "  \"readMiBPerSecond\": %.2f,\n", getReadMiBPerSecond()));
+        sb.append(format(Locale.ROOT, "  \"writeMiBPerSecond\": %.2f\n", getWriteMiBPerSecond()));
+        sb.append("}\n");
+
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        final long eta = getEtaSeconds();
+
+        return format(Locale.ROOT,
+                      "%.1f%% of %.1f MiB, %d partitions (%.0f/s), %d rows, %d cells, %d range tombstones, %d TTL cells stripped, "
+                          + "read %.1f MiB (%.1f MiB/s), written %.1f MiB (%.1f MiB/s), compression ratio %.2f, ETA %s",
+                      getProgressPercent(),
+                      getInputBytes() / MIB,
+                      getPartitions(),
+                      getPartitionsPerSecond(),
+                      getRows(),
+                      getCells(),
+                      getRangeTombstones(),
+                      getTTLCellsStripped(),
+                      getBytesRead() / MIB,
+                      getReadMiBPerSecond(),
+                      getBytesWritten() / MIB,
+                      getWriteMiBPerSecond(),
+                      getOutputCompressionRatio(),
+                      eta < 0 ? "unknown" : format("%02d:%02d:%02d", eta / 3600, (eta % 3600) / 60, eta % 60));
+    }
+}
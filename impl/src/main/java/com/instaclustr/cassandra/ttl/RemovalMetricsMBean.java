@@ -0,0 +1,35 @@
+package com.instaclustr.cassandra.ttl;
+
+/**
+ * Progress of a running TTL removal, registered as {@value RemovalMetrics#OBJECT_NAME}.
+ */
+public interface RemovalMetricsMBean {
+
+    long getPartitions();
+
+    long getRows();
+
+    long getCells();
+
+    long getRangeTombstones();
+
+    long getTTLCellsStripped();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    double getOutputCompressionRatio();
+
+    long getInputBytes();
+
+    double getProgressPercent();
+
+    double getPartitionsPerSecond();
+
+    double getReadMiBPerSecond();
+
+    double getWriteMiBPerSecond();
+
+    long getEtaSeconds();
+}
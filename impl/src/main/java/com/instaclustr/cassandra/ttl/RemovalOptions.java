@@ -0,0 +1,141 @@
+package com.instaclustr.cassandra.ttl;
+
+import java.nio.file.Path;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Tuning knobs for a TTL removal run which are common to all Cassandra versions.
+ */
+public class RemovalOptions {
+
+    /**
+     * Number of threads rewriting SSTables, or token ranges of split SSTables, concurrently.
+     */
+    public int threads = 1;
+
+    /**
+     * Number of token ranges a single SSTable is split to, every range is rewritten into its own SSTable, concurrently
+     * as long as there are idle workers.
+     */
+    public int tokenRanges = 1;
+
+    /**
+     * Number of partitions queued between the read and write stages of a rewrite, see {@link RewritePipeline}.
+     * When it is 0, partitions are rewritten on a single thread without being held in memory as a whole.
+     * For Cassandra 2, only the raw rewrite is pipelined, cells are rewritten on one thread and written on another one.
+     * For Cassandra 3 and 4, the raw rewrite is not pipelined.
+     */
+    public int pipelineQueueSize;
+
+    /**
+     * Serialized size in bytes of the largest partition a pipeline holds in memory, SSTables with bigger partitions
+     * are rewritten on a single thread. Up to the queue size of partitions plus two more are held per SSTable.
+     */
+    public long maxBufferedPartitionSize = 64L * 1024 * 1024;
+
+    /**
+     * Size on disk in bytes after which an output SSTable is finished and a new one is started.
+     */
+    public long maxOutputSSTableSize = Long.MAX_VALUE;
+
+    /**
+     * Compression of output SSTables, by default they are compressed as their tables are.
+     */
+    public OutputCompression outputCompression = OutputCompression.TABLE;
+
+    /**
+     * What to do with SSTables which do not contain any TTL.
+     */
+    public TTLFreeAction ttlFreeAction = TTLFreeAction.LINK;
+
+    /**
+     * Whether cells of SSTables are rewritten at the byte level, without being deserialised. SSTables of Cassandra 3 and 4
+     * are rewritten by {@link RawUnfilteredRewriter}.
+     */
+    public boolean rawRewrite;
+
+    /**
+     * Number of chunks of a compressed Cassandra 2 SSTable decompressed ahead of the raw rewrite on a pool of threads.
+     * When it is 0, chunks are decompressed by the rewriting thread as they are read.
+     */
+    public int prefetchChunks;
+
+    /**
+     * Number of chunks of a compressed Cassandra 2 output SSTable compressed ahead of its writer on a pool of threads.
+     * When it is 0, chunks are compressed by the writing thread as they are filled.
+     */
+    public int compressChunks;
+
+    /**
+     * How input SSTables are read, when not set, the access mode of the byte-buddy agent or of cassandra.yaml is used.
+     */
+    public AccessMode accessMode;
+
+    /**
+     * Whether pages of input and output SSTables are dropped from the page cache as they are rewritten.
+     */
+    public boolean dropPageCache;
+
+    /**
+     * Limits of bytes read and written per second, shared by all threads of a removal.
+     */
+    public IOThrottle throttle = new IOThrottle(0, 0);
+
+    /**
+     * Whether the throttle backs off while devices holding input SSTables are busier than allowed.
+     */
+    public boolean adaptiveThrottle;
+
+    /**
+     * Utilisation of a device in percent above which the adaptive throttle backs off.
+     */
+    public int maxDiskUtilisation = 70;
+
+    /**
+     * Mean read latency of a device in milliseconds above which the adaptive throttle backs off.
+     */
+    public int maxReadLatencyMillis = 20;
+
+    /**
+     * Schemas of tables read from a schema file, when not set, CQL statement passed to a remover is used for all tables.
+     */
+    public TableSchemas tableSchemas;
+
+    /**
+     * Seconds between two progress log lines, progress is not logged when it is 0.
+     */
+    public int progressIntervalSeconds = 30;
+
+    /**
+     * File a JSON report with metrics of the run is written to at the end, the report is not written when not set.
+     */
+    public Path reportFile;
+
+    /**
+     * Path to the manifest of completed SSTables, when not set, no manifest is written and a removal can not be resumed.
+     */
+    public Path manifestFile;
+
+    /**
+     * Whether SSTables completed according to the manifest are skipped and leftovers of an aborted run are deleted.
+     */
+    public boolean resume;
+
+    /**
+     * Counters updated by removers, exposed over JMX while the removal runs.
+     */
+    public RemovalMetrics metrics = new RemovalMetrics();
+
+    private Semaphore idleWorkers;
+
+    /**
+     * @return permits of {@link #threads} workers, one is held by every thread which rewrites an SSTable or a token range
+     */
+    public synchronized Semaphore idleWorkers() {
+        if (idleWorkers == null) {
+            idleWorkers = new Semaphore(threads);
+        }
+
+        return idleWorkers;
+    }
+}
@@ -0,0 +1,104 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.lang.String.format;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sorts SSTables into those which need to be rewritten and those which are already free of TTLs.
+ *
+ * The decision is based on the Statistics component only, so it is cheap compared to opening an SSTable.
+ * When the statistics can not be read, the SSTable is rewritten to be on the safe side.
+ */
+public class RemovalPlanner {
+
+    private static final Logger logger = LoggerFactory.getLogger(RemovalPlanner.class);
+
+    public interface TTLFreePredicate {
+
+        boolean isTTLFree(final Path sstable) throws Exception;
+    }
+
+    public static RemovalPlan plan(final Collection<Path> sstables, final TTLFreePredicate predicate, final TTLFreeAction action) {
+        final List<Path> toRewrite = new ArrayList<>();
+        final Set<Path> ttlFree = new HashSet<>();
+
+        for (final Path sstable : sstables) {
+            try {
+                if (predicate.isTTLFree(sstable)) {
+                    ttlFree.add(sstable);
+                    continue;
+                }
+            } catch (final Exception ex) {
+                logger.warn(format("Unable to read statistics of SSTable %s, it will be rewritten.", sstable), ex);
+            }
+
+            toRewrite.add(sstable);
+        }
+
+        logger.info(format("%s SSTable(s) need to be rewritten, %s SSTable(s) do not contain any TTL and will be handled by action %s",
+                           toRewrite.size(),
+                           ttlFree.size(),
+                           action.name().toLowerCase(Locale.ROOT)));
+
+        return new RemovalPlan(toRewrite, ttlFree, action);
+    }
+
+    public static class RemovalPlan {
+
+        private final List<Path> toRewrite;
+        private final Set<Path> ttlFree;
+        private final TTLFreeAction action;
+
+        RemovalPlan(final List<Path> toRewrite, final Set<Path> ttlFree, final TTLFreeAction action) {
+            this.toRewrite = Collections.unmodifiableList(toRewrite);
+            this.ttlFree = Collections.unmodifiableSet(ttlFree);
+            this.action = action;
+        }
+
+        public List<Path> getToRewrite() {
+            return toRewrite;
+        }
+
+        public Set<Path> getTTLFree() {
+            return ttlFree;
+        }
+
+        public boolean isTTLFree(final Path sstable) {
+            return ttlFree.contains(sstable);
+        }
+
+        /**
+         * Applies the configured action to an SSTable which does not contain any TTL.
+         *
+         * @param outputs Data.db file of the linked or copied SSTable is added to them
+         */
+        public SSTableOutcome handleTTLFree(final Path sstable, final Path destinationDir, final Collection<Path> outputs) throws Exception {
+            switch (action) {
+                case SKIP:
+                    logger.info(format("SSTable %s does not contain any TTL, skipping it", sstable));
+                    return SSTableOutcome.SKIPPED;
+                case COPY:
+                    logger.info(format("SSTable %s does not contain any TTL, copying it to %s", sstable, destinationDir));
+                    outputs.add(destinationDir.resolve(sstable.getFileName()));
+                    SSTableFiles.copy(sstable, destinationDir);
+                    return SSTableOutcome.COPIED;
+                case LINK:
+                default:
+                    logger.info(format("SSTable %s does not contain any TTL, linking it to %s", sstable, destinationDir));
+                    outputs.add(destinationDir.resolve(sstable.getFileName()));
+                    return SSTableFiles.linkOrCopy(sstable, destinationDir);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.lang.String.format;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Outcome of a whole removal run, gathered from all SSTables which were processed.
+ */
+public class RemovalSummary {
+
+    private final Map<SSTableOutcome, Integer> outcomes = new EnumMap<>(SSTableOutcome.class);
+    private final Map<Path, Throwable> failures = new LinkedHashMap<>();
+
+    private long elapsedMillis;
+
+    public synchronized void record(final Path sstable, final SSTableOutcome outcome) {
+        outcomes.merge(outcome, 1, Integer::sum);
+    }
+
+    public synchronized void recordFailure(final Path sstable, final Throwable cause) {
+        record(sstable, SSTableOutcome.FAILED);
+        failures.put(sstable, cause);
+    }
+
+    public synchronized int count(final SSTableOutcome outcome) {
+        return outcomes.getOrDefault(outcome, 0);
+    }
+
+    public synchronized Map<Path, Throwable> getFailures() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+    }
+
+    public synchronized boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    void setElapsedMillis(final long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder sb = new StringBuilder();
+
+        sb.append(format("TTL removal finished in %s ms:", elapsedMillis));
+
+        for (final SSTableOutcome outcome : SSTableOutcome.values()) {
+            sb.append(format(" %s %s,", count(outcome), outcome.name().toLowerCase(Locale.ROOT)));
+        }
+
+        sb.setLength(sb.length() - 1);
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,205 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.lang.String.format;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.instaclustr.cassandra.ttl.cli.TTLRemovalException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs reading and writing of partitions of an SSTable as two stages, each on its own thread, connected by
+ * a bounded queue, so decompression, deserialisation and removal of TTL of the input overlap with serialisation
+ * and compression of the output.
+ *
+ * Items passed between stages have to be independent of the stage which produced them, e.g. partitions are
+ * materialised by the read stage, as a scanner can not be read on another thread while it is being advanced,
+ * which is also why TTL is removed by the read stage rather than by a stage of its own.
+ * The queue bounds memory to {@code capacity} items plus one item in each stage, so SSTables with partitions
+ * bigger than {@link RemovalOptions#maxBufferedPartitionSize} are not pipelined, see {@link #isPipelined}.
+ *
+ * The write stage runs on the calling thread, so a writer is used by the thread which created it.
+ */
+public final class RewritePipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(RewritePipeline.class);
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private static final long POLL_MILLIS = 100;
+
+    // marks the end of items in a queue
+    private static final Object END = new Object();
+
+    @FunctionalInterface
+    public interface Source<T> {
+
+        /**
+         * @return next item or null when there are no more items
+         */
+        T next() throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface Sink<T> {
+
+        void accept(T item) throws Exception;
+    }
+
+    private final int capacity;
+
+    private final List<Throwable> failures = new ArrayList<>();
+
+    private volatile boolean aborted;
+
+    private RewritePipeline(final int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param sstable          data file of the rewritten SSTable
+     * @param largestPartition size of the largest partition of the SSTable as estimated by its statistics,
+     *                         {@link Long#MAX_VALUE} when it is beyond the range of the estimate
+     * @return whether the SSTable is rewritten by a pipeline rather than on a single thread
+     */
+    public static boolean isPipelined(final RemovalOptions options, final String sstable, final long largestPartition) {
+        if (options.pipelineQueueSize <= 0) {
+            return false;
+        }
+
+        if (largestPartition > options.maxBufferedPartitionSize) {
+            logger.info(format("Rewriting SSTable %s on a single thread, it has partitions bigger than %s bytes which are not queued",
+                               sstable,
+                               options.maxBufferedPartitionSize));
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Runs both stages until the source is exhausted or any of them fails. When a stage fails, the other one is
+     * stopped, the first failure is thrown and a failure of the other stage is added to it as a suppressed exception.
+     *
+     * @param capacity maximal number of items waiting in the queue between stages
+     */
+    public static <T> void run(final int capacity,
+                               final Source<T> read,
+                               final Sink<T> write) throws TTLRemovalException {
+        new RewritePipeline(capacity).execute(read, write);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void execute(final Source<T> read, final Sink<T> write) throws TTLRemovalException {
+        final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(capacity);
+
+        final int id = threadCounter.incrementAndGet();
+
+        final Thread reader = start("ttl-remover-read-" + id, () -> {
+            T item;
+
+            while ((item = read.next()) != null) {
+                if (!put(queue, item)) {
+                    return;
+                }
+            }
+
+            put(queue, END);
+        });
+
+        try {
+            Object item;
+
+            while ((item = take(queue)) != END && item != null) {
+                write.accept((T) item);
+            }
+        } catch (final Throwable t) {
+            fail(t);
+        } finally {
+            join(reader);
+        }
+
+        synchronized (failures) {
+            if (!failures.isEmpty()) {
+                final TTLRemovalException ex = new TTLRemovalException("Pipelined rewrite failed.", failures.get(0));
+
+                failures.stream().skip(1).forEach(ex::addSuppressed);
+
+                throw ex;
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Task {
+
+        void run() throws Exception;
+    }
+
+    private Thread start(final String name, final Task task) {
+        final Thread thread = new Thread(() -> {
+            try {
+                task.run();
+            } catch (final Throwable t) {
+                fail(t);
+            }
+        }, name);
+
+        thread.setDaemon(true);
+        thread.start();
+
+        return thread;
+    }
+
+    private void fail(final Throwable t) {
+        synchronized (failures) {
+            failures.add(t);
+        }
+
+        aborted = true;
+    }
+
+    /**
+     * @return false if the pipeline was aborted before the item was queued
+     */
+    private boolean put(final BlockingQueue<Object> queue, final Object item) throws InterruptedException {
+        while (!aborted) {
+            if (queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return null if the pipeline was aborted before an item was available
+     */
+    private Object take(final BlockingQueue<Object> queue) throws InterruptedException {
+        while (!aborted) {
+            final Object item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+            if (item != null) {
+                return item;
+            }
+        }
+
+        return null;
+    }
+
+    private void join(final Thread thread) throws TTLRemovalException {
+        try {
+            thread.join();
+        } catch (final InterruptedException ex) {
+            aborted = true;
+            Thread.currentThread().interrupt();
+            throw new TTLRemovalException("Interrupted while waiting for pipeline stages to finish.", ex);
+        }
+    }
+}
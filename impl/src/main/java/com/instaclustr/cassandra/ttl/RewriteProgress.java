@@ -0,0 +1,71 @@
+package com.instaclustr.cassandra.ttl;
+
+import com.instaclustr.cassandra.ttl.cli.TTLRemovalException;
+
+/**
+ * Accounts partitions of a single rewrite in metrics, the I/O throttle and the page cache, so removers only
+ * report positions of their readers and writers.
+ *
+ * Bytes and positions of the input are uncompressed, they are scaled to bytes on disk by the compression ratio
+ * of the input. In a pipeline, {@link #read} is called by the read stage and {@link #written} by the write stage.
+ */
+public final class RewriteProgress {
+
+    private final RemovalOptions options;
+
+    private final String input;
+
+    private final double onDiskRatio;
+
+    private final PageCacheDropper pageCache;
+
+    /**
+     * @param input              data file of the input SSTable
+     * @param onDiskLength       size of the input on disk
+     * @param uncompressedLength uncompressed length of the input, or of the part of it which is rewritten
+     * @param skipCache          drops pages of a file, a native call of the Cassandra version a remover runs with
+     */
+    public RewriteProgress(final RemovalOptions options,
+                           final String input,
+                           final long onDiskLength,
+                           final long uncompressedLength,
+                           final PageCacheDropper.SkipCache skipCache) {
+        this.options = options;
+        this.input = input;
+        this.onDiskRatio = RemovalMetrics.onDiskRatio(onDiskLength, uncompressedLength);
+        this.pageCache = PageCacheDropper.create(options.dropPageCache, input, skipCache);
+    }
+
+    /**
+     * Waits until a partition read from the input fits the read limit and drops pages read so far.
+     *
+     * @param bytesRead uncompressed bytes the partition was read from
+     * @param position  uncompressed position in the input after the partition
+     */
+    public void read(final long bytesRead, final long position) throws TTLRemovalException {
+        options.throttle.acquireRead((long) (bytesRead * onDiskRatio));
+        pageCache.advance(input, (long) (position * onDiskRatio));
+    }
+
+    /**
+     * Counts a rewritten partition, waits until it fits the write limit and drops pages written so far.
+     *
+     * @param bytesRead    uncompressed bytes the partition was read from
+     * @param bytesWritten bytes the partition took on disk
+     * @param output       data file of the output SSTable the partition was appended to
+     * @param position     position on disk in the output after the partition
+     */
+    public void written(final long bytesRead, final long bytesWritten, final String output, final long position) throws TTLRemovalException {
+        options.metrics.partitionRewritten(bytesRead, onDiskRatio, bytesWritten);
+        options.throttle.acquireWrite(bytesWritten);
+        pageCache.advance(output, position);
+    }
+
+    /**
+     * Drops all pages of outputs, called once output SSTables are finished and synced. Pages of the input are dropped
+     * by {@link PageCacheDropper#dropSSTable} once all rewrites reading it are done.
+     */
+    public void finish() throws TTLRemovalException {
+        pageCache.finish();
+    }
+}
@@ -0,0 +1,119 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.lang.String.format;
+import static java.util.stream.Collectors.toList;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import com.instaclustr.cassandra.ttl.cli.TTLRemovalException;
+
+/**
+ * Version-agnostic handling of files an SSTable consists of.
+ *
+ * All components of an SSTable share the prefix of its Data.db file, e.g. {@code md-1-big-} or {@code ks-cf-ka-1-},
+ * so they can be found without knowing anything about the format of a particular Cassandra version.
+ */
+public final class SSTableFiles {
+
+    private static final String DATA_COMPONENT = "Data.db";
+
+    private SSTableFiles() {
+    }
+
+    public static List<Path> components(final Path dataFile) throws TTLRemovalException {
+        final Path fileName = dataFile.getFileName();
+
+        if (fileName == null || !fileName.toString().endsWith(DATA_COMPONENT)) {
+            throw new TTLRemovalException(format("%s is not a Data.db component of a SSTable.", dataFile));
+        }
+
+        final String prefix = fileName.toString().substring(0, fileName.toString().length() - DATA_COMPONENT.length());
+
+        try (final Stream<Path> files = Files.list(dataFile.toAbsolutePath().getParent())) {
+            return files.filter(f -> f.getFileName().toString().startsWith(prefix)).collect(toList());
+        } catch (final IOException ex) {
+            throw new TTLRemovalException(format("Unable to list components of SSTable %s", dataFile), ex);
+        }
+    }
+
+    /**
+     * @return Data.db components of all SSTables in the directory and its subdirectories, empty if it does not exist
+     */
+    public static List<Path> dataFiles(final Path directory) throws TTLRemovalException {
+        if (!Files.isDirectory(directory)) {
+            return Collections.emptyList();
+        }
+
+        try (final Stream<Path> files = Files.walk(directory)) {
+            return files.filter(f -> f.getFileName().toString().endsWith(DATA_COMPONENT)).collect(toList());
+        } catch (final IOException ex) {
+            throw new TTLRemovalException(format("Unable to list SSTables in %s", directory), ex);
+        }
+    }
+
+    /**
+     * Deletes all components of an SSTable, e.g. an output of a rewrite which failed.
+     */
+    public static void delete(final Path dataFile) throws TTLRemovalException {
+        for (final Path component : components(dataFile)) {
+            try {
+                Files.deleteIfExists(component);
+            } catch (final IOException ex) {
+                throw new TTLRemovalException(format("Unable to delete %s", component), ex);
+            }
+        }
+    }
+
+    /**
+     * Hard-links all components of an SSTable into the destination directory. If hard links are not possible,
+     * e.g. because the destination is on another file system, components are copied instead.
+     *
+     * @return {@link SSTableOutcome#LINKED} or {@link SSTableOutcome#COPIED}, depending on what was done
+     */
+    public static SSTableOutcome linkOrCopy(final Path dataFile, final Path destinationDir) throws TTLRemovalException {
+        try {
+            link(dataFile, destinationDir);
+            return SSTableOutcome.LINKED;
+        } catch (final TTLRemovalException ex) {
+            if (!(ex.getCause() instanceof FileSystemException || ex.getCause() instanceof UnsupportedOperationException)) {
+                throw ex;
+            }
+        }
+
+        copy(dataFile, destinationDir);
+
+        return SSTableOutcome.COPIED;
+    }
+
+    public static void link(final Path dataFile, final Path destinationDir) throws TTLRemovalException {
+        for (final Path component : components(dataFile)) {
+            final Path target = destinationDir.resolve(component.getFileName());
+
+            try {
+                Files.deleteIfExists(target);
+                Files.createLink(target, component);
+            } catch (final IOException | UnsupportedOperationException ex) {
+                throw new TTLRemovalException(format("Unable to hard-link %s to %s", component, target), ex);
+            }
+        }
+    }
+
+    public static void copy(final Path dataFile, final Path destinationDir) throws TTLRemovalException {
+        for (final Path component : components(dataFile)) {
+            final Path target = destinationDir.resolve(component.getFileName());
+
+            try {
+                Files.copy(component, target, StandardCopyOption.REPLACE_EXISTING);
+            } catch (final IOException ex) {
+                throw new TTLRemovalException(format("Unable to copy %s to %s", component, target), ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.instaclustr.cassandra.ttl;
+
+public enum SSTableOutcome {
+    REWRITTEN,
+    LINKED,
+    COPIED,
+    SKIPPED,
+    COMPLETED_BEFORE,
+    FAILED
+}
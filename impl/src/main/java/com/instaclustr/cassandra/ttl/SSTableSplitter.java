@@ -0,0 +1,189 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.lang.String.format;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.instaclustr.cassandra.ttl.cli.TTLRemovalException;
+
+/**
+ * Splits a single SSTable to token ranges which are rewritten concurrently, each into its own SSTable,
+ * on as many threads as there are idle workers of a removal.
+ *
+ * Only the version-agnostic part lives here, removers sample tokens from the index summary of their reader,
+ * turn boundaries into ranges and scan them. Output SSTables of a rewrite are limited in size here as well.
+ */
+public final class SSTableSplitter {
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private SSTableSplitter() {
+    }
+
+    /**
+     * Picks at most {@code parts - 1} distinct boundaries which divide sorted samples to parts of about the same size.
+     *
+     * Samples are iterated twice, once to count them and once to pick boundaries, so samples of a huge SSTable
+     * are never held in memory at once.
+     *
+     * @param sortedSamples samples in ring order, e.g. tokens of an index summary
+     * @param parts         number of parts to split samples to
+     * @return boundaries in ring order, empty if there are not enough samples to split them
+     */
+    public static <T> List<T> boundaries(final Iterable<T> sortedSamples, final int parts) {
+        final List<T> boundaries = new ArrayList<>();
+
+        if (parts < 2) {
+            return boundaries;
+        }
+
+        long count = 0;
+
+        for (final Iterator<T> it = sortedSamples.iterator(); it.hasNext(); it.next()) {
+            count++;
+        }
+
+        if (count < parts) {
+            return boundaries;
+        }
+
+        long index = 0;
+        int part = 1;
+        long nextBoundary = count / parts;
+
+        for (final T sample : sortedSamples) {
+            if (index++ == nextBoundary) {
+                // samples of an index summary are distinct keys but their tokens might collide
+                if (boundaries.isEmpty() || !boundaries.get(boundaries.size() - 1).equals(sample)) {
+                    boundaries.add(sample);
+                }
+
+                if (++part == parts) {
+                    break;
+                }
+
+                nextBoundary = count * part / parts;
+            }
+        }
+
+        return boundaries;
+    }
+
+    /**
+     * Estimates how many partitions an output SSTable holds when its size is limited, so its bloom filter
+     * and index summary are not sized for all partitions of the input.
+     *
+     * @param keyCount       estimated number of partitions to be written
+     * @param totalKeys      estimated number of partitions of the whole input SSTable
+     * @param totalBytes     size of the input SSTable on disk
+     * @param maxSSTableSize maximal size of an output SSTable on disk
+     */
+    public static long keysPerSSTable(final long keyCount, final long totalKeys, final long totalBytes, final long maxSSTableSize) {
+        if (maxSSTableSize == Long.MAX_VALUE || totalBytes <= maxSSTableSize) {
+            return keyCount;
+        }
+
+        final long keys = (long) Math.ceil((double) totalKeys * maxSSTableSize / totalBytes);
+
+        return Math.max(1, Math.min(keyCount, keys));
+    }
+
+    /**
+     * Partitions are never split between SSTables and a writer can not tell whether more partitions follow,
+     * so a new output SSTable is started just before a partition would be appended to one over the size limit.
+     *
+     * @param onDiskSize     size of the current output SSTable on disk
+     * @param maxSSTableSize maximal size of an output SSTable on disk
+     * @return whether a new output SSTable is started before the next partition is appended
+     */
+    public static boolean isFull(final long onDiskSize, final long maxSSTableSize) {
+        return onDiskSize >= maxSSTableSize;
+    }
+
+    /**
+     * Runs tasks on the calling thread and on as many more threads as there are idle workers, and waits for all of them
+     * to finish.
+     *
+     * The calling thread is a worker already, so tasks progress even when no other worker is idle. Every further thread
+     * takes a worker and returns it once there are no tasks left, so SSTables and token ranges rewritten at once never
+     * outnumber workers of a removal.
+     *
+     * All tasks are run to completion even if some of them fail, the first failure is thrown and the others
+     * are added to it as suppressed exceptions.
+     *
+     * @param idleWorkers permits of workers which do not rewrite anything at the moment
+     */
+    public static <T> List<T> runConcurrently(final List<Callable<T>> tasks, final Semaphore idleWorkers) throws TTLRemovalException {
+        final AtomicInteger nextTask = new AtomicInteger();
+        final AtomicReferenceArray<T> results = new AtomicReferenceArray<>(tasks.size());
+        final AtomicReferenceArray<Throwable> failures = new AtomicReferenceArray<>(tasks.size());
+
+        final Runnable worker = () -> {
+            int task;
+
+            while ((task = nextTask.getAndIncrement()) < tasks.size()) {
+                try {
+                    results.set(task, tasks.get(task).call());
+                } catch (final Throwable t) {
+                    failures.set(task, t);
+                }
+            }
+        };
+
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int i = 1; i < tasks.size() && idleWorkers.tryAcquire(); i++) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    worker.run();
+                } finally {
+                    idleWorkers.release();
+                }
+            }, "ttl-remover-range-" + threadCounter.incrementAndGet());
+
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+
+        worker.run();
+
+        try {
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+        } catch (final InterruptedException ex) {
+            threads.forEach(Thread::interrupt);
+            Thread.currentThread().interrupt();
+            throw new TTLRemovalException("Interrupted while waiting for token ranges to be rewritten.", ex);
+        }
+
+        final List<T> rangeResults = new ArrayList<>(tasks.size());
+        final List<Throwable> rangeFailures = new ArrayList<>();
+
+        for (int i = 0; i < tasks.size(); i++) {
+            if (failures.get(i) != null) {
+                rangeFailures.add(failures.get(i));
+            } else {
+                rangeResults.add(results.get(i));
+            }
+        }
+
+        if (!rangeFailures.isEmpty()) {
+            final TTLRemovalException ex = new TTLRemovalException(format("Rewrite of %s out of %s token range(s) failed.", rangeFailures.size(), tasks.size()),
+                                                                   rangeFailures.get(0));
+
+            rangeFailures.stream().skip(1).forEach(ex::addSuppressed);
+
+            throw ex;
+        }
+
+        return rangeResults;
+    }
+}
@@ -5,5 +5,9 @@ import java.util.Collection;
 
 public interface SSTableTTLRemover {
 
-    void executeRemoval(final Path outputFolder, final Collection<Path> sstables, final String cql) throws Exception;
+    default void executeRemoval(final Path outputFolder, final Collection<Path> sstables, final String cql) throws Exception {
+        executeRemoval(outputFolder, sstables, cql, new RemovalOptions());
+    }
+
+    void executeRemoval(final Path outputFolder, final Collection<Path> sstables, final String cql, final RemovalOptions options) throws Exception;
 }
@@ -0,0 +1,26 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.lang.String.format;
+
+/**
+ * What to do with an SSTable which does not contain any TTL, so there is nothing to remove from it.
+ */
+public enum TTLFreeAction {
+    SKIP,
+    LINK,
+    COPY;
+
+    public static TTLFreeAction parse(final String action) {
+        if (action == null) {
+            return LINK;
+        }
+
+        for (final TTLFreeAction value : values()) {
+            if (value.name().equalsIgnoreCase(action)) {
+                return value;
+            }
+        }
+
+        throw new IllegalArgumentException(format("Unknown action %s, it might be skip, link or copy", action));
+    }
+}
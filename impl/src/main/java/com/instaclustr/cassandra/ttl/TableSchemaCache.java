@@ -0,0 +1,80 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.lang.String.format;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.instaclustr.cassandra.ttl.cli.TTLRemovalException;
+
+/**
+ * Builds table metadata of a given Cassandra version once per table and reuses it for every SSTable of that table.
+ *
+ * @param <T> type of table metadata of a particular Cassandra version
+ */
+public class TableSchemaCache<T> {
+
+    public interface SchemaFactory<T> {
+
+        T create(final String keyspace, final String cql) throws Exception;
+    }
+
+    private final ConcurrentMap<SchemaKey, T> schemas = new ConcurrentHashMap<>();
+
+    private final SchemaFactory<T> factory;
+
+    public TableSchemaCache(final SchemaFactory<T> factory) {
+        this.factory = factory;
+    }
+
+    public T get(final String keyspace, final String table, final String cql) throws TTLRemovalException {
+        try {
+            return schemas.computeIfAbsent(new SchemaKey(keyspace, table, cql), key -> {
+                try {
+                    return factory.create(key.keyspace, key.cql);
+                } catch (final Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
+        } catch (final IllegalStateException ex) {
+            throw new TTLRemovalException(format("Unable to create metadata of table %s.%s from CQL %s", keyspace, table, cql),
+                                          ex.getCause() == null ? ex : ex.getCause());
+        }
+    }
+
+    private static final class SchemaKey {
+
+        private final String keyspace;
+        private final String table;
+        private final String cql;
+        private final int hash;
+
+        private SchemaKey(final String keyspace, final String table, final String cql) {
+            this.keyspace = keyspace;
+            this.table = table;
+            this.cql = cql;
+            this.hash = Objects.hash(keyspace, table, cql);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final SchemaKey that = (SchemaKey) o;
+            return hash == that.hash
+                && Objects.equals(keyspace, that.keyspace)
+                && Objects.equals(table, that.table)
+                && Objects.equals(cql, that.cql);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.instaclustr.cassandra.ttl.cli.TTLRemovalException;
+
+/**
+ * CREATE TABLE statements of the tables TTL is removed from.
+ *
+ * Either one statement is used for all SSTables (--cql) or statements are read from a schema file,
+ * e.g. an output of {@code cqlsh -e "DESCRIBE KEYSPACE ks"}, and matched to SSTables by keyspace and table name.
+ */
+public class TableSchemas {
+
+    private static final String IDENTIFIER = "(\"(?:[^\"]|\"\")+\"|\\w+)";
+
+    private static final Pattern CREATE_TABLE = Pattern.compile("^CREATE\\s+(?:TABLE|COLUMNFAMILY)\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?"
+                                                                    + IDENTIFIER + "(?:\\s*\\.\\s*" + IDENTIFIER + ")?",
+                                                                Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern USE = Pattern.compile("^USE\\s+" + IDENTIFIER, Pattern.CASE_INSENSITIVE);
+
+    private final String cql;
+    private final Map<String, String> statements;
+
+    private TableSchemas(final String cql, final Map<String, String> statements) {
+        this.cql = cql;
+        this.statements = statements;
+    }
+
+    /**
+     * @param cql statement which is used for SSTables of every table
+     */
+    public static TableSchemas of(final String cql) {
+        return new TableSchemas(cql, Collections.emptyMap());
+    }
+
+    public static TableSchemas parse(final Path schemaFile) throws TTLRemovalException {
+        try {
+            return parse(new String(Files.readAllBytes(schemaFile), StandardCharsets.UTF_8));
+        } catch (final IOException ex) {
+            throw new TTLRemovalException(format("Unable to read schema file %s", schemaFile), ex);
+        }
+    }
+
+    public static TableSchemas parse(final String schema) throws TTLRemovalException {
+        final Map<String, String> statements = new LinkedHashMap<>();
+
+        String currentKeyspace = null;
+
+        for (final String statement : split(schema)) {
+            final Matcher use = USE.matcher(statement);
+
+            if (use.find()) {
+                currentKeyspace = identifier(use.group(1));
+                continue;
+            }
+
+            final Matcher createTable = CREATE_TABLE.matcher(statement);
+
+            if (!createTable.find()) {
+                continue;
+            }
+
+            final String keyspace = createTable.group(2) == null ? currentKeyspace : identifier(createTable.group(1));
+            final String table = identifier(createTable.group(2) == null ? createTable.group(1) : createTable.group(2));
+
+            if (keyspace == null) {
+                throw new TTLRemovalException(format("Table %s in schema file is not qualified by a keyspace and there is no USE statement before it.", table));
+            }
+
+            statements.put(key(keyspace, table), statement + ";");
+        }
+
+        if (statements.isEmpty()) {
+            throw new TTLRemovalException("There is not any CREATE TABLE statement in the schema file.");
+        }
+
+        return new TableSchemas(null, statements);
+    }
+
+    public boolean covers(final String keyspace, final String table) {
+        return cql != null || statements.containsKey(key(keyspace, table));
+    }
+
+    public String cqlFor(final String keyspace, final String table) throws TTLRemovalException {
+        if (cql != null) {
+            return cql;
+        }
+
+        final String statement = statements.get(key(keyspace, table));
+
+        if (statement == null) {
+            throw new TTLRemovalException(format("There is not any CREATE TABLE statement for table %s.%s", keyspace, table));
+        }
+
+        return statement;
+    }
+
+    public int size() {
+        return cql == null ? statements.size() : 1;
+    }
+
+    private static String key(final String keyspace, final String table) {
+        return keyspace + "." + table;
+    }
+
+    private static String identifier(final String identifier) {
+        if (identifier.startsWith("\"")) {
+            return identifier.substring(1, identifier.length() - 1).replace("\"\"", "\"");
+        }
+
+        return identifier.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Splits a CQL script to statements by semicolons which are not a part of a string literal,
+     * a quoted identifier or a comment. Comments are dropped.
+     */
+    static List<String> split(final String script) {
+        final List<String> statements = new ArrayList<>();
+        final StringBuilder current = new StringBuilder();
+
+        int i = 0;
+
+        while (i < script.length()) {
+            final char c = script.charAt(i);
+
+            if (c == '\'' || c == '"') {
+                final int end = closing(script, i, c);
+                current.append(script, i, end);
+                i = end;
+            } else if (script.startsWith("$$", i)) {
+                final int end = script.indexOf("$$", i + 2);
+                final int stop = end < 0 ? script.length() : end + 2;
+                current.append(script, i, stop);
+                i = stop;
+            } else if (script.startsWith("--", i) || script.startsWith("//", i)) {
+                final int end = script.indexOf('\n', i);
+                i = end < 0 ? script.length() : end;
+            } else if (script.startsWith("/*", i)) {
+                final int end = script.indexOf("*/", i + 2);
+                i = end < 0 ? script.length() : end + 2;
+            } else if (c == ';') {
+                add(statements, current);
+                i++;
+            } else {
+                current.append(c);
+                i++;
+            }
+        }
+
+        add(statements, current);
+
+        return statements;
+    }
+
+    private static int closing(final String script, final int start, final char quote) {
+        int i = start + 1;
+
+        while (i < script.length()) {
+            if (script.charAt(i) == quote) {
+                // doubled quote is an escaped quote
+                if (i + 1 < script.length() && script.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+
+        return script.length();
+    }
+
+    private static void add(final List<String> statements, final StringBuilder current) {
+        final String statement = current.toString().trim();
+
+        if (!statement.isEmpty()) {
+            statements.add(statement);
+        }
+
+        current.setLength(0);
+    }
+}
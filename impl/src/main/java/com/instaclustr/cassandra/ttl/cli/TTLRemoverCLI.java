@@ -13,7 +13,15 @@ import java.util.ServiceLoader;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import com.instaclustr.cassandra.ttl.AccessMode;
+import com.instaclustr.cassandra.ttl.DataSize;
+import com.instaclustr.cassandra.ttl.IOThrottle;
+import com.instaclustr.cassandra.ttl.OutputCompression;
+import com.instaclustr.cassandra.ttl.RemovalManifest;
+import com.instaclustr.cassandra.ttl.RemovalOptions;
 import com.instaclustr.cassandra.ttl.SSTableTTLRemover;
+import com.instaclustr.cassandra.ttl.TableSchemas;
+import com.instaclustr.cassandra.ttl.TTLFreeAction;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.ITypeConverter;
@@ -69,6 +77,158 @@ public class TTLRemoverCLI extends JarManifestVersionProvider implements Runnabl
         description = "CQL statement which creates table we want to remove TTL from. This has to be set in case --cassandra-version is 3 or 4")
     public String cql;
 
+    @Option(names = {"--schema-file", "-S"},
+        paramLabel = "[FILE]",
+        description = "Path to a file with CREATE TABLE statements, e.g. output of 'cqlsh -e \"DESCRIBE KEYSPACE ks\"'. "
+            + "SSTables are matched to statements by their keyspace and table so all tables in --sstables directory are processed at once. "
+            + "Might be set instead of --cql in case --cassandra-version is 3 or 4")
+    public Path schemaFile;
+
+    @Option(names = {"--threads", "-j"},
+        paramLabel = "[INTEGER]",
+        defaultValue = "1",
+        description = "Number of threads rewriting SSTables, or token ranges of them, concurrently, defaults to 1.")
+    public int threads;
+
+    @Option(names = {"--token-ranges", "-r"},
+        paramLabel = "[INTEGER]",
+        defaultValue = "1",
+        description = "Number of token ranges every SSTable is split to, each range is rewritten into its own SSTable. "
+            + "Ranges are rewritten concurrently on threads of --threads which are not busy with other SSTables. "
+            + "Relevant only in case --cassandra-version is 3 or 4, defaults to 1.")
+    public int tokenRanges;
+
+    @Option(names = {"--pipeline-queue-size", "-Q"},
+        paramLabel = "[INTEGER]",
+        defaultValue = "0",
+        description = "Number of partitions queued between the read and write stages of a rewrite, each stage running on its own thread, "
+            + "so decompression and compression overlap with I/O even for a single SSTable. Partitions are held in memory while queued. "
+            + "0 rewrites partitions on a single thread. In case --cassandra-version is 2, it is relevant only with --raw-rewrite, "
+            + "in case it is 3 or 4, only without --raw-rewrite, defaults to 0.")
+    public int pipelineQueueSize;
+
+    @Option(names = {"--max-buffered-partition-size", "-z"},
+        paramLabel = "[SIZE]",
+        defaultValue = "64MiB",
+        converter = DataSizeConverter.class,
+        description = "Serialized size of the largest partition --pipeline-queue-size holds in memory, up to the queue size of partitions "
+            + "plus two more are held per rewritten SSTable. SSTables which might contain bigger partitions according to their statistics "
+            + "are rewritten on a single thread, defaults to 64MiB.")
+    public long maxBufferedPartitionSize;
+
+    @Option(names = {"--max-output-sstable-size", "-m"},
+        paramLabel = "[SIZE]",
+        converter = DataSizeConverter.class,
+        description = "Size on disk after which a new output SSTable is started, e.g. 160MiB or 10GiB. Partitions are never split between SSTables. "
+            + "If not set, every input SSTable (or token range) is rewritten into one output SSTable.")
+    public Long maxOutputSSTableSize;
+
+    @Option(names = {"--output-compression", "-C"},
+        paramLabel = "[COMPRESSOR]",
+        description = "Compressor of output SSTables overriding the one of their table, e.g. LZ4Compressor, DeflateCompressor "
+            + "or a fully qualified class name, 'none' turns compression off. If not set, output SSTables are compressed as their table is.")
+    public String outputCompression;
+
+    @Option(names = {"--output-chunk-length", "-L"},
+        paramLabel = "[SIZE]",
+        converter = DataSizeConverter.class,
+        description = "Chunk length of compressed output SSTables overriding the one of their table, a power of two of at least 1KiB, e.g. 64KiB. "
+            + "If not set, chunk length of the table is used.")
+    public Long outputChunkLength;
+
+    @Option(names = {"--ttl-free-action", "-a"},
+        paramLabel = "[ACTION]",
+        converter = TTLFreeActionConverter.class,
+        description = "What to do with SSTables which do not contain any TTL according to their statistics, might be skip, link or copy, defaults to link")
+    public TTLFreeAction ttlFreeAction = TTLFreeAction.LINK;
+
+    @Option(names = {"--raw-rewrite", "-w"},
+        description = "Rewrites cells of SSTables at the byte level, without deserialising them to column families or rows. "
+            + "In case --cassandra-version is 3 or 4, output SSTables keep the serialization header of their input and partitions are not pipelined.")
+    public boolean rawRewrite;
+
+    @Option(names = {"--prefetch-chunks", "-P"},
+        paramLabel = "[INTEGER]",
+        defaultValue = "0",
+        description = "Number of chunks of a compressed SSTable decompressed ahead of --raw-rewrite on a pool of threads, "
+            + "which bounds the memory used for them. 0 decompresses chunks on the rewriting thread. "
+            + "Relevant only in case --cassandra-version is 2, defaults to 0.")
+    public int prefetchChunks;
+
+    @Option(names = {"--compress-chunks", "-Z"},
+        paramLabel = "[INTEGER]",
+        defaultValue = "0",
+        description = "Number of chunks of a compressed output SSTable compressed ahead of its writer on a pool of threads, "
+            + "which bounds the memory used for them. Output files are the same as when chunks are compressed by the writing thread, "
+            + "which 0 does. Relevant only in case --cassandra-version is 2, defaults to 0.")
+    public int compressChunks;
+
+    @Option(names = {"--access-mode", "-A"},
+        paramLabel = "[MODE]",
+        converter = AccessModeConverter.class,
+        description = "How data and index files of input SSTables are read, might be mmap, standard or auto. auto means mmap on 64-bit JVMs. "
+            + "If not set, disk_access_mode of the byte-buddy agent or, in case --cassandra-version is 2, of cassandra.yaml is used.")
+    public AccessMode accessMode;
+
+    @Option(names = {"--drop-page-cache", "-D"},
+        description = "Drops pages of input and output SSTables from the page cache as they are read and written, "
+            + "so a removal running on a node next to a live Cassandra does not evict its hot data. "
+            + "Pages of output SSTables are dropped once they are written back to disk.")
+    public boolean dropPageCache;
+
+    @Option(names = {"--max-read-mbps", "-B"},
+        paramLabel = "[MBPS]",
+        defaultValue = "0",
+        description = "Limit of MiB read from input SSTables per second by all threads together, 0 means no limit, defaults to 0.")
+    public int maxReadMbps;
+
+    @Option(names = {"--max-write-mbps", "-W"},
+        paramLabel = "[MBPS]",
+        defaultValue = "0",
+        description = "Limit of MiB written to output SSTables per second by all threads together, 0 means no limit, defaults to 0.")
+    public int maxWriteMbps;
+
+    @Option(names = {"--adaptive-throttle", "-T"},
+        description = "Halves read and write rates every second in which a device holding input SSTables is busier than "
+            + "--max-disk-utilisation or slower than --max-read-latency and raises them again up to --max-read-mbps and --max-write-mbps "
+            + "once it calms down. Devices are watched in /proc/diskstats, so it works on Linux only.")
+    public boolean adaptiveThrottle;
+
+    @Option(names = {"--max-disk-utilisation", "-U"},
+        paramLabel = "[PERCENT]",
+        defaultValue = "70",
+        description = "Utilisation of a device in percent above which --adaptive-throttle backs off, defaults to 70.")
+    public int maxDiskUtilisation;
+
+    @Option(names = {"--max-read-latency", "-X"},
+        paramLabel = "[MILLISECONDS]",
+        defaultValue = "20",
+        description = "Mean read latency of a device in milliseconds above which --adaptive-throttle backs off, defaults to 20.")
+    public int maxReadLatency;
+
+    @Option(names = {"--progress-interval", "-i"},
+        paramLabel = "[SECONDS]",
+        defaultValue = "30",
+        description = "Seconds between two progress log lines with throughput and ETA, 0 turns progress logging off, defaults to 30.")
+    public int progressInterval;
+
+    @Option(names = {"--report-file", "-R"},
+        paramLabel = "[FILE]",
+        description = "Path to a JSON report with metrics of the run which is written at the end. With --manifest or --resume, it defaults "
+            + "to ttl-removal-report.json in --output-path, otherwise no report is written unless it is set.")
+    public Path reportFile;
+
+    @Option(names = {"--manifest", "-M"},
+        description = "Records started and completed SSTables in ttl-removal-manifest.tsv in --output-path, so the removal can be resumed "
+            + "with --resume.")
+    public boolean manifest;
+
+    @Option(names = {"--resume", "-e"},
+        description = "Resumes a removal which did not finish into the same --output-path, it requires ttl-removal-manifest.tsv "
+            + "written by that removal. SSTables recorded as completed which did not change since are skipped, outputs which were "
+            + "started but not completed and transaction logs referring to them are deleted before the rest is rewritten.")
+    public boolean resume;
+
     public static void main(String[] args) {
         main(args, true);
     }
@@ -98,7 +258,7 @@ public class TTLRemoverCLI extends JarManifestVersionProvider implements Runnabl
 
         try {
             final SSTableTTLRemover ttlRemover = getTTLRemover();
-            ttlRemover.executeRemoval(destination, getSSTables(), cql);
+            ttlRemover.executeRemoval(destination, getSSTables(), cql, getRemovalOptions());
         } catch (final Exception ex) {
             throw new RuntimeException("Unable to remove TTLs from SSTables", ex);
         }
@@ -144,10 +304,40 @@ public class TTLRemoverCLI extends JarManifestVersionProvider implements Runnabl
         return removers.get(0);
     }
 
+    private RemovalOptions getRemovalOptions() throws TTLRemovalException {
+        final RemovalOptions options = new RemovalOptions();
+        options.tableSchemas = schemaFile == null ? null : TableSchemas.parse(schemaFile);
+        options.threads = threads;
+        options.tokenRanges = tokenRanges;
+        options.pipelineQueueSize = pipelineQueueSize;
+        options.maxBufferedPartitionSize = maxBufferedPartitionSize;
+        options.maxOutputSSTableSize = maxOutputSSTableSize == null ? Long.MAX_VALUE : maxOutputSSTableSize;
+        options.outputCompression = new OutputCompression(outputCompression, outputChunkLength == null ? null : (int) (outputChunkLength / 1024));
+        options.ttlFreeAction = ttlFreeAction;
+        options.rawRewrite = rawRewrite;
+        options.prefetchChunks = prefetchChunks;
+        options.compressChunks = compressChunks;
+        options.accessMode = accessMode;
+        options.dropPageCache = dropPageCache;
+        options.throttle = new IOThrottle(maxReadMbps * 1024L * 1024L, maxWriteMbps * 1024L * 1024L);
+        options.adaptiveThrottle = adaptiveThrottle;
+        options.maxDiskUtilisation = maxDiskUtilisation;
+        options.maxReadLatencyMillis = maxReadLatency;
+        options.progressIntervalSeconds = progressInterval;
+        // nothing but SSTables is written to --output-path unless it was asked for
+        options.reportFile = reportFile == null && (manifest || resume) ? destination.resolve("ttl-removal-report.json") : reportFile;
+        options.manifestFile = manifest || resume ? destination.resolve(RemovalManifest.FILE_NAME) : null;
+        options.resume = resume;
+        return options;
+    }
+
     private Collection<Path> getSSTables() throws TTLRemovalException {
         if (sstables != null) {
             try (final Stream<Path> stream = Files.walk(sstables)) {
-                return stream.filter(f -> f.toString().endsWith("Data.db")).collect(toList());
+                return stream.filter(f -> f.toString().endsWith("Data.db"))
+                    // data directory of a node contains snapshots and incremental backups of the very same data
+                    .filter(f -> !isSnapshotOrBackup(sstables.relativize(f)))
+                    .collect(toList());
             } catch (final Exception ex) {
                 throw new RuntimeException(format("Unable to walk keyspace directory %s", sstables), ex);
             }
@@ -162,13 +352,31 @@ public class TTLRemoverCLI extends JarManifestVersionProvider implements Runnabl
         throw new TTLRemovalException("--sstables nor --sstable parameter was set, you have to set one of them!");
     }
 
+    private static boolean isSnapshotOrBackup(final Path relativePath) {
+        for (final Path element : relativePath) {
+            if (element.toString().equals("snapshots") || element.toString().equals("backups")) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     private void validate() {
-        if (cassandraVersion != CassandraVersion.V2 && cql == null) {
+        if (cassandraVersion != CassandraVersion.V2 && cql == null && schemaFile == null) {
             throw new ParameterException(spec.commandLine(),
-                                         format("You want to remove TTL from SSTables for version %s but you have not specified --cql",
+                                         format("You want to remove TTL from SSTables for version %s but you have not specified --cql nor --schema-file",
                                                 cassandraVersion));
         }
 
+        if (cql != null && schemaFile != null) {
+            throw new ParameterException(spec.commandLine(), "You have specified both --cql and --schema-file.");
+        }
+
+        if (schemaFile != null && !Files.isReadable(schemaFile)) {
+            throw new ParameterException(spec.commandLine(), format("Schema file %s does not exist or it can not be read.", schemaFile));
+        }
+
         if (cassandraVersion == CassandraVersion.V2) {
             if (cassandraYaml == null) {
                 throw new ParameterException(spec.commandLine(), "You set Cassandra version to '2' but you have not set --cassandra-yaml");
@@ -176,6 +384,9 @@ public class TTLRemoverCLI extends JarManifestVersionProvider implements Runnabl
             if (cassandraStorageDir == null) {
                 throw new ParameterException(spec.commandLine(), "You set Cassandra version to '2' but you have not set --cassandra-storage-dir");
             }
+            if (schemaFile != null) {
+                throw new ParameterException(spec.commandLine(), "You set Cassandra version to '2' but you have set --schema-file, schema is loaded from --cassandra-storage-dir");
+            }
         }
 
         if (cassandraVersion != CassandraVersion.V2) {
@@ -187,6 +398,79 @@ public class TTLRemoverCLI extends JarManifestVersionProvider implements Runnabl
             }
         }
 
+        if (threads < 1) {
+            throw new ParameterException(spec.commandLine(), format("--threads has to be at least 1 but it is %s", threads));
+        }
+
+        if (progressInterval < 0) {
+            throw new ParameterException(spec.commandLine(), format("--progress-interval can not be negative but it is %s", progressInterval));
+        }
+
+        if (tokenRanges < 1) {
+            throw new ParameterException(spec.commandLine(), format("--token-ranges has to be at least 1 but it is %s", tokenRanges));
+        }
+
+        if (pipelineQueueSize < 0) {
+            throw new ParameterException(spec.commandLine(), format("--pipeline-queue-size can not be negative but it is %s", pipelineQueueSize));
+        }
+
+        // a partition of Cassandra 2 is buffered in a byte array
+        if (maxBufferedPartitionSize <= 0 || maxBufferedPartitionSize >= Integer.MAX_VALUE) {
+            throw new ParameterException(spec.commandLine(), format("--max-buffered-partition-size has to be positive and less than 2GiB but it is %s", maxBufferedPartitionSize));
+        }
+
+        if (prefetchChunks < 0) {
+            throw new ParameterException(spec.commandLine(), format("--prefetch-chunks can not be negative but it is %s", prefetchChunks));
+        }
+
+        if (compressChunks < 0) {
+            throw new ParameterException(spec.commandLine(), format("--compress-chunks can not be negative but it is %s", compressChunks));
+        }
+
+        if (maxReadMbps < 0 || maxWriteMbps < 0) {
+            throw new ParameterException(spec.commandLine(), format("--max-read-mbps and --max-write-mbps can not be negative but they are %s and %s", maxReadMbps, maxWriteMbps));
+        }
+
+        if (maxDiskUtilisation < 1 || maxDiskUtilisation > 100) {
+            throw new ParameterException(spec.commandLine(), format("--max-disk-utilisation has to be between 1 and 100 but it is %s", maxDiskUtilisation));
+        }
+
+        if (maxReadLatency < 1) {
+            throw new ParameterException(spec.commandLine(), format("--max-read-latency has to be at least 1 but it is %s", maxReadLatency));
+        }
+
+        if (outputChunkLength != null && (outputChunkLength < 1024 || outputChunkLength % 1024 != 0 || Long.bitCount(outputChunkLength) != 1)) {
+            throw new ParameterException(spec.commandLine(), format("--output-chunk-length has to be a power of two of at least 1KiB but it is %s", outputChunkLength));
+        }
+
+        if (outputChunkLength != null && OutputCompression.NONE.equalsIgnoreCase(outputCompression)) {
+            throw new ParameterException(spec.commandLine(), "You have set --output-chunk-length but --output-compression turns compression off.");
+        }
+
+        if (maxOutputSSTableSize != null && maxOutputSSTableSize <= 0) {
+            throw new ParameterException(spec.commandLine(), format("--max-output-sstable-size has to be positive but it is %s", maxOutputSSTableSize));
+        }
+
+        if (tokenRanges > 1 && cassandraVersion == CassandraVersion.V2) {
+            throw new ParameterException(spec.commandLine(), "You set Cassandra version to '2' but you have set --token-ranges, SSTables of Cassandra 2 can not be split");
+        }
+
+        if (pipelineQueueSize > 0 && cassandraVersion != CassandraVersion.V2 && rawRewrite) {
+            throw new ParameterException(spec.commandLine(), "--pipeline-queue-size can not be set together with --raw-rewrite when Cassandra version is '3' or '4', raw rewrite of them is not pipelined");
+        }
+
+        if (pipelineQueueSize > 0 && cassandraVersion == CassandraVersion.V2 && !rawRewrite) {
+            throw new ParameterException(spec.commandLine(), "You set Cassandra version to '2' but you have set --pipeline-queue-size without --raw-rewrite, only raw rewrite of Cassandra 2 is pipelined");
+        }
+
+        if (prefetchChunks > 0 && (cassandraVersion != CassandraVersion.V2 || !rawRewrite)) {
+            throw new ParameterException(spec.commandLine(), "--prefetch-chunks can be set only together with --raw-rewrite when Cassandra version is '2'");
+        }
+
+        if (compressChunks > 0 && cassandraVersion != CassandraVersion.V2) {
+            throw new ParameterException(spec.commandLine(), "--compress-chunks can be set only when Cassandra version is '2'");
+        }
+
         if (sstables == null && sstable == null) {
             throw new ParameterException(spec.commandLine(), "You have not specified --sstables nor --sstable.");
         }
@@ -194,6 +478,13 @@ public class TTLRemoverCLI extends JarManifestVersionProvider implements Runnabl
         if (sstables != null && sstable != null) {
             throw new ParameterException(spec.commandLine(), "You have specified both --sstables and --sstable.");
         }
+
+        if (resume && !Files.exists(destination.resolve(RemovalManifest.FILE_NAME))) {
+            throw new ParameterException(spec.commandLine(), format("You have set --resume but there is no %s in %s to resume from, "
+                                                                        + "only removals run with --manifest can be resumed",
+                                                                    RemovalManifest.FILE_NAME,
+                                                                    destination));
+        }
     }
 
     private static final class CassandraVersionConverter implements ITypeConverter<CassandraVersion> {
@@ -204,6 +495,30 @@ public class TTLRemoverCLI extends JarManifestVersionProvider implements Runnabl
         }
     }
 
+    private static final class TTLFreeActionConverter implements ITypeConverter<TTLFreeAction> {
+
+        @Override
+        public TTLFreeAction convert(final String value) {
+            return TTLFreeAction.parse(value);
+        }
+    }
+
+    private static final class AccessModeConverter implements ITypeConverter<AccessMode> {
+
+        @Override
+        public AccessMode convert(final String value) {
+            return AccessMode.parse(value);
+        }
+    }
+
+    private static final class DataSizeConverter implements ITypeConverter<Long> {
+
+        @Override
+        public Long convert(final String value) {
+            return DataSize.parseBytes(value);
+        }
+    }
+
     public enum CassandraVersion {
         V2("2"),
         V3("3"),
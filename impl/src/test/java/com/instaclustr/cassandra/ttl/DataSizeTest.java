@@ -0,0 +1,55 @@
+package com.instaclustr.cassandra.ttl;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class DataSizeTest {
+
+    @Test
+    public void parsesPlainBytes() {
+        assertEquals(0, DataSize.parseBytes("0"));
+        assertEquals(1048576, DataSize.parseBytes("1048576"));
+        assertEquals(100, DataSize.parseBytes(" 100 "));
+        assertEquals(100, DataSize.parseBytes("100b"));
+    }
+
+    @Test
+    public void parsesBinaryUnits() {
+        assertEquals(1024, DataSize.parseBytes("1k"));
+        assertEquals(1024, DataSize.parseBytes("1KB"));
+        assertEquals(1024, DataSize.parseBytes("1KiB"));
+        assertEquals(512L * 1024 * 1024, DataSize.parseBytes("512MiB"));
+        assertEquals(64L * 1024 * 1024, DataSize.parseBytes("64 mb"));
+        assertEquals(10L * 1024 * 1024 * 1024, DataSize.parseBytes("10g"));
+        assertEquals(2L * 1024 * 1024 * 1024 * 1024, DataSize.parseBytes("2TiB"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingSize() {
+        DataSize.parseBytes(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownUnit() {
+        DataSize.parseBytes("10x");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeSize() {
+        DataSize.parseBytes("-1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFractions() {
+        DataSize.parseBytes("1.5g");
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void rejectsOverflow() {
+        DataSize.parseBytes("9999999t");
+    }
+}
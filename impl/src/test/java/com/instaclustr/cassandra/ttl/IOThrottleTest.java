@@ -0,0 +1,102 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.lang.String.format;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import com.instaclustr.cassandra.ttl.cli.TTLRemovalException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class IOThrottleTest {
+
+    private static final long MiB = 1024 * 1024;
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void unlimitedThrottleDoesNotWait() throws Exception {
+        final IOThrottle throttle = new IOThrottle(0, 0);
+
+        final long start = System.nanoTime();
+
+        throttle.acquireRead(Long.MAX_VALUE);
+        throttle.acquireWrite(Long.MAX_VALUE);
+
+        assertTrue(System.nanoTime() - start < SECOND);
+        assertEquals("read unlimited, write unlimited", throttle.toString());
+    }
+
+    @Test
+    public void limitedThrottleWaits() throws Exception {
+        final IOThrottle throttle = new IOThrottle(0, 4 * MiB);
+
+        final long start = System.nanoTime();
+
+        // the first acquisition is granted at once, the next one waits for it
+        throttle.acquireWrite(2 * MiB);
+        throttle.acquireWrite(1);
+
+        assertTrue(System.nanoTime() - start >= SECOND / 4);
+        assertEquals(format("read unlimited, write %.1f MiB/s", 4.0), throttle.toString());
+    }
+
+    @Test
+    public void backsOffAndRecoversUpToLimit() throws Exception {
+        final IOThrottle throttle = new IOThrottle(0, 4 * MiB);
+
+        throttle.acquireRead(16 * MiB);
+        throttle.acquireWrite(4 * MiB);
+        throttle.backOff(SECOND);
+
+        assertEquals(format("read %.1f MiB/s, write %.1f MiB/s", 8.0, 2.0), throttle.toString());
+
+        throttle.recover(SECOND);
+
+        assertEquals(format("read %.1f MiB/s, write %.1f MiB/s", 10.0, 2.5), throttle.toString());
+
+        for (int i = 0; i < 100; i++) {
+            throttle.recover(SECOND);
+        }
+
+        assertTrue(throttle.toString().endsWith(format("write %.1f MiB/s", 4.0)));
+    }
+
+    @Test
+    public void doesNotBackOffWithoutLoad() {
+        final IOThrottle throttle = new IOThrottle(0, 0);
+
+        throttle.backOff(SECOND);
+
+        assertEquals("read unlimited, write unlimited", throttle.toString());
+    }
+
+    @Test
+    public void doesNotBackOffBelowMinimum() throws Exception {
+        final IOThrottle throttle = new IOThrottle(4 * MiB, 0);
+
+        throttle.acquireRead(1);
+        throttle.backOff(SECOND);
+
+        assertEquals(format("read %.1f MiB/s, write unlimited", 1.0), throttle.toString());
+    }
+
+    @Test
+    public void interruptedThrottleFails() {
+        final IOThrottle throttle = new IOThrottle(MiB, 0);
+
+        Thread.currentThread().interrupt();
+
+        try {
+            throttle.acquireRead(1);
+            fail();
+        } catch (final TTLRemovalException ex) {
+            assertTrue(Thread.interrupted());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class PageCacheDropperTest {
+
+    private static final long MIB = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> advices = new ArrayList<>();
+
+    @Test
+    public void dropsPagesInSteps() {
+        final PageCacheDropper dropper = PageCacheDropper.create(true, "input-Data.db", this::skipCache);
+
+        dropper.advance("input-Data.db", 10 * MIB);
+        dropper.advance("input-Data.db", 20 * MIB);
+        dropper.advance("input-Data.db", 50 * MIB);
+
+        // pages before the first position belong to token ranges rewritten by others
+        assertEquals(asList("input-Data.db " + 10 * MIB + " " + 40 * MIB), advices);
+    }
+
+    @Test
+    public void finishKeepsPagesOfInput() throws Exception {
+        final String input = sstable("input").toString();
+        final Path output = sstable("output");
+
+        final PageCacheDropper dropper = PageCacheDropper.create(true, input, this::skipCache);
+
+        dropper.advance(input, 0);
+        dropper.advance(output.toString(), 0);
+        dropper.finish();
+
+        assertEquals(2, advices.size());
+        assertTrue(advices.stream().allMatch(advice -> advice.startsWith(folder.getRoot() + "/output-")));
+
+        advices.clear();
+
+        PageCacheDropper.dropSSTable(true, input, this::skipCache);
+
+        assertEquals(2, advices.size());
+        assertTrue(advices.stream().allMatch(advice -> advice.startsWith(folder.getRoot() + "/input-")));
+    }
+
+    @Test
+    public void doesNothingWhenDisabled() throws Exception {
+        final String input = sstable("input").toString();
+
+        final PageCacheDropper dropper = PageCacheDropper.create(false, input, this::skipCache);
+
+        dropper.advance(input, 0);
+        dropper.advance(input, 100 * MIB);
+        dropper.finish();
+
+        PageCacheDropper.dropSSTable(false, input, this::skipCache);
+
+        assertTrue(advices.isEmpty());
+    }
+
+    private Path sstable(final String name) throws IOException {
+        Files.createFile(folder.getRoot().toPath().resolve(name + "-Index.db"));
+
+        return Files.createFile(folder.getRoot().toPath().resolve(name + "-Data.db"));
+    }
+
+    private void skipCache(final String path, final long offset, final long length) {
+        advices.add(path + " " + offset + " " + length);
+    }
+}
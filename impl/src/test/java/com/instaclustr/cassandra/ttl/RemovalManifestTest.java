@@ -0,0 +1,169 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RemovalManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path input;
+
+    private Path outputDirectory;
+
+    private Path manifestFile;
+
+    @Before
+    public void setup() throws IOException {
+        input = write(folder.getRoot().toPath().resolve("input/ks/t/md-1-big-Data.db"), "input");
+        outputDirectory = folder.getRoot().toPath().resolve("output");
+        manifestFile = outputDirectory.resolve(RemovalManifest.FILE_NAME);
+    }
+
+    @Test
+    public void completedSSTableIsKeptOnResume() throws Exception {
+        final Path output = write(outputDirectory.resolve("ks/t/md-1-big-Data.db"), "output");
+
+        try (final RemovalManifest manifest = RemovalManifest.open(manifestFile, false)) {
+            manifest.started(input, output);
+            manifest.completed(input, SSTableOutcome.REWRITTEN, singletonList(output));
+        }
+
+        try (final RemovalManifest manifest = RemovalManifest.open(manifestFile, true)) {
+            assertTrue(manifest.isCompleted(input));
+
+            manifest.removeLeftovers();
+        }
+
+        assertTrue(Files.exists(output));
+    }
+
+    @Test
+    public void manifestIsStartedOverWithoutResume() throws Exception {
+        try (final RemovalManifest manifest = RemovalManifest.open(manifestFile, false)) {
+            manifest.completed(input, SSTableOutcome.SKIPPED, emptyList());
+        }
+
+        try (final RemovalManifest manifest = RemovalManifest.open(manifestFile, false)) {
+            assertFalse(manifest.isCompleted(input));
+        }
+
+        try (final RemovalManifest manifest = RemovalManifest.open(manifestFile, true)) {
+            assertFalse(manifest.isCompleted(input));
+        }
+    }
+
+    @Test
+    public void changedInputIsNotCompleted() throws Exception {
+        try (final RemovalManifest manifest = RemovalManifest.open(manifestFile, false)) {
+            manifest.completed(input, SSTableOutcome.SKIPPED, emptyList());
+        }
+
+        Files.write(input, "changed input".getBytes(StandardCharsets.UTF_8));
+
+        try (final RemovalManifest manifest = RemovalManifest.open(manifestFile, true)) {
+            assertFalse(manifest.isCompleted(input));
+        }
+    }
+
+    @Test
+    public void missingOutputIsNotCompleted() throws Exception {
+        final Path output = write(outputDirectory.resolve("ks/t/md-1-big-Data.db"), "output");
+
+        try (final RemovalManifest manifest = RemovalManifest.open(manifestFile, false)) {
+            manifest.started(input, output);
+            manifest.completed(input, SSTableOutcome.COPIED, singletonList(output));
+        }
+
+        Files.delete(output);
+
+        try (final RemovalManifest manifest = RemovalManifest.open(manifestFile, true)) {
+            assertFalse(manifest.isCompleted(input));
+        }
+    }
+
+    @Test
+    public void removesOnlyUnfinishedOutputs() throws Exception {
+        final Path other = write(folder.getRoot().toPath().resolve("input/ks/t/md-2-big-Data.db"), "other input");
+
+        final Path kept = write(outputDirectory.resolve("ks/t/md-1-big-Data.db"), "kept");
+        final Path keptIndex = write(outputDirectory.resolve("ks/t/md-1-big-Index.db"), "kept");
+        final Path unfinished = write(outputDirectory.resolve("ks/t/md-2-big-Data.db"), "unfinished");
+        final Path unfinishedIndex = write(outputDirectory.resolve("ks/t/md-2-big-Index.db"), "unfinished");
+        final Path unrelated = write(outputDirectory.resolve("ks/t/md-20-big-Data.db"), "unrelated");
+
+        final Path directory = outputDirectory.resolve("ks/t").toAbsolutePath();
+        final Path unfinishedLog = write(directory.resolve("md_txn_write_1.log"), "ADD:[" + directory.resolve("md-2-big") + ",0,8][1]\n");
+        final Path unrelatedLog = write(directory.resolve("md_txn_write_2.log"), "ADD:[" + directory.resolve("md-20-big") + ",0,8][1]\n");
+
+        try (final RemovalManifest manifest = RemovalManifest.open(manifestFile, false)) {
+            manifest.started(input, kept);
+            manifest.started(other, unfinished);
+            manifest.completed(input, SSTableOutcome.REWRITTEN, singletonList(kept));
+        }
+
+        try (final RemovalManifest manifest = RemovalManifest.open(manifestFile, true)) {
+            assertTrue(manifest.isCompleted(input));
+            assertFalse(manifest.isCompleted(other));
+
+            manifest.removeLeftovers();
+        }
+
+        for (final Path path : asList(kept, keptIndex, unrelated, unrelatedLog, input, other)) {
+            assertTrue(path.toString(), Files.exists(path));
+        }
+
+        for (final Path path : asList(unfinished, unfinishedIndex, unfinishedLog)) {
+            assertFalse(path.toString(), Files.exists(path));
+        }
+    }
+
+    @Test
+    public void ignoresTornLine() throws Exception {
+        final Path other = write(folder.getRoot().toPath().resolve("input/ks/t/md-2-big-Data.db"), "other input");
+
+        try (final RemovalManifest manifest = RemovalManifest.open(manifestFile, false)) {
+            manifest.completed(input, SSTableOutcome.SKIPPED, emptyList());
+        }
+
+        Files.write(manifestFile, "completed\t/torn".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (final RemovalManifest manifest = RemovalManifest.open(manifestFile, true)) {
+            assertTrue(manifest.isCompleted(input));
+
+            manifest.completed(other, SSTableOutcome.SKIPPED, emptyList());
+        }
+
+        try (final RemovalManifest manifest = RemovalManifest.open(manifestFile, true)) {
+            assertTrue(manifest.isCompleted(input));
+            assertTrue(manifest.isCompleted(other));
+        }
+
+        assertEquals(3, Files.readAllLines(manifestFile, StandardCharsets.UTF_8).stream().filter(line -> !line.startsWith("#")).count());
+    }
+
+    private static Path write(final Path file, final String content) throws IOException {
+        Files.createDirectories(file.getParent());
+
+        return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,212 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.lang.String.format;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import com.instaclustr.cassandra.ttl.cli.TTLRemoverCLI;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine;
+
+/**
+ * Runs the removal with various options in embedded tests of every Cassandra version. Outputs of the runs
+ * are loaded into Cassandra once all of them are done and their rows are counted.
+ *
+ * Only the version independent part lives here, SSTables are generated and outputs are loaded by tests
+ * with the generator and the bulk loader of their Cassandra version.
+ */
+public final class RemovalTestHarness {
+
+    private static final Logger logger = LoggerFactory.getLogger(RemovalTestHarness.class);
+
+    public static final String KEYSPACE = "test";
+
+    public static final String TABLE = "test";
+
+    // rows of a single SSTable, enough of them to have several samples in its index summary
+    public static final int ROWS = 500;
+
+    private final TemporaryFolder outputs;
+
+    private final List<String> arguments;
+
+    private final Map<String, Path> rewritten = new LinkedHashMap<>();
+
+    /**
+     * @param outputs   folder output paths of removals are created in
+     * @param arguments arguments every removal is run with besides its SSTables and output path,
+     *                  e.g. Cassandra version and schema of the table
+     */
+    public RemovalTestHarness(final TemporaryFolder outputs, final String... arguments) {
+        this.outputs = outputs;
+        this.arguments = Arrays.asList(arguments);
+    }
+
+    /**
+     * @return rows of a single SSTable with many rows, for the row mapper of a generator
+     */
+    public static Stream<List<Object>> manyRows() {
+        return IntStream.range(0, ROWS).mapToObj(i -> Arrays.<Object>asList(UUID.randomUUID(), "name " + i, "surname " + i));
+    }
+
+    /**
+     * Runs a removal into a new output path which is loaded by {@link #assertRowCounts}.
+     *
+     * @param name name of the output in assertion messages
+     */
+    public Path rewrite(final String name, final Path sstables, final String... options) throws IOException {
+        final Path output = runRemoval(sstables, options);
+
+        rewritten.put(name, output);
+
+        return output;
+    }
+
+    /**
+     * Runs a removal into a new output path which is not loaded.
+     */
+    public Path runRemoval(final Path sstables, final String... options) throws IOException {
+        return runRemoval(sstables, outputs.newFolder().toPath(), options);
+    }
+
+    public Path runRemoval(final Path sstables, final Path output, final String... options) {
+        final List<String> args = new ArrayList<>(arguments);
+
+        args.addAll(Arrays.asList("--sstables", sstables.toString(), "--output-path", output.toString()));
+        args.addAll(Arrays.asList(options));
+
+        logger.info(format("Removing TTLs with %s ...", Arrays.toString(options)));
+
+        assertEquals(0, TTLRemoverCLI.execute(new CommandLine(new TTLRemoverCLI()), args.toArray(new String[0])));
+
+        return output;
+    }
+
+    /**
+     * Runs a removal of uncompressed output SSTables rolled over a size small enough to split every input SSTable.
+     */
+    public void rewriteRolled(final Path sstables) throws IOException {
+        final Path rolled = rewrite("--max-output-sstable-size", sstables, "--output-compression=none", "--max-output-sstable-size=4KiB");
+
+        assertTrue(dataFiles(rolled).size() > 2);
+    }
+
+    /**
+     * Runs a removal which writes the very same files as another removal of the same SSTables did,
+     * e.g. because options it is run with change only how output SSTables are written.
+     *
+     * @param expected output path of the other removal
+     */
+    public void rewriteIdentical(final String name, final Path sstables, final Path expected, final String... options) throws IOException {
+        final Path output = rewrite(name, sstables, options);
+
+        final List<Path> expectedFiles = files(expected);
+
+        assertEquals(expectedFiles.size(), files(output).size());
+
+        for (final Path file : expectedFiles) {
+            final Path actual = tableDirectory(output).resolve(file.getFileName());
+
+            assertArrayEquals(actual.toString(), Files.readAllBytes(file), Files.readAllBytes(actual));
+        }
+    }
+
+    /**
+     * Runs removals of SSTables without TTL with every {@link TTLFreeAction}, none of them rewrites an SSTable.
+     *
+     * @param output output path of a removal, so its SSTables are free of TTL
+     */
+    public void rewriteTTLFree(final Path output) throws IOException {
+        final Path ttlFree = output.resolve(KEYSPACE);
+        final List<Path> ttlFreeDataFiles = dataFiles(output);
+
+        assertTrue(dataFiles(runRemoval(ttlFree, "--ttl-free-action=skip")).isEmpty());
+
+        final Path copied = rewrite("--ttl-free-action=copy", ttlFree, "--ttl-free-action=copy");
+        final Path linked = runRemoval(ttlFree, "--ttl-free-action=link");
+
+        assertEquals(ttlFreeDataFiles.size(), dataFiles(copied).size());
+        assertEquals(ttlFreeDataFiles.size(), dataFiles(linked).size());
+
+        for (final Path dataFile : ttlFreeDataFiles) {
+            assertFalse(Files.isSameFile(dataFile, tableDirectory(copied).resolve(dataFile.getFileName())));
+            assertTrue(Files.isSameFile(dataFile, tableDirectory(linked).resolve(dataFile.getFileName())));
+        }
+    }
+
+    /**
+     * Runs a removal with a manifest and resumes it, the resumed run keeps everything the first one completed.
+     */
+    public void rewriteResumed(final Path sstables) throws IOException {
+        final Path resumed = rewrite("--resume", sstables, "--manifest");
+        final Map<Path, FileTime> modified = lastModified(resumed);
+
+        runRemoval(sstables, resumed, "--resume");
+
+        assertTrue(Files.exists(resumed.resolve(RemovalManifest.FILE_NAME)));
+        assertEquals(modified, lastModified(resumed));
+    }
+
+    /**
+     * Loads every output of {@link #rewrite} and checks it holds the expected number of rows.
+     *
+     * @param loadAndCount loads SSTables of a table directory into an empty table and counts its rows
+     */
+    public void assertRowCounts(final int expected, final ToIntFunction<Path> loadAndCount) {
+        for (final Map.Entry<String, Path> output : rewritten.entrySet()) {
+            assertEquals(output.getKey(), expected, loadAndCount.applyAsInt(tableDirectory(output.getValue())));
+        }
+    }
+
+    public static Path tableDirectory(final Path output) {
+        return output.resolve(KEYSPACE).resolve(TABLE);
+    }
+
+    public static List<Path> dataFiles(final Path output) throws IOException {
+        if (!Files.exists(tableDirectory(output))) {
+            return new ArrayList<>();
+        }
+
+        try (final Stream<Path> files = Files.list(tableDirectory(output))) {
+            return files.filter(path -> path.getFileName().toString().endsWith("-Data.db")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static List<Path> files(final Path output) throws IOException {
+        try (final Stream<Path> files = Files.list(tableDirectory(output))) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static Map<Path, FileTime> lastModified(final Path output) throws IOException {
+        final Map<Path, FileTime> modified = new TreeMap<>();
+
+        try (final Stream<Path> files = Files.list(tableDirectory(output))) {
+            for (final Path file : files.collect(Collectors.toList())) {
+                modified.put(file, Files.getLastModifiedTime(file));
+            }
+        }
+
+        return modified;
+    }
+}
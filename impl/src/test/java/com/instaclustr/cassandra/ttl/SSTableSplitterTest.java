@@ -0,0 +1,149 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.instaclustr.cassandra.ttl.cli.TTLRemovalException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SSTableSplitterTest {
+
+    @Test
+    public void splitsSamplesEvenly() {
+        assertEquals(asList(2, 4, 6), SSTableSplitter.boundaries(range(8), 4));
+        assertEquals(asList(3, 6), SSTableSplitter.boundaries(range(10), 3));
+    }
+
+    @Test
+    public void doesNotSplitToSinglePart() {
+        assertEquals(emptyList(), SSTableSplitter.boundaries(range(10), 1));
+        assertEquals(emptyList(), SSTableSplitter.boundaries(range(10), 0));
+    }
+
+    @Test
+    public void doesNotSplitTooFewSamples() {
+        assertEquals(emptyList(), SSTableSplitter.boundaries(range(3), 4));
+        assertEquals(emptyList(), SSTableSplitter.boundaries(new ArrayList<Integer>(), 2));
+    }
+
+    @Test
+    public void skipsCollidingBoundaries() {
+        assertEquals(asList(1), SSTableSplitter.boundaries(asList(0, 1, 1, 1, 1, 2), 3));
+    }
+
+    @Test
+    public void keepsAllKeysWithoutSizeLimit() {
+        assertEquals(1000, SSTableSplitter.keysPerSSTable(1000, 4000, 1 << 20, Long.MAX_VALUE));
+        assertEquals(1000, SSTableSplitter.keysPerSSTable(1000, 4000, 1 << 20, 1 << 20));
+    }
+
+    @Test
+    public void estimatesKeysOfLimitedSSTable() {
+        assertEquals(1000, SSTableSplitter.keysPerSSTable(4000, 4000, 4 << 20, 1 << 20));
+        // a part of a token range never holds more keys than the range itself
+        assertEquals(500, SSTableSplitter.keysPerSSTable(500, 4000, 4 << 20, 1 << 20));
+        assertEquals(1, SSTableSplitter.keysPerSSTable(10, 10, 1 << 30, 1));
+    }
+
+    @Test
+    public void rollsOnceSizeIsReached() {
+        assertFalse(SSTableSplitter.isFull(0, 1024));
+        assertFalse(SSTableSplitter.isFull(1023, 1024));
+        assertTrue(SSTableSplitter.isFull(1024, 1024));
+        assertTrue(SSTableSplitter.isFull(2048, 1024));
+        assertFalse(SSTableSplitter.isFull(Long.MAX_VALUE - 1, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void runsAllTasks() throws Exception {
+        final List<Callable<Integer>> tasks = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++) {
+            final int result = i;
+            tasks.add(() -> result);
+        }
+
+        assertEquals(asList(0, 1, 2, 3), SSTableSplitter.runConcurrently(tasks, new Semaphore(3)));
+    }
+
+    @Test
+    public void runsOnIdleWorkersOnly() throws Exception {
+        final Semaphore idleWorkers = new Semaphore(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final List<Callable<Integer>> tasks = new ArrayList<>();
+
+        for (int i = 0; i < 8; i++) {
+            tasks.add(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(10);
+                running.decrementAndGet();
+                return 0;
+            });
+        }
+
+        assertEquals(8, SSTableSplitter.runConcurrently(tasks, idleWorkers).size());
+
+        // the calling thread and one idle worker
+        assertTrue(maxRunning.get() <= 2);
+        assertEquals(1, idleWorkers.availablePermits());
+    }
+
+    @Test
+    public void runsOnCallingThreadWithoutIdleWorkers() throws Exception {
+        final List<Callable<Thread>> tasks = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++) {
+            tasks.add(Thread::currentThread);
+        }
+
+        for (final Thread thread : SSTableSplitter.runConcurrently(tasks, new Semaphore(0))) {
+            assertEquals(Thread.currentThread(), thread);
+        }
+    }
+
+    @Test
+    public void reportsAllFailures() {
+        final List<Callable<Integer>> tasks = new ArrayList<>();
+
+        tasks.add(() -> 1);
+        tasks.add(() -> {
+            throw new IllegalStateException("first");
+        });
+        tasks.add(() -> {
+            throw new IllegalStateException("second");
+        });
+
+        try {
+            SSTableSplitter.runConcurrently(tasks, new Semaphore(2));
+            fail();
+        } catch (final TTLRemovalException ex) {
+            assertEquals("first", ex.getCause().getMessage());
+            assertEquals(1, ex.getSuppressed().length);
+            assertEquals("second", ex.getSuppressed()[0].getMessage());
+        }
+    }
+
+    private static List<Integer> range(final int count) {
+        final List<Integer> samples = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            samples.add(i);
+        }
+
+        return samples;
+    }
+}
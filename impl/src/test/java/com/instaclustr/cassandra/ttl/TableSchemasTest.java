@@ -0,0 +1,136 @@
+package com.instaclustr.cassandra.ttl;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.instaclustr.cassandra.ttl.cli.TTLRemovalException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TableSchemasTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void splitsBySemicolons() {
+        assertEquals(asList("CREATE TABLE ks.a (id int PRIMARY KEY)", "CREATE TABLE ks.b (id int PRIMARY KEY)"),
+                     TableSchemas.split("CREATE TABLE ks.a (id int PRIMARY KEY);\n\nCREATE TABLE ks.b (id int PRIMARY KEY);\n"));
+    }
+
+    @Test
+    public void keepsLastStatementWithoutSemicolon() {
+        assertEquals(asList("USE ks", "CREATE TABLE a (id int PRIMARY KEY)"),
+                     TableSchemas.split("USE ks; CREATE TABLE a (id int PRIMARY KEY)"));
+    }
+
+    @Test
+    public void doesNotSplitQuotedSemicolons() {
+        assertEquals(asList("CREATE TABLE ks.a (id int PRIMARY KEY) WITH comment = 'a;b''c;d'", "CREATE TABLE ks.\"x;\"\"y\" (id int PRIMARY KEY)"),
+                     TableSchemas.split("CREATE TABLE ks.a (id int PRIMARY KEY) WITH comment = 'a;b''c;d'; CREATE TABLE ks.\"x;\"\"y\" (id int PRIMARY KEY);"));
+    }
+
+    @Test
+    public void doesNotSplitDollarQuotedSemicolons() {
+        assertEquals(asList("CREATE TABLE ks.a (id int PRIMARY KEY) WITH comment = $$a;b$$", "USE ks"),
+                     TableSchemas.split("CREATE TABLE ks.a (id int PRIMARY KEY) WITH comment = $$a;b$$; USE ks;"));
+    }
+
+    @Test
+    public void dropsComments() {
+        assertEquals(asList("CREATE TABLE ks.a (id int PRIMARY KEY)", "CREATE TABLE ks.b (id int PRIMARY KEY)"),
+                     TableSchemas.split("-- first; table\n"
+                                            + "CREATE TABLE ks.a (id int PRIMARY KEY); // second; comment\n"
+                                            + "/* block;\n comment; */ CREATE TABLE ks.b (id int PRIMARY KEY);\n"
+                                            + "-- trailing comment"));
+    }
+
+    @Test
+    public void parsesQualifiedTables() throws Exception {
+        final TableSchemas schemas = TableSchemas.parse("CREATE KEYSPACE ks WITH replication = {'class': 'SimpleStrategy', 'replication_factor': 1};\n"
+                                                            + "CREATE TABLE IF NOT EXISTS ks.a (id int PRIMARY KEY);\n"
+                                                            + "create columnfamily Ks.B (id int PRIMARY KEY);\n");
+
+        assertEquals(2, schemas.size());
+        assertTrue(schemas.covers("ks", "a"));
+        assertTrue(schemas.covers("ks", "b"));
+        assertFalse(schemas.covers("ks", "c"));
+        assertEquals("CREATE TABLE IF NOT EXISTS ks.a (id int PRIMARY KEY);", schemas.cqlFor("ks", "a"));
+    }
+
+    @Test
+    public void qualifiesTablesByUse() throws Exception {
+        final TableSchemas schemas = TableSchemas.parse("USE ks1;\n"
+                                                            + "CREATE TABLE a (id int PRIMARY KEY);\n"
+                                                            + "USE \"Ks2\";\n"
+                                                            + "CREATE TABLE a (id int PRIMARY KEY);\n"
+                                                            + "CREATE TABLE other.a (id int PRIMARY KEY);\n");
+
+        assertEquals(3, schemas.size());
+        assertTrue(schemas.covers("ks1", "a"));
+        assertTrue(schemas.covers("Ks2", "a"));
+        assertTrue(schemas.covers("other", "a"));
+        assertFalse(schemas.covers("ks2", "a"));
+    }
+
+    @Test
+    public void unquotesIdentifiers() throws Exception {
+        final TableSchemas schemas = TableSchemas.parse("CREATE TABLE \"Ks\".\"My\"\"Table\" (id int PRIMARY KEY);");
+
+        assertTrue(schemas.covers("Ks", "My\"Table"));
+    }
+
+    @Test
+    public void parsesSchemaFile() throws Exception {
+        final Path file = folder.newFile("schema.cql").toPath();
+
+        Files.write(file, "CREATE TABLE ks.a (id int PRIMARY KEY);".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(TableSchemas.parse(file).covers("ks", "a"));
+    }
+
+    @Test
+    public void usesSingleStatementForAllTables() throws Exception {
+        final TableSchemas schemas = TableSchemas.of("CREATE TABLE ks.a (id int PRIMARY KEY);");
+
+        assertEquals(1, schemas.size());
+        assertTrue(schemas.covers("other", "table"));
+        assertEquals("CREATE TABLE ks.a (id int PRIMARY KEY);", schemas.cqlFor("other", "table"));
+    }
+
+    @Test
+    public void rejectsUnqualifiedTable() {
+        try {
+            TableSchemas.parse("CREATE TABLE a (id int PRIMARY KEY);");
+            fail();
+        } catch (final TTLRemovalException ex) {
+            assertTrue(ex.getMessage().contains("not qualified by a keyspace"));
+        }
+    }
+
+    @Test
+    public void rejectsSchemaWithoutTables() {
+        try {
+            TableSchemas.parse("CREATE KEYSPACE ks WITH replication = {'class': 'SimpleStrategy', 'replication_factor': 1};");
+            fail();
+        } catch (final TTLRemovalException ex) {
+            assertTrue(ex.getMessage().contains("CREATE TABLE"));
+        }
+    }
+
+    @Test(expected = TTLRemovalException.class)
+    public void rejectsUnknownTable() throws Exception {
+        TableSchemas.parse("CREATE TABLE ks.a (id int PRIMARY KEY);").cqlFor("ks", "b");
+    }
+}